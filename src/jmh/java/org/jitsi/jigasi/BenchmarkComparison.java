@@ -0,0 +1,171 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import org.json.simple.*;
+import org.json.simple.parser.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares the json results of a JMH run with a baseline and fails when a
+ * benchmark got slower than the allowed threshold. Benchmarks measured in
+ * time per operation regress when their score grows, throughput ones when
+ * it drops. Benchmarks missing from either side are reported and ignored.
+ *
+ * Usage: <tt>BenchmarkComparison results.json baseline.json [threshold-percent] [--update]</tt>,
+ * with <tt>--update</tt> the results replace the baseline instead.
+ */
+public class BenchmarkComparison
+{
+    /**
+     * The regression allowed by default, in percent.
+     */
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    /**
+     * Compares the results with the baseline, exits with 1 on regressions.
+     * @param args the results, the baseline, the threshold and the update flag.
+     */
+    public static void main(String[] args)
+        throws IOException, ParseException
+    {
+        if (args.length < 2)
+        {
+            System.err.println(
+                "Usage: BenchmarkComparison <results.json> <baseline.json> [threshold-percent] [--update]");
+            System.exit(2);
+        }
+
+        Path results = Paths.get(args[0]);
+        Path baseline = Paths.get(args[1]);
+        boolean update = Arrays.asList(args).contains("--update");
+        double threshold = args.length > 2 && !"--update".equals(args[2]) && !args[2].isEmpty()
+            ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        if (!Files.exists(results))
+        {
+            System.out.println("No benchmark results at " + results + ", nothing to compare.");
+            return;
+        }
+
+        if (update)
+        {
+            Files.createDirectories(baseline.toAbsolutePath().getParent());
+            Files.copy(results, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Baseline " + baseline + " updated from " + results);
+            return;
+        }
+
+        if (!Files.exists(baseline))
+        {
+            System.out.println("No baseline at " + baseline + ", run with -Djmh.compare.args=--update to create it.");
+            return;
+        }
+
+        Map<String, JSONObject> current = load(results);
+        Map<String, JSONObject> base = load(baseline);
+
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, JSONObject> e : current.entrySet())
+        {
+            JSONObject before = base.get(e.getKey());
+            if (before == null)
+            {
+                System.out.println(String.format("%-90s new", e.getKey()));
+                continue;
+            }
+
+            double oldScore = score(before);
+            double newScore = score(e.getValue());
+            String unit = (String) ((JSONObject) e.getValue().get("primaryMetric")).get("scoreUnit");
+            boolean higherIsBetter = "thrpt".equals(e.getValue().get("mode"));
+
+            // positive when worse
+            double change = oldScore == 0 ? 0 : (newScore - oldScore) / oldScore * 100;
+            double regression = higherIsBetter ? -change : change;
+
+            String line = String.format("%-90s %12.3f -> %12.3f %-10s %+7.1f%%",
+                e.getKey(), oldScore, newScore, unit, change);
+            if (regression > threshold)
+            {
+                line += "  REGRESSION";
+                regressions.add(e.getKey());
+            }
+            System.out.println(line);
+        }
+
+        for (String key : base.keySet())
+        {
+            if (!current.containsKey(key))
+            {
+                System.out.println(String.format("%-90s not run", key));
+            }
+        }
+
+        if (!regressions.isEmpty())
+        {
+            System.err.println(regressions.size() + " benchmark(s) regressed more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads the results of a JMH json report.
+     * @param file the report.
+     * @return the results by benchmark, mode and parameters.
+     */
+    private static Map<String, JSONObject> load(Path file)
+        throws IOException, ParseException
+    {
+        Map<String, JSONObject> results = new TreeMap<>();
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            for (Object o : (JSONArray) new JSONParser().parse(reader))
+            {
+                JSONObject result = (JSONObject) o;
+                StringBuilder key = new StringBuilder()
+                    .append(result.get("benchmark")).append(' ').append(result.get("mode"));
+
+                JSONObject params = (JSONObject) result.get("params");
+                if (params != null)
+                {
+                    new TreeMap<Object, Object>(params)
+                        .forEach((k, v) -> key.append(' ').append(k).append('=').append(v));
+                }
+
+                results.put(key.toString(), result);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @param result a JMH result.
+     * @return the primary score of the result.
+     */
+    private static double score(JSONObject result)
+    {
+        return ((Number) ((JSONObject) result.get("primaryMetric")).get("score")).doubleValue();
+    }
+}
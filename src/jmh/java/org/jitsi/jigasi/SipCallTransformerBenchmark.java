@@ -0,0 +1,102 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.neomedia.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Measures the per packet cost of {@link SipCallTransformer} in both
+ * directions, for a single stream and for packets alternating between
+ * several ssrcs (e.g. a translator forwarding multiple sources).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SipCallTransformerBenchmark
+{
+    /**
+     * The number of different ssrcs the packets are using.
+     */
+    @Param({"1", "8"})
+    public int ssrcCount;
+
+    /**
+     * The transformer under test.
+     */
+    private SipCallTransformer transformer;
+
+    /**
+     * The packets, one per ssrc.
+     */
+    private RawPacket[] packets;
+
+    /**
+     * The index of the next packet to use.
+     */
+    private int next = 0;
+
+    @Setup
+    public void setup()
+    {
+        // the handler and the stream are only used to send keep alive packets when there is no outgoing media
+        transformer = new SipCallTransformer(null, null);
+
+        packets = new RawPacket[ssrcCount];
+        for (int i = 0; i < ssrcCount; i++)
+        {
+            packets[i] = Util.makeRTP(
+                0x10000000L + i * 7919, 111, i, i * 960L, RawPacket.FIXED_HEADER_SIZE + 80);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        transformer.dispose();
+    }
+
+    /**
+     * Returns the next packet, rotating between the ssrcs.
+     * @return the packet.
+     */
+    private RawPacket nextPacket()
+    {
+        RawPacket pkt = packets[next];
+        next = next + 1 == packets.length ? 0 : next + 1;
+        return pkt;
+    }
+
+    @Benchmark
+    public RawPacket transform()
+    {
+        return transformer.transform(nextPacket());
+    }
+
+    @Benchmark
+    public RawPacket reverseTransform()
+    {
+        return transformer.reverseTransform(nextPacket());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.utils.logging2.*;
+
+import javax.media.Buffer;
+import javax.media.format.*;
+import javax.media.rtp.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * A transcriber wired to a speech-to-text service that drops the audio, so
+ * the benchmarks measure only the work jigasi does before sending it. The
+ * work normally offloaded to the transcriber's executor runs inline.
+ */
+class BenchmarkTranscription
+{
+    /**
+     * The bytes of a 20ms packet of 16 bit mono audio at 48kHz.
+     */
+    static final int PACKET_LENGTH = 1920;
+
+    /**
+     * The format of the audio given to the participants.
+     */
+    static final AudioFormat FORMAT = new AudioFormat(AudioFormat.LINEAR, 48000, 16, 1);
+
+    /**
+     * The service receiving the audio.
+     */
+    final DroppingService service = new DroppingService();
+
+    /**
+     * The transcriber.
+     */
+    final Transcriber transcriber;
+
+    /**
+     * Creates a started transcriber.
+     */
+    BenchmarkTranscription()
+    {
+        TestEnvironment.init();
+
+        CallContext ctx = new CallContext(this);
+        transcriber = new Transcriber("benchmark", "https://localhost/benchmark", service, ctx,
+            new LoggerImpl(BenchmarkTranscription.class.getName()));
+        transcriber.start();
+
+        // run the buffering and sending inline, instead of on the transcriber's thread
+        transcriber.executorService.shutdown();
+        transcriber.executorService = new InlineExecutorService();
+    }
+
+    /**
+     * Adds a participant transcribed in english.
+     * @param id the identifier of the participant.
+     * @param ssrc the audio ssrc of the participant.
+     * @return the participant.
+     */
+    Participant addParticipant(String id, long ssrc)
+    {
+        transcriber.updateParticipant(id, TestEnvironment.proxy(ConferenceMember.class, method ->
+            "getAudioSsrc".equals(method) ? ssrc : null));
+        transcriber.updateParticipantSourceLanguage(id, "en");
+        transcriber.participantJoined(id);
+
+        return transcriber.getParticipants().stream()
+            .filter(p -> id.equals(p.getId()))
+            .findFirst()
+            .orElseThrow();
+    }
+
+    /**
+     * Creates a receive stream with the given ssrc.
+     * @param ssrc the ssrc.
+     * @return the stream.
+     */
+    static ReceiveStream receiveStream(long ssrc)
+    {
+        return TestEnvironment.proxy(ReceiveStream.class, method -> "getSSRC".equals(method) ? ssrc : null);
+    }
+
+    /**
+     * Creates a packet of audio.
+     * @param speech whether the packet is loud enough to be speech, or silence.
+     * @return the buffer.
+     */
+    static Buffer audioPacket(boolean speech)
+    {
+        byte[] audio = new byte[PACKET_LENGTH];
+        if (speech)
+        {
+            new Random(1).nextBytes(audio);
+        }
+
+        Buffer buffer = new Buffer();
+        buffer.setData(audio);
+        buffer.setLength(audio.length);
+        buffer.setFormat(FORMAT);
+
+        return buffer;
+    }
+
+    /**
+     * A streaming service which counts and drops the audio.
+     */
+    static class DroppingService
+        extends AbstractTranscriptionService
+    {
+        /**
+         * The number of bytes of audio received.
+         */
+        long receivedBytes = 0;
+
+        @Override
+        public boolean supportsFragmentTranscription()
+        {
+            return false;
+        }
+
+        @Override
+        public void sendSingleRequest(TranscriptionRequest request, Consumer<TranscriptionResult> resultConsumer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean supportsStreamRecognition()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean supportsLanguageRouting()
+        {
+            return false;
+        }
+
+        @Override
+        public StreamingRecognitionSession initStreamingSession(Participant participant)
+        {
+            return new StreamingRecognitionSession()
+            {
+                @Override
+                public void sendRequest(TranscriptionRequest request)
+                {
+                    receivedBytes += request.getAudio().length;
+                }
+
+                @Override
+                public void end()
+                {
+                }
+
+                @Override
+                public boolean ended()
+                {
+                    return false;
+                }
+
+                @Override
+                public void addTranscriptionListener(TranscriptionListener listener)
+                {
+                }
+            };
+        }
+
+        @Override
+        public boolean isConfiguredProperly()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Executes the tasks on the calling thread.
+     */
+    private static class InlineExecutorService
+        extends AbstractExecutorService
+    {
+        /**
+         * Whether the executor was shut down.
+         */
+        private volatile boolean shutdown = false;
+
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+
+        @Override
+        public void shutdown()
+        {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+        {
+            return true;
+        }
+    }
+}
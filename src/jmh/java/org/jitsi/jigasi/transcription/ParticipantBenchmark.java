@@ -0,0 +1,69 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.media.Buffer;
+import java.util.concurrent.*;
+
+/**
+ * Measures the cost of a packet of audio given to a {@link Participant}:
+ * silence filtering, buffering and sending the buffered audio to the
+ * service every 500ms of audio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticipantBenchmark
+{
+    /**
+     * Whether the silence filter is used.
+     */
+    @Param({"false", "true"})
+    public boolean filterSilence;
+
+    /**
+     * The participant under test.
+     */
+    private Participant participant;
+
+    /**
+     * A packet of speech.
+     */
+    private Buffer packet;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkTranscription transcription = new BenchmarkTranscription();
+
+        participant = new Participant(transcription.transcriber, "participant", filterSilence);
+        participant.setSourceLanguage("en");
+        packet = BenchmarkTranscription.audioPacket(true);
+    }
+
+    @Benchmark
+    public void giveBuffer()
+    {
+        participant.giveBuffer(packet);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Measures the voice activity detection done on every packet of audio when
+ * the silence filter is enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SilenceFilterBenchmark
+{
+    /**
+     * Whether the packets are speech or silence.
+     */
+    @Param({"false", "true"})
+    public boolean speech;
+
+    /**
+     * The filter under test.
+     */
+    private SilenceFilter filter;
+
+    /**
+     * A 20ms packet of audio.
+     */
+    private byte[] audio;
+
+    @Setup
+    public void setup()
+    {
+        filter = new SilenceFilter();
+        audio = (byte[]) BenchmarkTranscription.audioPacket(speech).getData();
+    }
+
+    @Benchmark
+    public boolean giveSegment()
+    {
+        filter.giveSegment(audio);
+        return filter.shouldFilter();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Measures the recording of the energy of a packet of audio in the
+ * {@link SpeakerTimeline}, done on the mixing thread for every ssrc, and the
+ * attribution of a result of a few seconds, with several ssrcs speaking.
+ * Run with <tt>-prof gc</tt> to check recording does not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpeakerTimelineBenchmark
+{
+    /**
+     * The number of ssrcs speaking.
+     */
+    @Param({"1", "8", "64"})
+    public int ssrcCount;
+
+    /**
+     * The timeline under test.
+     */
+    private SpeakerTimeline timeline;
+
+    /**
+     * A 20ms packet of speech.
+     */
+    private byte[] audio;
+
+    /**
+     * The time of the audio recorded, 20ms per mixing cycle.
+     */
+    private long nowMillis;
+
+    /**
+     * The ssrc of the next packet.
+     */
+    private int next = 0;
+
+    @Setup
+    public void setup()
+    {
+        timeline = new SpeakerTimeline(SpeakerTimeline.DEFAULT_FRAMES);
+        audio = (byte[]) BenchmarkTranscription.audioPacket(true).getData();
+        nowMillis = System.currentTimeMillis();
+
+        // a full timeline for the attribution
+        for (int i = 0; i < SpeakerTimeline.DEFAULT_FRAMES * ssrcCount; i++)
+        {
+            record();
+        }
+    }
+
+    /**
+     * Records the next packet, rotating between the ssrcs.
+     */
+    private void record()
+    {
+        timeline.record(0x10000000L + next, audio, nowMillis);
+        if (++next == ssrcCount)
+        {
+            next = 0;
+            nowMillis += SpeakerTimeline.FRAME_MS;
+        }
+    }
+
+    @Benchmark
+    public void recordPacket()
+    {
+        record();
+    }
+
+    @Benchmark
+    public long attributeResult()
+    {
+        return timeline.getDominantSsrc(nowMillis - 5000, nowMillis);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.jigasi.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures streaming audio to a local {@link SttStubServer} through the
+ * real websocket clients of the Vosk and Whisper services: the throughput
+ * of sending the 500ms chunks buffered by a participant, with a server
+ * reading as fast as it can or slowly, which shows the backpressure, and
+ * the cost of opening a Vosk connection, which bounds reconnect storms.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SttStubBenchmark
+{
+    /**
+     * How long the server needs to accept the connections.
+     */
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+
+    /**
+     * The service streamed to.
+     */
+    @Param({"vosk", "whisper"})
+    public String backend;
+
+    /**
+     * How long the server holds the reading of every chunk, in milliseconds.
+     */
+    @Param({"0", "1"})
+    public long slowConsumerMs;
+
+    /**
+     * The stand-in server.
+     */
+    private SttStubServer server;
+
+    /**
+     * The transcription the participant belongs to.
+     */
+    private BenchmarkTranscription transcription;
+
+    /**
+     * The participant streaming.
+     */
+    private Participant participant;
+
+    /**
+     * The streaming session of the participant.
+     */
+    private TranscriptionService.StreamingRecognitionSession session;
+
+    /**
+     * 500ms of audio, as buffered by the participant.
+     */
+    private TranscriptionRequest request;
+
+    @Setup
+    public void setup()
+        throws Exception
+    {
+        server = new SttStubServer(25);
+        server.start();
+        server.setSlowConsumerMs(slowConsumerMs);
+
+        // the services read their urls when created, whisper once per process
+        TestEnvironment.setProperty(VoskTranscriptionService.WEBSOCKET_URL, server.getUri().toString());
+        TestEnvironment.setProperty(WhisperWebsocket.WEBSOCKET_URL, server.getWhisperUri().toString());
+
+        transcription = new BenchmarkTranscription();
+        participant = transcription.addParticipant("speaker", 0x10000000L);
+        ChatRoom room = TestEnvironment.proxy(ChatRoom.class,
+            method -> "getIdentifier".equals(method) ? "benchmark@conference.net" : null);
+        transcription.transcriber.updateParticipant("speaker", TestEnvironment.proxy(ChatRoomMember.class,
+            method -> "getName".equals(method) ? "speaker" : "getChatRoom".equals(method) ? room : null));
+
+        AbstractTranscriptionService service
+            = "whisper".equals(backend) ? new WhisperTranscriptionService() : new VoskTranscriptionService();
+        session = openSession(service, participant);
+
+        byte[] audio = new byte[BenchmarkTranscription.PACKET_LENGTH * 25];
+        new Random(1).nextBytes(audio);
+        request = new TranscriptionRequest(audio, BenchmarkTranscription.FORMAT, Locale.ENGLISH);
+    }
+
+    @TearDown
+    public void tearDown()
+        throws Exception
+    {
+        session.end();
+        server.stop();
+    }
+
+    /**
+     * Sends 500ms of audio of the participant.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void sendAudio()
+    {
+        session.sendRequest(request);
+    }
+
+    /**
+     * Opens a Vosk connection for the participant and closes it, as done
+     * for every participant when the server drops all connections.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void reconnectVosk()
+        throws Exception
+    {
+        openSession(new VoskTranscriptionService(), participant).end();
+    }
+
+    /**
+     * Opens a streaming session and waits for it to be connected.
+     */
+    private static TranscriptionService.StreamingRecognitionSession openSession(
+        AbstractTranscriptionService service, Participant participant)
+        throws Exception
+    {
+        TranscriptionService.StreamingRecognitionSession session = service.initStreamingSession(participant);
+
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (session.ended())
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                throw new TimeoutException("Not connected to the stub server");
+            }
+            Thread.onSpinWait();
+        }
+
+        return session;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.media.Buffer;
+import javax.media.rtp.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures {@link Transcriber#bufferReceived(ReceiveStream, Buffer)}, called
+ * by the mixer for every packet of every participant, with packets rotating
+ * between the participants of the room.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranscriberBenchmark
+{
+    /**
+     * The number of participants in the room.
+     */
+    @Param({"1", "10", "50"})
+    public int participants;
+
+    /**
+     * The transcriber under test.
+     */
+    private Transcriber transcriber;
+
+    /**
+     * The receive streams of the participants.
+     */
+    private ReceiveStream[] streams;
+
+    /**
+     * A packet of speech.
+     */
+    private Buffer packet;
+
+    /**
+     * The index of the next stream to use.
+     */
+    private int next = 0;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkTranscription transcription = new BenchmarkTranscription();
+        transcriber = transcription.transcriber;
+
+        streams = new ReceiveStream[participants];
+        for (int i = 0; i < participants; i++)
+        {
+            long ssrc = 0x10000000L + i * 7919;
+            transcription.addParticipant("participant" + i, ssrc);
+            streams[i] = BenchmarkTranscription.receiveStream(ssrc);
+        }
+
+        packet = BenchmarkTranscription.audioPacket(true);
+    }
+
+    @Benchmark
+    public void bufferReceived()
+    {
+        transcriber.bufferReceived(streams[next], packet);
+        next = next + 1 == streams.length ? 0 : next + 1;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.json.simple.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures creating the json sent to the room for every transcription
+ * result, interim ones included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranscriptJsonBenchmark
+{
+    /**
+     * The result to serialize.
+     */
+    private TranscriptionResult result;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkTranscription transcription = new BenchmarkTranscription();
+        Participant participant = transcription.addParticipant("participant", 0x10000000L);
+
+        result = new TranscriptionResult(participant, UUID.randomUUID(), Instant.now(), true, "en-US", 0.9,
+            new TranscriptionAlternative("the quick brown fox jumps over the lazy dog", 0.95));
+    }
+
+    @Benchmark
+    public JSONObject createTranscriptionJSONObject()
+    {
+        return LocalJsonTranscriptHandler.createTranscriptionJSONObject(result);
+    }
+
+    @Benchmark
+    public String toJSONString()
+    {
+        return LocalJsonTranscriptHandler.createTranscriptionJSONObject(result).toJSONString();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.utils.logging2.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures building the binary message sent to the whisper service for
+ * every chunk of audio of a participant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhisperWebsocketBenchmark
+{
+    /**
+     * The websocket, never connected.
+     */
+    private WhisperWebsocket websocket;
+
+    /**
+     * The participant whose audio is sent.
+     */
+    private Participant participant;
+
+    /**
+     * 500ms of audio, as buffered by the participant.
+     */
+    private ByteBuffer audio;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkTranscription transcription = new BenchmarkTranscription();
+
+        websocket = new WhisperWebsocket(new LoggerImpl(WhisperWebsocketBenchmark.class.getName()));
+        participant = transcription.addParticipant("participant", 0x10000000L);
+        audio = ByteBuffer.wrap(new byte[BenchmarkTranscription.PACKET_LENGTH * 25]);
+    }
+
+    @Benchmark
+    public ByteBuffer buildPayload()
+    {
+        audio.rewind();
+        return websocket.buildPayload(participant.getDebugName(), participant, audio);
+    }
+}
@@ -608,6 +608,15 @@ public class CallContext
         return url + "/" + room;
     }
 
+    /**
+     * Returns the unique id of this context, which sorts in creation order.
+     * @return the unique id of this context.
+     */
+    public String getId()
+    {
+        return ctxId;
+    }
+
     @Override
     public String toString()
     {
@@ -19,18 +19,28 @@ package org.jitsi.jigasi;
 
 import net.java.sip.communicator.plugin.reconnectplugin.*;
 import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.service.protocol.media.*;
 import org.jitsi.jigasi.util.*;
 import org.jitsi.service.configuration.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import org.jitsi.utils.logging.Logger;
 
 /**
  * CallManager responsible for processing call operations like answer or hangup
  * in new thread using a manged pool of threads.
  *
+ * The operations of a call run one after the other, in the order they were
+ * requested, driven by the {@link ManagedCall} state machine of the call,
+ * while the operations of different calls run in parallel: no lock is
+ * shared by all calls, a call is only locked to queue its operations.
+ * Once a hangup is requested, the operations of the call still waiting are
+ * skipped.
+ *
  * @author Pawel Domas
  * @author Damian Minkov
  */
@@ -40,44 +50,162 @@ public class CallManager
 
     private static final String POOL_THREADS_PREFIX = "jigasi-callManager";
 
+    /**
+     * How long to wait for a peer to be put off hold before putting off hold
+     * the next one, when merging calls.
+     */
+    private static final long OFF_HOLD_TIMEOUT_MS = 400;
+
+    /**
+     * The number of locks guarding the creation of the state of the calls.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * The locks guarding the creation of the state of the calls, a call
+     * using the one of its hash.
+     */
+    private static final Object[] locks = new Object[LOCK_STRIPES];
+
+    static
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
     /**
      * The thread pool to serve all call operations like answer and hangup.
      */
-    private static ExecutorService threadPool = Util.createNewThreadPool(POOL_THREADS_PREFIX);
+    private static volatile ExecutorService threadPool = Util.createNewThreadPool(POOL_THREADS_PREFIX);
+
+    /**
+     * The thread pool hanging up the calls when {@link #threadPool} refuses
+     * tasks, so failed or ongoing calls are still cleaned.
+     */
+    private static final ExecutorService hangupPool = Util.createNewThreadPool(POOL_THREADS_PREFIX + "-hangup");
 
-    private static boolean healthy = true;
+    private static volatile boolean healthy = true;
 
     /**
-     * Returns whether or not we consider this CallManager as healthy.
-     * @see #submit(Runnable)
+     * Returns whether or not we consider this CallManager as healthy. It is
+     * not when its pool refused a task or has tasks waiting for a thread, as
+     * all its threads are blocked.
+     * @see #submit(Call, Supplier)
      * @return whether CallManager is healthy.
      */
     public static boolean isHealthy()
     {
-        return healthy;
+        return healthy && GatewayExecutors.getQueuedTasks(POOL_THREADS_PREFIX) == 0;
     }
 
     /**
-     * Submits a task to the pool of threads. If a task throws an exception
-     * (RejectedExecutionException) this means we are over the limit or
-     * we have blocked tasks in the queue and we cannot schedule tasks any more
-     * and we will mark CallManager as failing, to allow reporting this.
-     * @param task
-     * @return
+     * Queues an operation of a call, run after its previous operations. If
+     * the pool refuses tasks (RejectedExecutionException) this means we are
+     * over the limit or the pool was shutdown and we cannot schedule tasks
+     * any more and we will mark CallManager as failing, to allow reporting
+     * this.
+     * @param call the call of the operation, or null for none.
+     * @param operation the operation, which completes when the returned stage does.
+     * @return whether the operation was queued.
      */
-    private static Future<?> submit(Runnable task)
+    private static boolean submit(Call call, Supplier<CompletionStage<?>> operation)
     {
+        return submit(call, operation, null);
+    }
+
+    /**
+     * Queues an operation of a call, run after its previous operations. The
+     * operation of a call is only given to the pool once the previous ones
+     * complete, when the pool refuses it then it is run by
+     * <tt>fallback</tt>, if any.
+     * @param call the call of the operation, or null for none.
+     * @param operation the operation, which completes when the returned stage does.
+     * @param fallback runs the operation when the pool refuses it after it
+     * was queued, or null to drop it.
+     * @return whether the operation was queued, false when the pool refused
+     * it right away, in which case <tt>fallback</tt> is not used.
+     */
+    private static boolean submit(Call call, Supplier<CompletionStage<?>> operation, Executor fallback)
+    {
+        ExecutorService executor = threadPool;
+        if (executor.isShutdown())
+        {
+            logger.error("Failed to submit task for execution, the pool is shutdown");
+
+            CallManager.healthy = false;
+
+            return false;
+        }
+
         try
         {
-            return threadPool.submit(task);
+            if (call == null)
+            {
+                executor.execute(operation::get);
+            }
+            else if (!getManagedCall(call).enqueue(operation, executor, fallback))
+            {
+                throw new RejectedExecutionException("Call operation refused for " + call);
+            }
+
+            return true;
         }
         catch(RejectedExecutionException e)
         {
-            logger.error("Failed to submit task for execution:" + task, e);
+            logger.error("Failed to submit task for execution:" + operation, e);
 
             CallManager.healthy = false;
 
-            return null;
+            return false;
+        }
+    }
+
+    /**
+     * Queues a blocking operation of a call.
+     * @param call the call of the operation, or null for none.
+     * @param task the operation.
+     * @return whether the operation was queued.
+     */
+    private static boolean submit(Call call, Runnable task)
+    {
+        return submit(call, task, null);
+    }
+
+    /**
+     * Queues a blocking operation of a call.
+     * @param call the call of the operation, or null for none.
+     * @param task the operation.
+     * @param fallback runs the operation when the pool refuses it after it
+     * was queued, or null to drop it.
+     * @return whether the operation was queued.
+     */
+    private static boolean submit(Call call, Runnable task, Executor fallback)
+    {
+        return submit(call, () ->
+        {
+            task.run();
+            return CompletableFuture.completedFuture(null);
+        }, fallback);
+    }
+
+    /**
+     * Gets the state of a call, created on its first operation and kept
+     * with the call.
+     */
+    private static ManagedCall getManagedCall(Call call)
+    {
+        synchronized (locks[(call.hashCode() & 0x7fffffff) % LOCK_STRIPES])
+        {
+            ManagedCall managedCall = (ManagedCall) call.getData(ManagedCall.class);
+            if (managedCall == null)
+            {
+                managedCall = new ManagedCall(call);
+                call.setData(ManagedCall.class, managedCall);
+            }
+
+            return managedCall;
         }
     }
 
@@ -87,12 +215,22 @@ public class CallManager
      * @param incomingCall The call to answer.
      * @throws OperationFailedException in case of failed to start task to do it
      */
-    public synchronized static void acceptCall(Call incomingCall)
+    public static void acceptCall(Call incomingCall)
         throws OperationFailedException
     {
-        Future result = submit(new AnswerCallThread(incomingCall, false));
+        AnswerCallThread answer = new AnswerCallThread(incomingCall, false);
+        boolean submitted = submit(incomingCall, () ->
+        {
+            ManagedCall managedCall = getManagedCall(incomingCall);
+            if (managedCall.begin(ManagedCall.State.ANSWERING))
+            {
+                answer.run();
+                managedCall.end(ManagedCall.State.ANSWERING, ManagedCall.State.ANSWERED);
+            }
+            return CompletableFuture.completedFuture(null);
+        });
 
-        if (result == null)
+        if (!submitted)
         {
             // there was no task scheduled to answer the call, throw an error
             throw new OperationFailedException(
@@ -108,11 +246,25 @@ public class CallManager
      * @param callees the list of contacts to invite
      * @param call existing call
      */
-    public synchronized static void inviteToConferenceCall(
+    public static void inviteToConferenceCall(
         Map<ProtocolProviderService, List<String>> callees,
         Call call)
     {
-        submit(new InviteToConferenceCallThread(callees, call));
+        InviteToConferenceCallThread invite = new InviteToConferenceCallThread(callees, call);
+        if (call == null)
+        {
+            submit(null, invite);
+            return;
+        }
+
+        submit(call, () ->
+        {
+            if (getManagedCall(call).begin(null))
+            {
+                invite.run();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
     /**
@@ -369,16 +521,24 @@ public class CallManager
 
     /**
      * Merges specific existing <tt>Call</tt>s into a specific telephony
-     * conference.
+     * conference. The merge is queued behind the operations of the first
+     * call, every call is left out of it once a hangup of that call is
+     * requested.
      *
      * @param conference the conference
      * @param calls list of calls
      */
-    public synchronized static void mergeExistingCalls(
+    public static void mergeExistingCalls(
         CallConference conference,
         Collection<Call> calls)
     {
-        submit(new MergeExistingCalls(conference, calls));
+        MergeExistingCalls merge = new MergeExistingCalls(conference, calls);
+        List<Call> conferenceCalls = conference.getCalls();
+        Call call = !conferenceCalls.isEmpty() ? conferenceCalls.get(0)
+            : !calls.isEmpty() ? calls.iterator().next() : null;
+
+        submit(call, () -> call == null || getManagedCall(call).begin(null)
+            ? merge.run(threadPool) : CompletableFuture.completedFuture(null));
     }
 
     /**
@@ -386,7 +546,6 @@ public class CallManager
      * conference.
      */
     private static class MergeExistingCalls
-        implements Runnable
     {
         /**
          * The telephony conference in which {@link #calls} are to be merged.
@@ -418,12 +577,16 @@ public class CallManager
 
         /**
          * Puts off hold the <tt>CallPeer</tt>s of a specific <tt>Call</tt>
-         * which are locally on hold.
+         * which are locally on hold, one after the other: the next one once
+         * the previous one is off hold, or after {@link #OFF_HOLD_TIMEOUT_MS}.
          *
          * @param call the <tt>Call</tt> which is to have its <tt>CallPeer</tt>s
          * put off hold
+         * @param previous completes when the previous peers are off hold
+         * @param executor runs the next step, off the thread of the event
+         * @return completes when the peers of the call are off hold
          */
-        private void putOffHold(Call call)
+        private CompletableFuture<?> putOffHold(Call call, CompletableFuture<?> previous, Executor executor)
         {
             Iterator<? extends CallPeer> peers = call.getCallPeers();
             OperationSetBasicTelephony<?> telephony
@@ -444,66 +607,106 @@ public class CallManager
                 }
                 if (putOffHold)
                 {
-                    try
-                    {
-                        telephony.putOffHold(callPeer);
-                        Thread.sleep(400);
-                    }
-                    catch(Exception ofe)
+                    // skipped once a hangup of the call is requested
+                    previous = previous.thenComposeAsync(v -> getManagedCall(call).begin(null)
+                        ? putOffHold(telephony, callPeer) : CompletableFuture.completedFuture(null), executor);
+                }
+            }
+
+            return previous;
+        }
+
+        /**
+         * Puts a peer off hold.
+         *
+         * @return completes when the peer is not locally on hold anymore, or
+         * after {@link #OFF_HOLD_TIMEOUT_MS}
+         */
+        private static CompletableFuture<?> putOffHold(OperationSetBasicTelephony<?> telephony, CallPeer callPeer)
+        {
+            CompletableFuture<Void> offHold = new CompletableFuture<>();
+            CallPeerListener listener = new CallPeerAdapter()
+            {
+                @Override
+                public void peerStateChanged(CallPeerChangeEvent evt)
+                {
+                    Object state = evt.getNewValue();
+                    if (!CallPeerState.ON_HOLD_LOCALLY.equals(state) && !CallPeerState.ON_HOLD_MUTUALLY.equals(state))
                     {
-                        logger.error("Failed to put off hold.", ofe);
+                        offHold.complete(null);
                     }
                 }
+            };
+            callPeer.addCallPeerListener(listener);
+
+            try
+            {
+                telephony.putOffHold(callPeer);
+            }
+            catch(Exception ofe)
+            {
+                logger.error("Failed to put off hold.", ofe);
+                offHold.complete(null);
             }
+
+            return offHold
+                .completeOnTimeout(null, OFF_HOLD_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((v, e) -> callPeer.removeCallPeerListener(listener));
         }
 
-        @Override
-        public void run()
+        /**
+         * Starts merging.
+         *
+         * @param executor runs the steps
+         * @return completes when the calls are merged
+         */
+        public CompletableFuture<?> run(Executor executor)
         {
+            CompletableFuture<?> merged = CompletableFuture.completedFuture(null);
+
             // conference
             for (Call call : conference.getCalls())
-                putOffHold(call);
+                merged = putOffHold(call, merged, executor);
 
             // calls
-            if (!calls.isEmpty())
+            for (Call call : calls)
             {
-                for (Call call : calls)
-                {
-                    if (conference.containsCall(call))
-                        continue;
-
-                    putOffHold(call);
-
-                    /*
-                     * Dispose of the CallPanel associated with the Call which
-                     * is to be merged.
-                     */
-                    //closeCallContainerIfNotNecessary(conference, false);
+                if (conference.containsCall(call))
+                    continue;
 
-                    call.setConference(conference);
-                }
+                merged = putOffHold(call, merged, executor)
+                    .thenRun(() ->
+                    {
+                        // the merge is queued behind the first call only
+                        if (getManagedCall(call).begin(null))
+                        {
+                            call.setConference(conference);
+                        }
+                    });
             }
+
+            return merged;
         }
     }
 
-    public synchronized static void hangupCall(Call call)
+    public static void hangupCall(Call call)
     {
         hangupCall(call, false);
     }
 
-    public synchronized static void hangupCall(Call call, boolean unloadAccount)
+    public static void hangupCall(Call call, boolean unloadAccount)
     {
         if (logger.isDebugEnabled())
         {
             logger.debug("Hanging up :" + call, new Throwable());
         }
 
-        submit(new HangupCallThread(call, unloadAccount));
+        hangup(new HangupCallThread(call, unloadAccount));
     }
 
-    public synchronized static void hangupCall(Call   call,
-                                               int    reasonCode,
-                                               String reason)
+    public static void hangupCall(Call   call,
+                                  int    reasonCode,
+                                  String reason)
     {
         if (logger.isDebugEnabled())
         {
@@ -515,15 +718,38 @@ public class CallManager
         hangupCallThread.reasonCode = reasonCode;
         hangupCallThread.reason = reason;
 
-        // if we are unhealthy, let's process the hangups with new threads
-        // so we can clean failed or ongoing calls
-        if (!healthy)
+        hangup(hangupCallThread);
+    }
+
+    /**
+     * Hangs up a call after the operations already running, skipping the
+     * ones still waiting.
+     *
+     * @param hangupCallThread the hangup
+     */
+    private static void hangup(HangupCallThread hangupCallThread)
+    {
+        Call call = hangupCallThread.call;
+        ManagedCall managedCall = call == null ? null : getManagedCall(call);
+        if (managedCall != null)
         {
-            new Thread(hangupCallThread).start();
+            managedCall.hangupRequested();
         }
-        else
+
+        Runnable hangup = () ->
+        {
+            hangupCallThread.run();
+            if (managedCall != null)
+            {
+                managedCall.end(ManagedCall.State.HANGING_UP, ManagedCall.State.ENDED);
+            }
+        };
+
+        // if we are unhealthy, let's process the hangups with the other pool
+        // so we can clean failed or ongoing calls
+        if (!healthy || !submit(call, hangup, hangupPool))
         {
-            submit(hangupCallThread);
+            hangupPool.execute(hangup);
         }
     }
 
@@ -672,6 +898,154 @@ public class CallManager
         }
     }
 
+    /**
+     * The state of the operations of a call: the operations queued run one
+     * after the other and move the call from {@link State#IDLE} to
+     * {@link State#ANSWERING} and {@link State#ANSWERED} when answering, and
+     * to {@link State#HANGING_UP} as soon as a hangup is requested, then to
+     * {@link State#ENDED}, after which other operations are skipped.
+     */
+    private static class ManagedCall
+    {
+        /**
+         * The states of a call.
+         */
+        enum State
+        {
+            IDLE,
+            ANSWERING,
+            ANSWERED,
+            HANGING_UP,
+            ENDED
+        }
+
+        /**
+         * The call.
+         */
+        private final Call call;
+
+        /**
+         * The state of the call.
+         */
+        private State state = State.IDLE;
+
+        /**
+         * Completes when the last operation queued does.
+         */
+        private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+        ManagedCall(Call call)
+        {
+            this.call = call;
+        }
+
+        /**
+         * Queues an operation after the previous ones, whether they failed or
+         * not. The operation is given to the executor once the previous ones
+         * complete, an executor refusing it then completes its stage instead of
+         * throwing, which marks CallManager as failing and runs the operation
+         * with <tt>fallback</tt>, if any.
+         * @param operation the operation.
+         * @param executor runs the operation.
+         * @param fallback runs the operation when the executor refuses it
+         * after it was queued, or null to drop it.
+         * @return whether the operation was queued, false when the executor
+         * refused it right away.
+         */
+        synchronized boolean enqueue(Supplier<CompletionStage<?>> operation, Executor executor, Executor fallback)
+        {
+            // tells a refused operation from one failing with the same exception
+            AtomicBoolean started = new AtomicBoolean();
+            CompletableFuture<?> next = tail
+                .handle((v, e) -> null)
+                .thenComposeAsync(v ->
+                {
+                    started.set(true);
+                    return operation.get();
+                }, executor);
+
+            if (next.isCompletedExceptionally() && !started.get())
+            {
+                // the previous operations had completed, the executor was called
+                // by this thread and refused the operation
+                return false;
+            }
+
+            tail = next
+                .handle((v, e) ->
+                {
+                    if (e == null)
+                    {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    if (started.get()
+                        || !(e instanceof RejectedExecutionException || e.getCause() instanceof RejectedExecutionException))
+                    {
+                        logger.error("Call operation failed for " + call, e);
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    logger.error("Call operation refused for " + call, e);
+                    healthy = false;
+
+                    if (fallback == null)
+                    {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    return CompletableFuture.supplyAsync(operation, fallback).thenCompose(stage -> stage);
+                })
+                .thenCompose(stage -> stage);
+
+            return true;
+        }
+
+        /**
+         * Starts an operation, unless a hangup was requested.
+         * @param next the state during the operation, null to keep the current one.
+         * @return whether to run the operation.
+         */
+        synchronized boolean begin(State next)
+        {
+            if (state == State.HANGING_UP || state == State.ENDED)
+            {
+                logger.info("Skipping operation of " + call + " in state " + state);
+                return false;
+            }
+
+            if (next != null)
+            {
+                state = next;
+            }
+            return true;
+        }
+
+        /**
+         * Ends an operation.
+         * @param current the state during the operation.
+         * @param next the state after it, unless it changed meanwhile.
+         */
+        synchronized void end(State current, State next)
+        {
+            if (state == current)
+            {
+                state = next;
+            }
+        }
+
+        /**
+         * Moves to {@link State#HANGING_UP}, so the operations waiting are skipped.
+         */
+        synchronized void hangupRequested()
+        {
+            if (state != State.ENDED)
+            {
+                state = State.HANGING_UP;
+            }
+        }
+    }
+
     /**
      * Shutdowns internal thread pool used and waits for all tasks to finish
      * gracefully withing 5 seconds or <tt>TimeoutException</tt> is thrown.
@@ -681,6 +1055,20 @@ public class CallManager
      */
     public static synchronized void restartPool()
         throws InterruptedException, TimeoutException
+    {
+        restartPool(Util.createNewThreadPool(POOL_THREADS_PREFIX));
+    }
+
+    /**
+     * Shutdowns internal thread pool used, like {@link #restartPool()}, and
+     * replaces it with another one.
+     *
+     * @param pool the new pool.
+     * @throws InterruptedException if waiting thread is interrupted.
+     * @throws TimeoutException if we fail to shutdown in 5 seconds.
+     */
+    static synchronized void restartPool(ExecutorService pool)
+        throws InterruptedException, TimeoutException
     {
         threadPool.shutdown();
 
@@ -689,6 +1077,7 @@ public class CallManager
         if (!threadPool.isTerminated())
             throw new TimeoutException();
 
-        threadPool = Util.createNewThreadPool(POOL_THREADS_PREFIX);
+        threadPool = pool;
+        healthy = true;
     }
 }
@@ -0,0 +1,359 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.utils.*;
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging2.*;
+import org.jitsi.utils.queue.*;
+import org.json.simple.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import static org.jitsi.jigasi.transcription.LocalJsonTranscriptHandler.*;
+
+/**
+ * Sends the json messages of a room through its xmpp send queue, coalescing
+ * interim transcription results. For every <tt>message_id</tt> only the latest
+ * interim is sent and no more often than once per configured window. Finals
+ * (and any other json message) are always sent and discard any interim for the
+ * same <tt>message_id</tt> that is still waiting, so finals are never delayed
+ * behind stale partial results.
+ *
+ * When the number of messages waiting in the queue reaches the configured
+ * maximum, new interims are dropped until the queue drains. The other
+ * messages to the room go through {@link #send(Runnable)}, so they are
+ * counted in the queue too.
+ */
+public class CoalescingJsonSender
+{
+    /**
+     * The name of the property that configures the minimum time in milliseconds between two interim results sent
+     * for the same message id.
+     */
+    public static final String P_NAME_INTERIM_COALESCE_WINDOW
+        = "org.jitsi.jigasi.transcription.INTERIM_COALESCE_WINDOW_MS";
+
+    /**
+     * The default minimum time in milliseconds between two interim results sent for the same message id.
+     */
+    private static final long DEFAULT_INTERIM_COALESCE_WINDOW = 200;
+
+    /**
+     * The name of the property that configures the maximum number of messages waiting to be sent to a room
+     * before starting to drop interim results.
+     */
+    public static final String P_NAME_MAX_SEND_QUEUE_SIZE
+        = "org.jitsi.jigasi.transcription.MAX_SEND_QUEUE_SIZE";
+
+    /**
+     * The default maximum number of messages waiting to be sent to a room.
+     */
+    private static final int DEFAULT_MAX_SEND_QUEUE_SIZE = 100;
+
+    /**
+     * Used to delay interims till their coalescing window expires.
+     */
+    private static final ScheduledExecutorService windowTimer = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("interim-coalescing-timer", true));
+
+    /**
+     * The minimum time in milliseconds between two interims for the same message id.
+     */
+    private final long interimWindow;
+
+    /**
+     * The maximum number of messages waiting in the queue before dropping interims.
+     */
+    private final int maxQueueSize;
+
+    /**
+     * The queue executing the sends for the room.
+     */
+    private final PacketQueue<Runnable> sendQueue;
+
+    /**
+     * Performs the actual (blocking) send of a message.
+     */
+    private final Consumer<JSONObject> sender;
+
+    /**
+     * The logger.
+     */
+    private final Logger logger;
+
+    /**
+     * The latest interim per message id that is waiting to be sent. The presence of a key means that a send for
+     * that message id is already scheduled or queued.
+     */
+    private final Map<String, JSONObject> pendingInterims = new ConcurrentHashMap<>();
+
+    /**
+     * The time (in ms) of the last interim sent per message id, used to apply the coalescing window.
+     */
+    private final Map<String, Long> lastInterimSent = new ConcurrentHashMap<>();
+
+    /**
+     * The number of messages queued and not yet sent.
+     */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    /**
+     * The maximum value {@link #queueDepth} reached.
+     */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * The number of messages sent.
+     */
+    private final AtomicLong sentCount = new AtomicLong();
+
+    /**
+     * The sum of the send latencies of all messages sent in milliseconds.
+     */
+    private final AtomicLong sendLatencySum = new AtomicLong();
+
+    /**
+     * The maximum send latency observed in milliseconds.
+     */
+    private final AtomicLong maxSendLatency = new AtomicLong();
+
+    /**
+     * The number of interims replaced by a newer one before being sent.
+     */
+    private final AtomicLong coalescedInterims = new AtomicLong();
+
+    /**
+     * The number of interims dropped because the queue was full.
+     */
+    private final AtomicLong droppedInterims = new AtomicLong();
+
+    /**
+     * Creates new sender.
+     * @param sendQueue the queue to execute the sends.
+     * @param sender performs the actual send of a message.
+     * @param parentLogger the logger of the owner of the queue.
+     */
+    public CoalescingJsonSender(PacketQueue<Runnable> sendQueue, Consumer<JSONObject> sender, Logger parentLogger)
+    {
+        this.sendQueue = sendQueue;
+        this.sender = sender;
+        this.logger = parentLogger.createChildLogger(CoalescingJsonSender.class.getName());
+
+        this.interimWindow = JigasiBundleActivator.getConfigurationService()
+            .getLong(P_NAME_INTERIM_COALESCE_WINDOW, DEFAULT_INTERIM_COALESCE_WINDOW);
+        this.maxQueueSize = JigasiBundleActivator.getConfigurationService()
+            .getInt(P_NAME_MAX_SEND_QUEUE_SIZE, DEFAULT_MAX_SEND_QUEUE_SIZE);
+    }
+
+    /**
+     * Sends a json message, coalescing it if it is an interim result.
+     * @param message the message to send.
+     */
+    public void send(JSONObject message)
+    {
+        Object messageId = message.get(JSON_KEY_EVENT_MESSAGE_ID);
+
+        if (messageId == null || !JSON_VALUE_TYPE_TRANSCRIPTION_RESULT.equals(message.get(JSON_KEY_TYPE)))
+        {
+            enqueue(message);
+            return;
+        }
+
+        String id = messageId.toString();
+
+        if (!Boolean.TRUE.equals(message.get(JSON_KEY_EVENT_IS_INTERIM)))
+        {
+            // the final replaces whatever interim is still waiting
+            if (pendingInterims.remove(id) != null)
+            {
+                coalescedInterims.incrementAndGet();
+                Statistics.incrementTotalXmppInterimsCoalesced();
+            }
+            lastInterimSent.remove(id);
+
+            enqueue(message);
+            return;
+        }
+
+        // an interim that only replaces a waiting one does not grow the queue
+        if (queueDepth.get() >= maxQueueSize && !pendingInterims.containsKey(id))
+        {
+            droppedInterims.incrementAndGet();
+            Statistics.incrementTotalXmppInterimsDropped();
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Send queue full, dropping interim for " + id);
+            }
+            return;
+        }
+
+        if (pendingInterims.put(id, message) != null)
+        {
+            // a send is already on its way, it will pick up this newer interim
+            coalescedInterims.incrementAndGet();
+            Statistics.incrementTotalXmppInterimsCoalesced();
+            return;
+        }
+
+        Long lastSent = lastInterimSent.get(id);
+        long delay = lastSent == null ? 0 : interimWindow - (System.currentTimeMillis() - lastSent);
+
+        if (delay <= 0)
+        {
+            enqueueInterim(id);
+        }
+        else
+        {
+            windowTimer.schedule(() -> enqueueInterim(id), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queues a send of another message to the room, like a text message,
+     * counted in the queue with the json messages.
+     * @param send performs the actual (blocking) send.
+     */
+    public void send(Runnable send)
+    {
+        enqueueSend(() ->
+        {
+            send.run();
+            return true;
+        });
+    }
+
+    /**
+     * Queues a send of the latest interim for the message id, taken at the time the queue executes it.
+     * @param id the message id.
+     */
+    private void enqueueInterim(String id)
+    {
+        enqueue(() ->
+        {
+            JSONObject latest = pendingInterims.remove(id);
+            if (latest == null)
+            {
+                // a final for that message id was sent in the meantime
+                return null;
+            }
+
+            lastInterimSent.put(id, System.currentTimeMillis());
+            return latest;
+        });
+    }
+
+    /**
+     * Queues a message to be sent.
+     * @param message the message.
+     */
+    private void enqueue(JSONObject message)
+    {
+        enqueue(() -> message);
+    }
+
+    /**
+     * Queues a send of a json message to the room.
+     * @param messageSupplier provides the message to send at the time the queue executes the send,
+     * may provide <tt>null</tt> if there is nothing to send anymore.
+     */
+    private void enqueue(Supplier<JSONObject> messageSupplier)
+    {
+        enqueueSend(() ->
+        {
+            JSONObject message = messageSupplier.get();
+            if (message == null)
+            {
+                return false;
+            }
+
+            sender.accept(message);
+            return true;
+        });
+    }
+
+    /**
+     * Queues a send to the room, tracking the queue depth and the time the message spent till sent.
+     * @param send performs the send when the queue executes it, returns
+     * <tt>false</tt> if there was nothing to send anymore.
+     */
+    private void enqueueSend(BooleanSupplier send)
+    {
+        long queuedAt = System.currentTimeMillis();
+
+        int depth = queueDepth.incrementAndGet();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+        Statistics.addXmppSendQueueDepth(1);
+
+        sendQueue.add(() ->
+        {
+            try
+            {
+                if (!send.getAsBoolean())
+                {
+                    return;
+                }
+
+                long latency = System.currentTimeMillis() - queuedAt;
+                sentCount.incrementAndGet();
+                sendLatencySum.addAndGet(latency);
+                maxSendLatency.accumulateAndGet(latency, Math::max);
+                Statistics.observeXmppSendLatency(latency);
+            }
+            finally
+            {
+                queueDepth.decrementAndGet();
+                Statistics.addXmppSendQueueDepth(-1);
+            }
+        });
+    }
+
+    /**
+     * Drops any interims still waiting to be sent, used when leaving the room.
+     */
+    public void clear()
+    {
+        pendingInterims.clear();
+        lastInterimSent.clear();
+    }
+
+    /**
+     * @return an <tt>OrderedJsonObject</tt> instance that holds debug
+     * information for this instance.
+     */
+    public OrderedJsonObject getDebugState()
+    {
+        OrderedJsonObject debugState = new OrderedJsonObject();
+        long sent = sentCount.get();
+
+        debugState.put("queueDepth", queueDepth.get());
+        debugState.put("maxQueueDepth", maxQueueDepth.get());
+        debugState.put("sent", sent);
+        debugState.put("avgSendLatencyMs", sent == 0 ? 0 : sendLatencySum.get() / sent);
+        debugState.put("maxSendLatencyMs", maxSendLatency.get());
+        debugState.put("coalescedInterims", coalescedInterims.get());
+        debugState.put("droppedInterims", droppedInterims.get());
+
+        return debugState;
+    }
+}
@@ -28,6 +28,7 @@ import org.jitsi.xmpp.extensions.visitors.*;
 import org.jitsi.jigasi.xmpp.extensions.*;
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.jigasi.health.*;
+import org.jitsi.jigasi.sounds.*;
 import org.jitsi.jigasi.stats.*;
 import org.jitsi.service.configuration.*;
 import org.jivesoftware.smack.provider.*;
@@ -247,6 +248,9 @@ public class JigasiBundleActivator
                     new DefaultPacketExtensionProvider<>(ConferenceProperties.ConferenceProperty.class)
             );
 
+            // parse the notification sounds once, instead of on every playback
+            SoundNotificationManager.loadSounds();
+
             logger.info("initialized SipGateway");
             sipGateway = new SipGateway(bundleContext)
             {
@@ -310,6 +314,7 @@ public class JigasiBundleActivator
         }
 
         Health.start();
+        Statistics.start();
     }
 
     @Override
@@ -322,6 +327,7 @@ public class JigasiBundleActivator
         gateways.clear();
 
         Health.stop();
+        Statistics.stop();
     }
 
     @Override
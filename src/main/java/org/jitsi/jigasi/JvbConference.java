@@ -33,6 +33,7 @@ import org.jitsi.jigasi.stats.*;
 import org.jitsi.jigasi.util.*;
 import org.jitsi.jigasi.version.*;
 import org.jitsi.jigasi.visitor.*;
+import org.jitsi.jigasi.xmpp.*;
 import org.jitsi.jigasi.xmpp.extensions.*;
 import org.jitsi.utils.*;
 import org.jitsi.utils.logging2.*;
@@ -205,6 +206,11 @@ public class JvbConference
      */
     public final PacketQueue<Runnable> xmppSendQueue;
 
+    /**
+     * Sends the messages to the room through {@link #xmppSendQueue}, coalescing interim results.
+     */
+    private final CoalescingJsonSender jsonSender;
+
     /**
      * Used for randomizing usernames if needed.
      */
@@ -275,6 +281,29 @@ public class JvbConference
      */
     private AccountID xmppAccount;
 
+    /**
+     * Whether {@link #xmppAccount} is shared with other transcriber conferences.
+     * @see SharedXmppConnections
+     */
+    private boolean sharedXmppConnection = false;
+
+    /**
+     * Whether {@link #xmppAccount} is leased from the pool of registered connections.
+     * @see XmppProviderPool
+     */
+    private boolean pooledXmppConnection = false;
+
+    /**
+     * Whether the leased connection was already registered, so joining did not wait for it to connect.
+     */
+    private boolean pooledXmppConnectionReady = false;
+
+    /**
+     * The time this conference was started, used to measure the time till the room is joined. Reset once the
+     * room is joined, so rejoining is not measured.
+     */
+    private long joinStartTimestamp = -1;
+
     /**
      * The XMPP password used for the call handled by this instance.
      */
@@ -495,6 +524,7 @@ public class JvbConference
             },
             threadPool
         );
+        this.jsonSender = new CoalescingJsonSender(xmppSendQueue, this::sendJsonMessageInternal, logger);
         xmppInvokeQueue = new PacketQueue<>(
                 Integer.MAX_VALUE,
                 false,
@@ -607,7 +637,23 @@ public class JvbConference
 
         Localpart resourceIdentifier = getResourceIdentifier();
 
-        this.createAndLoadAccount(createAccountPropertiesForCallId(resourceIdentifier.toString()));
+        this.joinStartTimestamp = System.currentTimeMillis();
+
+        Map<String, String> accountProperties = null;
+        if (this.isTranscriber && SharedXmppConnections.isEnabled())
+        {
+            accountProperties = createAccountPropertiesForCallId(SharedXmppConnections.getSharedNode());
+            this.sharedXmppConnection = SharedXmppConnections.canShare(accountProperties);
+        }
+
+        if (!this.sharedXmppConnection)
+        {
+            accountProperties = createAccountPropertiesForCallId(resourceIdentifier.toString());
+            this.pooledXmppConnection
+                = XmppProviderPool.isEnabled() && XmppProviderPool.canPool(accountProperties);
+        }
+
+        this.createAndLoadAccount(accountProperties);
 
         if (this.xmppProvider == null)
         {
@@ -621,9 +667,20 @@ public class JvbConference
         this.xmppProviderFactory = ProtocolProviderFactory.getProtocolProviderFactory(
             JigasiBundleActivator.osgiContext, ProtocolNames.JABBER);
 
-        this.xmppAccount = xmppProviderFactory.createAccount(accountProperties);
+        if (this.sharedXmppConnection)
+        {
+            this.xmppAccount = SharedXmppConnections.acquire(xmppProviderFactory, accountProperties);
+        }
+        else if (this.pooledXmppConnection)
+        {
+            this.xmppAccount = XmppProviderPool.lease(xmppProviderFactory, accountProperties);
+        }
+        else
+        {
+            this.xmppAccount = xmppProviderFactory.createAccount(accountProperties);
 
-        xmppProviderFactory.loadAccount(xmppAccount);
+            xmppProviderFactory.loadAccount(xmppAccount);
+        }
 
         started = true;
 
@@ -691,6 +748,8 @@ public class JvbConference
 
         leaveConferenceRoom();
 
+        jsonSender.clear();
+
         if (this.websocketClient != null)
         {
             this.websocketClient.disconnect();
@@ -698,15 +757,24 @@ public class JvbConference
 
         if (jvbCall != null)
         {
-            CallManager.hangupCall(jvbCall, true);
+            // the shared and pooled accounts stay loaded to be used by other conferences
+            CallManager.hangupCall(jvbCall, !sharedXmppConnection && !pooledXmppConnection);
         }
 
         if (xmppProvider != null)
         {
             xmppProvider.removeRegistrationStateChangeListener(this);
 
+            if (sharedXmppConnection)
+            {
+                SharedXmppConnections.release(xmppProviderFactory, xmppAccount);
+            }
+            else if (pooledXmppConnection)
+            {
+                XmppProviderPool.release(xmppProviderFactory, xmppAccount);
+            }
             // in case we were not able to create jvb call, unit tests case
-            if (jvbCall == null)
+            else if (jvbCall == null)
             {
                 logger.info("Removing account " + xmppAccount);
 
@@ -762,10 +830,25 @@ public class JvbConference
 
         if (xmppProvider.isRegistered())
         {
-            xmppInvokeQueue.add(this::joinConferenceRoom);
+            this.pooledXmppConnectionReady = this.pooledXmppConnection;
+
+            if (sharedXmppConnection || pooledXmppConnection)
+            {
+                // the shared or pooled connection was already registered, so we will not see the registered event
+                xmppInvokeQueue.add(() ->
+                {
+                    discoverComponentAddresses();
+                    joinConferenceRoom();
+                });
+            }
+            else
+            {
+                xmppInvokeQueue.add(this::joinConferenceRoom);
+            }
         }
-        else
+        else if (!sharedXmppConnection || SharedXmppConnections.startRegistration(xmppAccount))
         {
+            // a shared connection registered by another conference will fire the registered event for us as well
             new RegisterThread(xmppProvider, xmppPassword).start();
         }
     }
@@ -1073,6 +1156,11 @@ public class JvbConference
                     this.xmppProvider.removeRegistrationStateChangeListener(this);
 
                     logger.info("Removing account to prepare visitor " + this.xmppAccount);
+                    if (this.pooledXmppConnection)
+                    {
+                        XmppProviderPool.forget(this.xmppAccount);
+                        this.pooledXmppConnection = false;
+                    }
                     this.xmppProviderFactory.unloadAccount(this.xmppAccount);
 
                     this.xmppProvider = null;
@@ -1148,6 +1236,13 @@ public class JvbConference
 
             logger.info("Joined room: " + roomName);
 
+            if (this.joinStartTimestamp != -1)
+            {
+                Statistics.observeXmppJoinTime(
+                    System.currentTimeMillis() - this.joinStartTimestamp, this.pooledXmppConnectionReady);
+                this.joinStartTimestamp = -1;
+            }
+
             this.skipFocus = false;
         }
         catch (Exception e)
@@ -1319,6 +1414,8 @@ public class JvbConference
         if (this.jitsiMeetTools != null)
         {
             this.jitsiMeetTools.removeRequestListener(this.gatewaySession);
+            // the connection may be reused by another conference
+            this.jitsiMeetTools.removeRequestListener(this);
 
             this.jitsiMeetTools = null;
         }
@@ -1338,6 +1435,7 @@ public class JvbConference
             connection.removeAsyncStanzaListener(roomConfigurationListener);
             connection.removeAsyncStanzaListener(roomMetadataListener);
             connection.removeAsyncStanzaListener(visitorsMessagesListener);
+            connection.removeAsyncStanzaListener(presenceListener);
         }
 
         // remove listener needs to be after leave,
@@ -1612,6 +1710,8 @@ public class JvbConference
             debugState.put("nick", this.mucRoom.getUserNickname());
         }
 
+        debugState.put("xmppSendQueue", jsonSender.getDebugState());
+
         return debugState;
     }
 
@@ -1676,6 +1776,17 @@ public class JvbConference
         private void incomingCallReceivedInternal(CallEvent event)
         {
             CallPeer peer = event.getSourceCall().getCallPeers().next();
+
+            // a shared connection receives the invites for all the rooms it is in, skip the other rooms' calls
+            if (sharedXmppConnection && peer != null && peer.getAddress() != null)
+            {
+                String roomPrefix = callContext.getRoomJid() + "/";
+                if (!peer.getAddress().regionMatches(true, 0, roomPrefix, 0, roomPrefix.length()))
+                {
+                    return;
+                }
+            }
+
             String peerAddress;
             if (peer == null || peer.getAddress() == null)
             {
@@ -2370,7 +2481,7 @@ public class JvbConference
      */
     public void sendMessageToRoom(String messageString)
     {
-        xmppSendQueue.add(() -> sendMessageToRoomInternal(messageString));
+        jsonSender.send(() -> sendMessageToRoomInternal(messageString));
     }
 
     public void sendMessageToRoomInternal(String messageString)
@@ -2402,7 +2513,7 @@ public class JvbConference
      */
     public void sendJsonMessage(JSONObject jsonMessage)
     {
-        xmppSendQueue.add(() -> sendJsonMessageInternal(jsonMessage));
+        jsonSender.send(jsonMessage);
     }
 
     private void sendJsonMessageInternal(JSONObject jsonMessage)
@@ -2627,6 +2738,13 @@ public class JvbConference
                 return;
             }
 
+            // the message may be for another room when the connection is shared between conferences
+            String room = jsonMsg.getAttributeAsString("room");
+            if (room != null && !room.equalsIgnoreCase(callContext.getRoomJid().toString()))
+            {
+                return;
+            }
+
             processRoomMetadataJson(jsonMsg.getJson());
         }
     }
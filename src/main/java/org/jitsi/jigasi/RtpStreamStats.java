@@ -0,0 +1,425 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.service.neomedia.*;
+import org.jitsi.utils.*;
+
+import java.util.function.*;
+
+/**
+ * Streaming statistics of the RTP packets going in one direction of a call:
+ * packet rate, loss from the gaps in the sequence numbers and interarrival
+ * jitter as defined in RFC 3550 (A.1 and A.8), with a MOS estimate derived
+ * from them using a simplified E-model (ITU-T G.107).
+ *
+ * As in RFC 3550 A.1 a source is followed once {@link #MIN_SEQUENTIAL}
+ * packets arrived in sequence, and a jump in the sequence numbers restarts
+ * the sequence only when the packet after it follows it, a single stray
+ * packet being ignored.
+ *
+ * The stats follow a single ssrc, another one is picked up only after the
+ * followed one goes silent, so sounds injected in the stream or multiple
+ * forwarded sources do not count as loss.
+ *
+ * {@link #update(RawPacket)} is called by the single thread handling the
+ * direction and does not allocate, {@link #report(long)} and
+ * {@link #getDebugState()} may be called from any other thread.
+ */
+class RtpStreamStats
+{
+    /**
+     * The packets in sequence needed before a source is valid (RFC 3550 A.1).
+     */
+    static final int MIN_SEQUENTIAL = 2;
+
+    /**
+     * A jump in the sequence numbers bigger than this restarts the sequence
+     * when confirmed by the next packet (RFC 3550 A.1).
+     */
+    private static final int MAX_DROPOUT = 3000;
+
+    /**
+     * Sequence numbers this far behind the highest one are late or duplicate packets (RFC 3550 A.1).
+     */
+    private static final int MAX_MISORDER = 100;
+
+    /**
+     * The time without packets after which another ssrc can be followed.
+     */
+    private static final long SSRC_SWITCH_NANOS = 2_000_000_000L;
+
+    /**
+     * The clock rate used when the stream does not report one.
+     */
+    private static final int DEFAULT_CLOCK_RATE = 8000;
+
+    /**
+     * The range of the sequence numbers.
+     */
+    private static final int RTP_SEQ_MOD = 0x10000;
+
+    /**
+     * Provides the RTP clock rate of the stream.
+     */
+    private final IntSupplier clockRateSupplier;
+
+    /**
+     * The ssrc followed, -1 before the first packet.
+     */
+    private long ssrc = -1;
+
+    /**
+     * The RTP clock rate of the followed stream.
+     */
+    private int clockRate = DEFAULT_CLOCK_RATE;
+
+    /**
+     * The first sequence number of the current sequence.
+     */
+    private int baseSeq;
+
+    /**
+     * The highest sequence number of the current sequence.
+     */
+    private int maxSeq;
+
+    /**
+     * The number of sequence number wraps (shifted count) of the current sequence.
+     */
+    private long cycles;
+
+    /**
+     * The sequence number that confirms a restart of the sequence, the one
+     * following the last jump, or an impossible value.
+     */
+    private int badSeq = RTP_SEQ_MOD + 1;
+
+    /**
+     * The packets in sequence still needed before the source is valid.
+     */
+    private int probation = 0;
+
+    /**
+     * The packets expected in the previous sequences (previous ssrcs and restarts).
+     */
+    private long priorExpected = 0;
+
+    /**
+     * The arrival time of the last packet of the followed ssrc.
+     */
+    private long lastArrivalNanos;
+
+    /**
+     * The RTP timestamp of the last packet of the followed ssrc.
+     */
+    private long lastTimestamp;
+
+    /**
+     * The payload type of the last packet, jitter is not measured across payload types (e.g. DTMF).
+     */
+    private int lastPayloadType = -1;
+
+    /**
+     * The interarrival jitter in timestamp units.
+     */
+    private double jitter = 0;
+
+    /**
+     * The number of packets received of the followed ssrcs.
+     */
+    private volatile long received = 0;
+
+    /**
+     * The number of packets expected from the sequence numbers.
+     */
+    private volatile long expected = 0;
+
+    /**
+     * The interarrival jitter in milliseconds.
+     */
+    private volatile double jitterMs = 0;
+
+    /**
+     * The number of times the followed ssrc changed.
+     */
+    private volatile int ssrcChanges = 0;
+
+    /**
+     * The {@link #received} value at the last report.
+     */
+    private long reportedReceived = 0;
+
+    /**
+     * The {@link #expected} value at the last report.
+     */
+    private long reportedExpected = 0;
+
+    /**
+     * The packet rate during the last report interval.
+     */
+    private volatile double packetRate = 0;
+
+    /**
+     * The loss ratio during the last report interval.
+     */
+    private volatile double lossRatio = 0;
+
+    /**
+     * The MOS estimate of the last report interval.
+     */
+    private volatile double mos = 0;
+
+    /**
+     * Creates new stats.
+     * @param clockRateSupplier provides the RTP clock rate of the stream,
+     * read when a new ssrc is followed.
+     */
+    RtpStreamStats(IntSupplier clockRateSupplier)
+    {
+        this.clockRateSupplier = clockRateSupplier;
+    }
+
+    /**
+     * Accounts a packet.
+     * @param pkt the RTP packet.
+     */
+    void update(RawPacket pkt)
+    {
+        update(pkt.getSSRCAsLong(), pkt.getSequenceNumber(), pkt.getPayloadType(), pkt.getTimestamp(),
+            System.nanoTime());
+    }
+
+    /**
+     * Accounts a packet.
+     * @param pktSsrc the ssrc of the packet.
+     * @param seq the sequence number of the packet.
+     * @param pt the payload type of the packet.
+     * @param ts the RTP timestamp of the packet.
+     * @param now the arrival time of the packet, in nanoseconds.
+     */
+    void update(long pktSsrc, int seq, int pt, long ts, long now)
+    {
+        if (pktSsrc != ssrc)
+        {
+            if (ssrc != -1 && now - lastArrivalNanos < SSRC_SWITCH_NANOS)
+            {
+                // another source while the followed one is still active
+                return;
+            }
+
+            if (ssrc != -1)
+            {
+                ssrcChanges++;
+            }
+
+            ssrc = pktSsrc;
+            int rate = clockRateSupplier.getAsInt();
+            clockRate = rate > 0 ? rate : DEFAULT_CLOCK_RATE;
+            maxSeq = (seq - 1) & 0xFFFF;
+            probation = MIN_SEQUENTIAL;
+            lastPayloadType = -1;
+        }
+
+        boolean valid = updateSequence(seq);
+
+        if (valid && pt == lastPayloadType)
+        {
+            // D(i-1,i) = (Rj - Ri) - (Sj - Si), in timestamp units
+            double arrivalDiff = (now - lastArrivalNanos) * (clockRate / 1_000_000_000d);
+            int timestampDiff = (int) (ts - lastTimestamp);
+            double d = Math.abs(arrivalDiff - timestampDiff);
+
+            jitter += (d - jitter) / 16;
+            jitterMs = jitter * 1000 / clockRate;
+        }
+        lastPayloadType = pt;
+        lastTimestamp = ts;
+        lastArrivalNanos = now;
+
+        if (valid)
+        {
+            received = received + 1;
+            expected = priorExpected + cycles + maxSeq - baseSeq + 1;
+        }
+    }
+
+    /**
+     * Follows the sequence numbers of the followed ssrc (RFC 3550 A.1).
+     * @param seq the sequence number of a packet.
+     * @return whether the packet is counted, as not part of the probation
+     * of the source or of a jump not confirmed yet.
+     */
+    private boolean updateSequence(int seq)
+    {
+        int delta = (seq - maxSeq) & 0xFFFF;
+
+        if (probation > 0)
+        {
+            if (delta == 1)
+            {
+                probation--;
+                maxSeq = seq;
+                if (probation == 0)
+                {
+                    restartSequence(seq);
+                    return true;
+                }
+            }
+            else
+            {
+                probation = MIN_SEQUENTIAL - 1;
+                maxSeq = seq;
+            }
+            return false;
+        }
+        else if (delta < MAX_DROPOUT)
+        {
+            if (seq < maxSeq)
+            {
+                cycles += RTP_SEQ_MOD;
+            }
+            maxSeq = seq;
+        }
+        else if (delta <= RTP_SEQ_MOD - MAX_MISORDER)
+        {
+            if (seq != badSeq)
+            {
+                // a big jump, a restart of the sequence if the next packet follows it
+                badSeq = (seq + 1) & 0xFFFF;
+                return false;
+            }
+
+            // two packets in sequence, the source restarted its sequence numbers
+            restartSequence(seq);
+        }
+        // else a duplicate or a late packet
+
+        return true;
+    }
+
+    /**
+     * Starts counting a new sequence, keeping what was expected from the previous one.
+     * @param seq the first sequence number.
+     */
+    private void restartSequence(int seq)
+    {
+        if (received > 0)
+        {
+            priorExpected = expected;
+        }
+
+        baseSeq = seq;
+        maxSeq = seq;
+        badSeq = RTP_SEQ_MOD + 1;
+        cycles = 0;
+    }
+
+    /**
+     * Computes the packet rate, loss and MOS since the previous report.
+     * Called periodically by a single thread.
+     * @param intervalMs the time since the previous report.
+     * @return whether packets were received in the interval.
+     */
+    boolean report(long intervalMs)
+    {
+        long rec = received;
+        long exp = expected;
+        long receivedDelta = rec - reportedReceived;
+        long expectedDelta = exp - reportedExpected;
+
+        reportedReceived = rec;
+        reportedExpected = exp;
+
+        if (receivedDelta <= 0)
+        {
+            packetRate = 0;
+            return false;
+        }
+
+        packetRate = receivedDelta * 1000d / intervalMs;
+        lossRatio = expectedDelta <= 0 ? 0 : Math.max(0, expectedDelta - receivedDelta) / (double) expectedDelta;
+        mos = estimateMos(jitterMs, lossRatio);
+
+        return true;
+    }
+
+    /**
+     * Estimates the MOS using a simplified E-model. The one way delay is not
+     * known, so only the delay added by the jitter buffer (twice the jitter)
+     * and the codec is accounted.
+     * @param jitterMs the interarrival jitter in milliseconds.
+     * @param lossRatio the ratio of lost packets, from 0 to 1.
+     * @return the MOS, from 1 to 4.5.
+     */
+    static double estimateMos(double jitterMs, double lossRatio)
+    {
+        double effectiveLatency = jitterMs * 2 + 10;
+
+        double r = effectiveLatency < 160 ? 93.2 - effectiveLatency / 40 : 93.2 - (effectiveLatency - 120) / 10;
+        r -= lossRatio * 100 * 2.5;
+        r = Math.max(0, Math.min(100, r));
+
+        return 1 + 0.035 * r + 0.000007 * r * (r - 60) * (100 - r);
+    }
+
+    /**
+     * @return the jitter in milliseconds.
+     */
+    double getJitterMs()
+    {
+        return jitterMs;
+    }
+
+    /**
+     * @return the loss ratio of the last report interval.
+     */
+    double getLossRatio()
+    {
+        return lossRatio;
+    }
+
+    /**
+     * @return the MOS estimate of the last report interval.
+     */
+    double getMos()
+    {
+        return mos;
+    }
+
+    /**
+     * @return an <tt>OrderedJsonObject</tt> instance that holds debug
+     * information for this instance.
+     */
+    OrderedJsonObject getDebugState()
+    {
+        OrderedJsonObject debugState = new OrderedJsonObject();
+        long rec = received;
+        long exp = expected;
+
+        debugState.put("received", rec);
+        debugState.put("lost", Math.max(0, exp - rec));
+        debugState.put("packetRate", packetRate);
+        debugState.put("lossRatio", lossRatio);
+        debugState.put("jitterMs", jitterMs);
+        debugState.put("mos", mos);
+        debugState.put("ssrcChanges", ssrcChanges);
+
+        return debugState;
+    }
+}
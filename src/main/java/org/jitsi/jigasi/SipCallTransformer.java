@@ -20,7 +20,9 @@ import net.java.sip.communicator.service.protocol.media.*;
 import org.jitsi.impl.neomedia.*;
 import org.jitsi.impl.neomedia.rtcp.*;
 import org.jitsi.impl.neomedia.transform.*;
+import org.jitsi.jigasi.stats.*;
 import org.jitsi.jigasi.util.*;
+import org.jitsi.service.configuration.*;
 import org.jitsi.service.neomedia.*;
 import org.jitsi.util.*;
 import org.jitsi.utils.*;
@@ -43,15 +45,48 @@ public class SipCallTransformer
     extends SinglePacketTransformerAdapter
     implements TransformEngine
 {
+    /**
+     * The name of the property to disable collecting media statistics for the sip calls.
+     */
+    private static final String P_NAME_MEDIA_STATS_ENABLED = "org.jitsi.jigasi.SIP_MEDIA_STATS_ENABLED";
+
+    /**
+     * The name of the property that configures how often the media statistics of the sip calls are reported
+     * to the metrics, in milliseconds.
+     */
+    private static final String P_NAME_MEDIA_STATS_INTERVAL_MS = "org.jitsi.jigasi.SIP_MEDIA_STATS_INTERVAL_MS";
+
+    /**
+     * By default, media statistics are reported every 10 seconds.
+     */
+    private static final long DEFAULT_MEDIA_STATS_INTERVAL_MS = 10000;
+
     /**
      * The RTCP transformer.
      */
     private final RTCPTransformer rtcpTransformer = new RTCPTransformer();
 
+    /**
+     * Marks no ssrc seen yet for the last seen ssrc fields, never a valid ssrc.
+     */
+    private static final long NO_SSRC = -1;
+
     /**
      * List of seen incoming or outgoing ssrcs.
      */
-    private Set<Long> seenSSRCs = Collections.synchronizedSet(new HashSet<>());
+    private final SsrcSet seenSSRCs = new SsrcSet();
+
+    /**
+     * The ssrc of the last outgoing packet, used only by the sending thread to
+     * skip looking up the set for the same stream.
+     */
+    private long lastOutgoingSSRC = NO_SSRC;
+
+    /**
+     * The ssrc of the last incoming packet, used only by the receiving thread to
+     * skip looking up the set for the same stream.
+     */
+    private long lastIncomingSSRC = NO_SSRC;
 
     /**
      * The executor which periodically calls {@link KeepAliveIncomingMedia}.
@@ -65,7 +100,11 @@ public class SipCallTransformer
     private KeepAliveIncomingMedia recurringMediaChecker
         = new KeepAliveIncomingMedia(15000);
 
-    private long lastOutgoingActivity;
+    /**
+     * The time of the last outgoing RTP or RTCP, updated by the sending
+     * threads and read by {@link KeepAliveIncomingMedia}.
+     */
+    private volatile long lastOutgoingActivity;
 
     /**
      * The peer handler for which we are adding this transformer.
@@ -80,13 +119,30 @@ public class SipCallTransformer
     /**
      * If true we will mute the media, so we will not forward any media from the sip side.
      */
-    private boolean mute = false;
+    private volatile boolean mute = false;
 
     /**
      * Counter for the number of packets received.
      * Used for passing through a packet while being muted, one on every 1000.
      */
-    private long packetsCounter = 0;
+    private volatile long packetsCounter = 0;
+
+    /**
+     * The stats of the media coming from the sip side, <tt>null</tt> when disabled.
+     */
+    private final RtpStreamStats incomingStats;
+
+    /**
+     * The stats of the media sent to the sip side, <tt>null</tt> when disabled.
+     * Updated only by the sending thread, the sounds injected by other threads
+     * are not counted.
+     */
+    private final RtpStreamStats outgoingStats;
+
+    /**
+     * Reports periodically the media stats to the metrics, <tt>null</tt> when disabled.
+     */
+    private final MediaStatsReporter mediaStatsReporter;
 
     /**
      * Initializes a new {@link SsrcRewriter} instance.
@@ -99,6 +155,25 @@ public class SipCallTransformer
         this.stream = stream;
 
         EXECUTOR.registerRecurringRunnable(recurringMediaChecker);
+
+        // there is no configuration service when used outside of the bundle (benchmarks)
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+        if (cfg == null || cfg.getBoolean(P_NAME_MEDIA_STATS_ENABLED, true))
+        {
+            incomingStats = new RtpStreamStats(this::getClockRate);
+            outgoingStats = new RtpStreamStats(this::getClockRate);
+            mediaStatsReporter = new MediaStatsReporter(cfg == null
+                ? DEFAULT_MEDIA_STATS_INTERVAL_MS
+                : cfg.getLong(P_NAME_MEDIA_STATS_INTERVAL_MS, DEFAULT_MEDIA_STATS_INTERVAL_MS));
+
+            EXECUTOR.registerRecurringRunnable(mediaStatsReporter);
+        }
+        else
+        {
+            incomingStats = null;
+            outgoingStats = null;
+            mediaStatsReporter = null;
+        }
     }
 
     /**
@@ -107,6 +182,39 @@ public class SipCallTransformer
     void dispose()
     {
         EXECUTOR.deRegisterRecurringRunnable(recurringMediaChecker);
+
+        if (mediaStatsReporter != null)
+        {
+            EXECUTOR.deRegisterRecurringRunnable(mediaStatsReporter);
+        }
+    }
+
+    /**
+     * The RTP clock rate of the stream.
+     * @return the clock rate or -1 if the stream has no format yet.
+     */
+    private int getClockRate()
+    {
+        MediaFormat format = stream == null ? null : stream.getFormat();
+
+        return format == null ? -1 : (int) format.getClockRate();
+    }
+
+    /**
+     * @return an <tt>OrderedJsonObject</tt> instance that holds the media
+     * stats of the call, empty when disabled.
+     */
+    public OrderedJsonObject getDebugState()
+    {
+        OrderedJsonObject debugState = new OrderedJsonObject();
+
+        if (incomingStats != null)
+        {
+            debugState.put("incoming", incomingStats.getDebugState());
+            debugState.put("outgoing", outgoingStats.getDebugState());
+        }
+
+        return debugState;
     }
 
     /**
@@ -119,7 +227,28 @@ public class SipCallTransformer
     public RawPacket transform(RawPacket pkt)
     {
         lastOutgoingActivity = System.currentTimeMillis();
-        seenSSRCs.add(pkt.getSSRCAsLong());
+
+        long ssrc = pkt.getSSRCAsLong();
+
+        // the sounds are injected by their playback threads at the same time
+        // as the sending thread sends, they are marked to skip the stats and
+        // must not touch the state of the sending thread
+        if (pkt.isSkipStats())
+        {
+            seenSSRCs.add(ssrc);
+            return pkt;
+        }
+
+        if (ssrc != lastOutgoingSSRC)
+        {
+            seenSSRCs.add(ssrc);
+            lastOutgoingSSRC = ssrc;
+        }
+
+        if (outgoingStats != null)
+        {
+            outgoingStats.update(pkt);
+        }
 
         return pkt;
     }
@@ -127,11 +256,23 @@ public class SipCallTransformer
     @Override
     public RawPacket reverseTransform(RawPacket pkt)
     {
-        packetsCounter++;
-        seenSSRCs.add(pkt.getSSRCAsLong());
+        // only the receiving thread updates it
+        long counter = ++packetsCounter;
+
+        long ssrc = pkt.getSSRCAsLong();
+        if (ssrc != lastIncomingSSRC)
+        {
+            seenSSRCs.add(ssrc);
+            lastIncomingSSRC = ssrc;
+        }
+
+        if (incomingStats != null)
+        {
+            incomingStats.update(pkt);
+        }
 
         // if muted we want to pass one packet every 1000 packets
-        if (mute && packetsCounter % 1000 != 0)
+        if (mute && counter % 1000 != 0)
         {
             return null;
         }
@@ -187,10 +328,9 @@ public class SipCallTransformer
             {
                 ByteArrayBuffer baf = it.next();
                 int type = RTCPUtils.getPacketType(baf);
-                long ssrc = RawPacket.getRTCPSSRC(baf);
 
-                // Filter RTCP.BYE for streams we don't know about
-                if (!seenSSRCs.contains(ssrc) && type == 203)
+                // Filter RTCP.BYE for streams we don't know about, only BYEs need the ssrc lookup
+                if (type == 203 && !seenSSRCs.contains(RawPacket.getRTCPSSRC(baf)))
                 {
                     it.remove();
                 }
@@ -206,6 +346,43 @@ public class SipCallTransformer
         }
     }
 
+    /**
+     * Called periodically to compute the media stats of the interval and
+     * record them in the metrics.
+     */
+    private class MediaStatsReporter
+        extends PeriodicRunnable
+    {
+        /**
+         * Creates new reporter.
+         * @param period the reporting period in milliseconds.
+         */
+        MediaStatsReporter(long period)
+        {
+            super(period);
+        }
+
+        @Override
+        public void run()
+        {
+            super.run();
+
+            long interval = getPeriod();
+
+            if (incomingStats.report(interval))
+            {
+                Statistics.observeSipMediaStats("incoming",
+                    incomingStats.getLossRatio(), incomingStats.getJitterMs(), incomingStats.getMos());
+            }
+
+            if (outgoingStats.report(interval))
+            {
+                Statistics.observeSipMediaStats("outgoing",
+                    outgoingStats.getLossRatio(), outgoingStats.getJitterMs(), outgoingStats.getMos());
+            }
+        }
+    }
+
     /**
      * Called periodically to check when was the last outgoing RTP or RTCP,
      * if it was longer than a threshold we send hole punch packets to keep
@@ -322,9 +322,9 @@ public class SipGatewaySession
     private final CallHeartbeat callHeartbeat = new CallHeartbeat();
 
     /**
-     * The executor scheduling the heartbeat task.
+     * The scheduled heartbeat task, cancelled when the call ends.
      */
-    private ScheduledExecutorService heartbeatExecutor = null;
+    private ScheduledFuture<?> heartbeatFuture = null;
 
     /**
      * Heartbeat period, -1 by default as disabled.
@@ -736,9 +736,9 @@ public class SipGatewaySession
             allCallsEnded();
         }
 
-        if (heartbeatExecutor != null)
+        if (heartbeatFuture != null)
         {
-            heartbeatExecutor.shutdown();
+            heartbeatFuture.cancel(false);
         }
     }
 
@@ -895,9 +895,7 @@ public class SipGatewaySession
         {
             // Add a heartbeat task to execute every X minutes
             // and if we have two not received responses we will tear down the call
-            heartbeatExecutor = Executors.newScheduledThreadPool(1,
-                new CustomizableThreadFactory("sip-call-heartbeat", true));
-            heartbeatExecutor.scheduleAtFixedRate(
+            heartbeatFuture = CallTimers.scheduleAtFixedRate(
                 callHeartbeat, heartbeatPeriodInSec, heartbeatPeriodInSec, TimeUnit.SECONDS);
         }
     }
@@ -981,6 +979,24 @@ public class SipGatewaySession
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     * Adds the media stats of the sip call.
+     */
+    @Override
+    public OrderedJsonObject getDebugState()
+    {
+        OrderedJsonObject debugState = super.getDebugState();
+
+        SipCallTransformer transformer = this.callTransformer;
+        if (transformer != null)
+        {
+            debugState.put("media", transformer.getDebugState());
+        }
+
+        return debugState;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1728,7 +1744,7 @@ public class SipGatewaySession
             if (counter.get() >= 2)
             {
                 // two consecutive requests with no responses let's clean up
-                heartbeatExecutor.shutdown();
+                heartbeatFuture.cancel(false);
 
                 Statistics.incrementTotalCallsWithNoSipHeartbeat();
 
@@ -0,0 +1,163 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import java.util.*;
+
+/**
+ * A set of ssrcs stored as primitive longs in an open addressing table.
+ * A call sees only a handful of ssrcs and new ones are rare, so the table is
+ * copied on every addition and lookups read it without locking or
+ * allocating, which keeps them cheap on the media path.
+ */
+class SsrcSet
+{
+    /**
+     * Marks an empty slot, ssrcs are unsigned 32 bit values so this is never a valid one.
+     */
+    private static final long EMPTY = -1;
+
+    /**
+     * The initial size of the table, must be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The slots of the set, replaced on every addition.
+     */
+    private volatile long[] table = newTable(INITIAL_CAPACITY);
+
+    /**
+     * The number of ssrcs in the set.
+     */
+    private int size = 0;
+
+    /**
+     * Checks whether the ssrc is in the set.
+     * @param ssrc the ssrc.
+     * @return <tt>true</tt> if the ssrc was added to the set.
+     */
+    boolean contains(long ssrc)
+    {
+        long[] slots = table;
+        int mask = slots.length - 1;
+
+        for (int i = hash(ssrc) & mask; ; i = (i + 1) & mask)
+        {
+            long slot = slots[i];
+            if (slot == ssrc)
+            {
+                return true;
+            }
+            if (slot == EMPTY)
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds an ssrc to the set.
+     * @param ssrc the ssrc.
+     * @return <tt>true</tt> if the ssrc was not in the set.
+     */
+    boolean add(long ssrc)
+    {
+        if (contains(ssrc))
+        {
+            return false;
+        }
+
+        synchronized (this)
+        {
+            if (contains(ssrc))
+            {
+                return false;
+            }
+
+            long[] slots = table;
+            // keep the load at most one half, so lookups stay short
+            long[] newSlots = (size + 1) * 2 > slots.length ? newTable(slots.length * 2) : slots.clone();
+
+            if (newSlots.length != slots.length)
+            {
+                for (long s : slots)
+                {
+                    if (s != EMPTY)
+                    {
+                        insert(newSlots, s);
+                    }
+                }
+            }
+
+            insert(newSlots, ssrc);
+            size++;
+
+            table = newSlots;
+
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of ssrcs in the set.
+     */
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Puts an ssrc in the first free slot of its probe sequence.
+     * @param slots the table.
+     * @param ssrc the ssrc.
+     */
+    private static void insert(long[] slots, long ssrc)
+    {
+        int mask = slots.length - 1;
+        int i = hash(ssrc) & mask;
+        while (slots[i] != EMPTY)
+        {
+            i = (i + 1) & mask;
+        }
+        slots[i] = ssrc;
+    }
+
+    /**
+     * Spreads the bits of the ssrc, they are random but may be only 16 bits wide.
+     * @param ssrc the ssrc.
+     * @return the hash.
+     */
+    private static int hash(long ssrc)
+    {
+        int h = (int) ssrc * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Creates an empty table.
+     * @param capacity the number of slots.
+     * @return the table.
+     */
+    private static long[] newTable(int capacity)
+    {
+        long[] slots = new long[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+}
@@ -18,6 +18,7 @@
 package org.jitsi.jigasi;
 
 import org.bouncycastle.util.io.pem.*;
+import org.jitsi.jigasi.stats.*;
 import org.jitsi.jigasi.transcription.*;
 import org.jitsi.jigasi.transcription.action.*;
 import org.jitsi.jigasi.util.Util;
@@ -244,6 +245,8 @@ public class TranscriptionGateway
     @Override
     public TranscriptionGatewaySession createOutgoingCall(CallContext ctx)
     {
+        AdmissionController.checkAdmission(true);
+
         String customTranscriptionServiceClass = getCustomTranscriptionServiceClass(ctx);
         AbstractTranscriptionService service = null;
         if (customTranscriptionServiceClass != null)
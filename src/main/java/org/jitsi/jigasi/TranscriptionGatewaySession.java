@@ -350,7 +350,8 @@ public class TranscriptionGatewaySession
     }
 
     /**
-     /* Checks if the participant has muted and flushes the audio buffer if so.
+     /* Checks if the participant has muted and flushes the audio buffer if so,
+     /* or suspends its stream when configured to.
      **/
     private void flushParticipantTranscriptionBufferOnMute(ChatRoomMember chatMember, Presence presence)
     {
@@ -381,7 +382,7 @@ public class TranscriptionGatewaySession
 
             if (muted.get())
             {
-                this.transcriber.flushParticipantAudioBuffer(getParticipantIdentifier(chatMember));
+                this.transcriber.participantMuted(getParticipantIdentifier(chatMember));
             }
         }
     }
@@ -845,6 +846,48 @@ public class TranscriptionGatewaySession
         this.maybeStopTranscription();
     }
 
+    /**
+     * @return the transcriber of this session.
+     */
+    Transcriber getTranscriber()
+    {
+        return transcriber;
+    }
+
+    /**
+     * @return the number of streams opened to the transcription service
+     * which did not end.
+     */
+    public int getActiveSttStreamCount()
+    {
+        Participant mixedStream = transcriber.getMixedStream();
+        int count = mixedStream == null ? 0 : mixedStream.getActiveStreamCount();
+        for (Participant participant : transcriber.getParticipants())
+        {
+            count += participant.getActiveStreamCount();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the number of participants whose stream to the transcription
+     * service is suspended till they speak.
+     */
+    public int getSuspendedSttStreamCount()
+    {
+        int count = 0;
+        for (Participant participant : transcriber.getParticipants())
+        {
+            if (participant.isStreamSuspended())
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
     /**
      * @param count The count of visitors that are requesting transcriptions.
      */
@@ -22,10 +22,96 @@ import org.jitsi.metrics.*;
 
 public class JigasiMetricsContainer extends MetricsContainer
 {
+    /**
+     * The namespace used for all jigasi metrics.
+     */
+    private final static String NAMESPACE = "jitsi_jigasi";
+
     public final static JigasiMetricsContainer INSTANCE = new JigasiMetricsContainer();
 
     private JigasiMetricsContainer()
     {
-        super(CollectorRegistry.defaultRegistry, "jitsi_jigasi");
+        super(CollectorRegistry.defaultRegistry, NAMESPACE);
+    }
+
+    /**
+     * Creates a histogram in the same registry and namespace as the rest of the jigasi metrics, so it is
+     * exported by the prometheus endpoint.
+     *
+     * @param name the name of the histogram.
+     * @param help the description of the histogram.
+     * @param buckets the upper bounds of the buckets.
+     * @return the newly registered histogram.
+     */
+    public Histogram createHistogram(String name, String help, double... buckets)
+    {
+        return Histogram.build(name, help)
+            .namespace(NAMESPACE)
+            .buckets(buckets)
+            .register(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Creates a histogram with a label, in the same registry and namespace as the rest of the jigasi metrics.
+     *
+     * @param name the name of the histogram.
+     * @param help the description of the histogram.
+     * @param labelName the name of the label.
+     * @param buckets the upper bounds of the buckets.
+     * @return the newly registered histogram, observe it through {@code labels(value)}.
+     */
+    public Histogram createLabeledHistogram(String name, String help, String labelName, double... buckets)
+    {
+        return Histogram.build(name, help)
+            .namespace(NAMESPACE)
+            .labelNames(labelName)
+            .buckets(buckets)
+            .register(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Creates a counter with a label, in the same registry and namespace as the rest of the jigasi metrics.
+     *
+     * @param name the name of the counter.
+     * @param help the description of the counter.
+     * @param labelName the name of the label.
+     * @return the newly registered counter, increment it through {@code labels(value)}.
+     */
+    public Counter createLabeledCounter(String name, String help, String labelName)
+    {
+        return Counter.build(name, help)
+            .namespace(NAMESPACE)
+            .labelNames(labelName)
+            .register(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Creates a gauge with a label, in the same registry and namespace as the rest of the jigasi metrics.
+     *
+     * @param name the name of the gauge.
+     * @param help the description of the gauge.
+     * @param labelName the name of the label.
+     * @return the newly registered gauge, set it through {@code labels(value)} or {@code setChild}.
+     */
+    public Gauge createLabeledGauge(String name, String help, String labelName)
+    {
+        return Gauge.build(name, help)
+            .namespace(NAMESPACE)
+            .labelNames(labelName)
+            .register(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Creates a histogram of the current state, whose values are replaced from a snapshot, in the same registry
+     * and namespace as the rest of the jigasi metrics.
+     *
+     * @param name the name of the histogram.
+     * @param help the description of the histogram.
+     * @param buckets the upper bounds of the buckets.
+     * @return the newly registered histogram.
+     */
+    public SnapshotHistogram createSnapshotHistogram(String name, String help, double... buckets)
+    {
+        return new SnapshotHistogram(NAMESPACE + "_" + name, help, buckets).register(CollectorRegistry.defaultRegistry);
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.metrics;
+
+import io.prometheus.client.*;
+
+import java.util.*;
+
+/**
+ * A histogram of the current state rather than of past observations, e.g.
+ * the distribution of the sizes of the conferences in progress. All the
+ * values are replaced at once by {@link #set(double[])}, usually from a
+ * periodically computed snapshot, and collecting reads the last set values
+ * without locking.
+ */
+public class SnapshotHistogram
+    extends Collector
+{
+    /**
+     * The full name of the metric.
+     */
+    private final String name;
+
+    /**
+     * The description of the metric.
+     */
+    private final String help;
+
+    /**
+     * The upper bounds of the buckets, without +Inf.
+     */
+    private final double[] buckets;
+
+    /**
+     * The label values of the buckets, including +Inf.
+     */
+    private final List<List<String>> bucketLabels = new ArrayList<>();
+
+    /**
+     * The samples of the last snapshot.
+     */
+    private volatile List<MetricFamilySamples> samples;
+
+    /**
+     * Creates new histogram.
+     * @param name the full name of the metric.
+     * @param help the description of the metric.
+     * @param buckets the upper bounds of the buckets, in increasing order.
+     */
+    SnapshotHistogram(String name, String help, double... buckets)
+    {
+        this.name = name;
+        this.help = help;
+        this.buckets = buckets.clone();
+
+        for (double bucket : buckets)
+        {
+            bucketLabels.add(Collections.singletonList(doubleToGoString(bucket)));
+        }
+        bucketLabels.add(Collections.singletonList("+Inf"));
+
+        set(new double[0]);
+    }
+
+    /**
+     * Replaces the content of the histogram.
+     * @param values all the values currently in the histogram.
+     */
+    public void set(double[] values)
+    {
+        long[] counts = new long[buckets.length + 1];
+        double sum = 0;
+
+        for (double value : values)
+        {
+            int i = 0;
+            while (i < buckets.length && value > buckets[i])
+            {
+                i++;
+            }
+            counts[i]++;
+            sum += value;
+        }
+
+        List<String> le = Collections.singletonList("le");
+        List<MetricFamilySamples.Sample> newSamples = new ArrayList<>(counts.length + 2);
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            cumulative += counts[i];
+            newSamples.add(new MetricFamilySamples.Sample(name + "_bucket", le, bucketLabels.get(i), cumulative));
+        }
+        newSamples.add(new MetricFamilySamples.Sample(
+            name + "_count", Collections.emptyList(), Collections.emptyList(), cumulative));
+        newSamples.add(new MetricFamilySamples.Sample(
+            name + "_sum", Collections.emptyList(), Collections.emptyList(), sum));
+
+        samples = Collections.singletonList(new MetricFamilySamples(name, Type.HISTOGRAM, help, newSamples));
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect()
+    {
+        return samples;
+    }
+}
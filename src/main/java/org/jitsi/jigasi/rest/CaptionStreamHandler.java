@@ -0,0 +1,364 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.*;
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams the live captions of a room as server-sent events, on
+ * <tt>GET /captions/{id}</tt>, with the hard to guess id of the stream which
+ * is sent to the room (see {@link LiveCaptionPublisher}), so only the
+ * participants can follow it. Every event has the sequence number
+ * as id; a subscriber resumes after the event of the <tt>Last-Event-ID</tt>
+ * header, sent by the browsers when reconnecting, or from the <tt>from</tt>
+ * query parameter, and otherwise gets the events from now on. A subscriber
+ * that fell behind the events kept gets a <tt>gap</tt> event and continues
+ * from the oldest kept.
+ *
+ * The subscribers write without blocking: the frames, shared by all of
+ * them, are written while the connection accepts more and the container
+ * resumes the writing when it drains.
+ */
+public class CaptionStreamHandler
+    extends AbstractHandler
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(CaptionStreamHandler.class);
+
+    /**
+     * The path of the captions, followed by the id of the stream.
+     */
+    public static final String CAPTIONS_PATH = "/captions/";
+
+    /**
+     * How often a comment is sent to idle subscribers, so proxies keep the
+     * connections and the closed ones are detected.
+     */
+    private static final long HEARTBEAT_INTERVAL_SECONDS = 15;
+
+    /**
+     * The comment sent to idle subscribers.
+     */
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Sends the heartbeats.
+     */
+    private static final ScheduledExecutorService heartbeatTimer = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("caption-stream-heartbeat", true));
+
+    /**
+     * The connected subscribers.
+     */
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The heartbeats of the subscribers, started with the handler.
+     */
+    private ScheduledFuture<?> heartbeat;
+
+    @Override
+    protected void doStart()
+        throws Exception
+    {
+        super.doStart();
+
+        heartbeat = heartbeatTimer.scheduleAtFixedRate(
+            () -> subscribers.forEach(Subscriber::heartbeat),
+            HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected void doStop()
+        throws Exception
+    {
+        if (heartbeat != null)
+        {
+            heartbeat.cancel(false);
+        }
+        subscribers.forEach(Subscriber::close);
+
+        super.doStop();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+        throws IOException, ServletException
+    {
+        if (!target.startsWith(CAPTIONS_PATH))
+        {
+            return;
+        }
+
+        baseRequest.setHandled(true);
+
+        if (!"GET".equals(request.getMethod()))
+        {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        CaptionStream stream = LiveCaptionPublisher.getStream(target.substring(CAPTIONS_PATH.length()));
+        if (stream == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long from;
+        try
+        {
+            from = getStartSequence(request, stream);
+        }
+        catch (NumberFormatException e)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid sequence: " + e.getMessage());
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // disables the buffering of nginx
+        response.setHeader("X-Accel-Buffering", "no");
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+
+        ServletOutputStream out = response.getOutputStream();
+        Subscriber subscriber = new Subscriber(stream, asyncContext, out, from);
+        subscribers.add(subscriber);
+
+        // writing needs the non-blocking mode set, then it catches up with
+        // the frames appended meanwhile
+        out.setWriteListener(subscriber);
+        stream.addListener(subscriber);
+        subscriber.run();
+    }
+
+    /**
+     * @return the number of connected subscribers.
+     */
+    public int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    /**
+     * Gets the sequence of the first event sent to a new subscriber.
+     */
+    private static long getStartSequence(HttpServletRequest request, CaptionStream stream)
+    {
+        String lastEventId = request.getHeader("Last-Event-ID");
+        String from = request.getParameter("from");
+        long next = stream.getNextSequence();
+
+        long start;
+        if (lastEventId != null && !lastEventId.isEmpty())
+        {
+            start = Long.parseLong(lastEventId.trim()) + 1;
+        }
+        else if (from != null)
+        {
+            start = Long.parseLong(from);
+        }
+        else
+        {
+            return next;
+        }
+
+        // ids of an earlier stream of the room, replay what this one has
+        return start > next ? stream.getOldestSequence() : Math.max(0, start);
+    }
+
+    /**
+     * A connection following a stream, writing the frames from its own position.
+     */
+    private class Subscriber
+        implements Runnable, WriteListener
+    {
+        /**
+         * The stream followed.
+         */
+        private final CaptionStream stream;
+
+        /**
+         * The request, completed when the stream ends or the subscriber closes.
+         */
+        private final AsyncContext asyncContext;
+
+        /**
+         * The output of the response.
+         */
+        private final ServletOutputStream out;
+
+        /**
+         * The sequence of the next frame to write.
+         */
+        private long cursor;
+
+        /**
+         * Whether something was written since the last flush.
+         */
+        private boolean unflushed;
+
+        /**
+         * Whether a heartbeat is due.
+         */
+        private boolean heartbeatDue;
+
+        /**
+         * Whether the subscriber was closed.
+         */
+        private boolean closed;
+
+        Subscriber(CaptionStream stream, AsyncContext asyncContext, ServletOutputStream out, long cursor)
+        {
+            this.stream = stream;
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Woken by the stream when a frame is appended.
+         */
+        @Override
+        public void run()
+        {
+            write();
+        }
+
+        @Override
+        public void onWritePossible()
+        {
+            write();
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            logger.debug("Caption subscriber disconnected: " + t);
+            close();
+        }
+
+        /**
+         * Sends a heartbeat when the subscriber is idle.
+         */
+        synchronized void heartbeat()
+        {
+            heartbeatDue = true;
+            write();
+        }
+
+        /**
+         * Writes the frames from the cursor while the connection accepts
+         * more. When it does not, the container calls
+         * {@link #onWritePossible()} once it drained.
+         */
+        private synchronized void write()
+        {
+            try
+            {
+                while (!closed && out.isReady())
+                {
+                    if (cursor < stream.getNextSequence())
+                    {
+                        CaptionStream.Frame frame = stream.get(cursor);
+                        if (frame == null)
+                        {
+                            long oldest = stream.getOldestSequence();
+                            out.write(("event: gap\ndata: {\"missed\":" + (oldest - cursor) + "}\n\n")
+                                .getBytes(StandardCharsets.UTF_8));
+                            cursor = oldest;
+                        }
+                        else
+                        {
+                            out.write(frame.getBytes());
+                            cursor++;
+                        }
+                        unflushed = true;
+                        heartbeatDue = false;
+                    }
+                    else if (unflushed)
+                    {
+                        unflushed = false;
+                        out.flush();
+                    }
+                    else if (stream.isEnded())
+                    {
+                        close();
+                    }
+                    else if (heartbeatDue)
+                    {
+                        heartbeatDue = false;
+                        out.write(HEARTBEAT);
+                        unflushed = true;
+                    }
+                    else
+                    {
+                        return;
+                    }
+                }
+            }
+            catch (IOException | IllegalStateException e)
+            {
+                logger.debug("Caption subscriber failed: " + e);
+                close();
+            }
+        }
+
+        /**
+         * Stops following the stream and completes the response.
+         */
+        synchronized void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+
+            stream.removeListener(this);
+            subscribers.remove(this);
+
+            try
+            {
+                asyncContext.complete();
+            }
+            catch (IllegalStateException e)
+            {
+                // already completed by the container after an error
+            }
+        }
+    }
+}
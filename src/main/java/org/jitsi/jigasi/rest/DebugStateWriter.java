@@ -0,0 +1,377 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.xmpp.*;
+import org.jitsi.utils.*;
+import org.jitsi.utils.logging.Logger;
+import org.json.simple.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Writes the debug state of the gateways a session at a time, so the
+ * state of a node is never built in memory as a whole and no lock is held
+ * while writing it.
+ *
+ * The sessions can be filtered by room, type and state and are paged in a
+ * stable order, the <tt>next</tt> field of a page being the cursor of the
+ * next one. The sessions are keyed by their id, their display names not
+ * being unique:
+ * <ul>
+ *   <li><tt>room</tt>: part of the room jid, case insensitive</li>
+ *   <li><tt>type</tt>: <tt>sip</tt> or <tt>transcription</tt></li>
+ *   <li><tt>state</tt>: <tt>pending</tt>, <tt>joining</tt>,
+ *   <tt>in-room</tt> or <tt>stopped</tt></li>
+ *   <li><tt>cursor</tt>: the <tt>next</tt> of the previous page</li>
+ *   <li><tt>limit</tt>: the maximum number of sessions of the page</li>
+ * </ul>
+ */
+class DebugStateWriter
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(DebugStateWriter.class);
+
+    /**
+     * The default number of sessions of a page.
+     */
+    static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * The maximum number of sessions of a page.
+     */
+    static final int MAX_LIMIT = 1000;
+
+    /**
+     * The part of the room jid of the sessions written, null for all.
+     */
+    private final String room;
+
+    /**
+     * The type of the sessions written, null for all.
+     */
+    private final String type;
+
+    /**
+     * The state of the sessions written, null for all.
+     */
+    private final String state;
+
+    /**
+     * The key of the last session of the previous page, null for the first page.
+     */
+    private final String cursor;
+
+    /**
+     * The maximum number of sessions written.
+     */
+    private final int limit;
+
+    /**
+     * Creates a writer.
+     * @param room the part of the room jid of the sessions written, null for all.
+     * @param type the type of the sessions written, null for all.
+     * @param state the state of the sessions written, null for all.
+     * @param cursor the key of the last session of the previous page, null for the first page.
+     * @param limit the maximum number of sessions written.
+     */
+    DebugStateWriter(String room, String type, String state, String cursor, int limit)
+    {
+        this.room = room == null ? null : room.toLowerCase();
+        this.type = type;
+        this.state = state;
+        this.cursor = cursor;
+        this.limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    /**
+     * Writes the page of the debug state.
+     * @param gateways the gateways.
+     * @param out where to write.
+     * @throws IOException when writing fails.
+     */
+    void write(List<AbstractGateway> gateways, Writer out)
+        throws IOException
+    {
+        SortedMap<String, List<Entry>> entries = new TreeMap<>();
+        for (AbstractGateway<?> gateway : gateways)
+        {
+            String gatewayKey = Integer.toString(gateway.hashCode());
+            List<Entry> gatewayEntries = new ArrayList<>();
+            for (AbstractGatewaySession session : gateway.getActiveSessions())
+            {
+                gatewayEntries.add(new Entry(gatewayKey, session));
+            }
+            entries.put(gatewayKey, gatewayEntries);
+        }
+
+        write(entries, out);
+    }
+
+    /**
+     * Writes the page of the debug state.
+     * @param gateways the sessions of the gateways, by gateway key.
+     * @param out where to write.
+     * @throws IOException when writing fails.
+     */
+    void write(SortedMap<String, List<Entry>> gateways, Writer out)
+        throws IOException
+    {
+        // the sessions of the page, by id, trimmed to one more than the
+        // limit, which tells whether there is a next page
+        TreeMap<String, Entry> page = new TreeMap<>();
+        for (List<Entry> entries : gateways.values())
+        {
+            for (Entry entry : entries)
+            {
+                if ((cursor == null || entry.id.compareTo(cursor) > 0) && matches(entry))
+                {
+                    page.put(entry.id, entry);
+                    if (page.size() > limit + 1)
+                    {
+                        page.pollLastEntry();
+                    }
+                }
+            }
+        }
+
+        String next = null;
+        if (page.size() > limit)
+        {
+            page.pollLastEntry();
+            next = page.lastKey();
+        }
+
+        out.write("{\"gateways\":{");
+        boolean firstGateway = true;
+        for (String gatewayKey : gateways.keySet())
+        {
+            if (!firstGateway)
+            {
+                out.write(',');
+            }
+            firstGateway = false;
+
+            out.write(JSONValue.toJSONString(gatewayKey));
+            out.write(":{\"sessions\":{");
+
+            boolean firstSession = true;
+            for (Entry entry : page.subMap(gatewayKey + "/", gatewayKey + "0").values())
+            {
+                if (!firstSession)
+                {
+                    out.write(',');
+                }
+                firstSession = false;
+
+                writeSession(entry, out);
+            }
+            out.write("}}");
+        }
+        out.write('}');
+
+        out.write(",\"sharedXmppConnections\":");
+        out.write(SharedXmppConnections.getDebugState().toJSONString());
+        out.write(",\"xmppProviderPool\":");
+        out.write(XmppProviderPool.getDebugState().toJSONString());
+
+        if (next != null)
+        {
+            out.write(",\"next\":");
+            out.write(JSONValue.toJSONString(next));
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes a session, named by its id as the display names of the
+     * transcription sessions are all the same.
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeSession(Entry entry, Writer out)
+        throws IOException
+    {
+        OrderedJsonObject debugState;
+        try
+        {
+            debugState = entry.debugState.get();
+        }
+        catch (RuntimeException e)
+        {
+            // the session ended while being written
+            logger.warn("Failed to get the debug state of " + entry.id, e);
+            debugState = new OrderedJsonObject();
+            debugState.put("error", e.toString());
+        }
+        debugState.put("id", entry.id);
+        debugState.put("displayName", entry.displayName);
+        debugState.put("type", entry.type);
+        debugState.put("state", entry.state);
+
+        out.write(JSONValue.toJSONString(entry.id));
+        out.write(':');
+        out.write(debugState.toJSONString());
+    }
+
+    /**
+     * @return whether the session passes the filters.
+     */
+    private boolean matches(Entry entry)
+    {
+        if (type != null && !type.equals(entry.type))
+        {
+            return false;
+        }
+        if (state != null && !state.equals(entry.state))
+        {
+            return false;
+        }
+        if (room != null)
+        {
+            return entry.room != null && entry.room.toLowerCase().contains(room);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the type of a session: <tt>sip</tt> for a
+     * {@link SipGatewaySession}, <tt>transcription</tt> for a
+     * {@link TranscriptionGatewaySession}.
+     */
+    static String getType(AbstractGatewaySession session)
+    {
+        String name = session.getClass().getSimpleName();
+        if (name.endsWith("GatewaySession"))
+        {
+            name = name.substring(0, name.length() - "GatewaySession".length());
+        }
+
+        return name.toLowerCase();
+    }
+
+    /**
+     * @return the state of a session in its conference.
+     */
+    static String getState(AbstractGatewaySession session)
+    {
+        JvbConference conference = session.getJvbConference();
+        if (conference == null)
+        {
+            return "pending";
+        }
+        if (conference.isInTheRoom())
+        {
+            return "in-room";
+        }
+
+        return conference.isStarted() ? "joining" : "stopped";
+    }
+
+    /**
+     * A session listed in the debug state, its state being read only when
+     * it is written.
+     */
+    static class Entry
+    {
+        /**
+         * The id of the session, the key of its gateway and its call context.
+         */
+        private final String id;
+
+        /**
+         * The display name of the session in the room.
+         */
+        private final String displayName;
+
+        /**
+         * The type of the session.
+         */
+        private final String type;
+
+        /**
+         * The state of the session in its conference.
+         */
+        private final String state;
+
+        /**
+         * The room jid of the session, null when unknown.
+         */
+        private final String room;
+
+        /**
+         * Gets the debug state of the session.
+         */
+        private final Supplier<OrderedJsonObject> debugState;
+
+        /**
+         * Creates the entry of a session.
+         * @param gatewayKey the key of the gateway of the session.
+         * @param session the session.
+         */
+        Entry(String gatewayKey, AbstractGatewaySession session)
+        {
+            this(gatewayKey + "/" + session.getCallContext().getId(),
+                getDisplayName(session),
+                getType(session),
+                getState(session),
+                Objects.toString(session.getCallContext().getRoomJid(), null),
+                session::getDebugState);
+        }
+
+        /**
+         * Creates an entry.
+         * @param id the id of the session.
+         * @param displayName the display name of the session in the room.
+         * @param type the type of the session.
+         * @param state the state of the session in its conference.
+         * @param room the room jid of the session, null when unknown.
+         * @param debugState gets the debug state of the session.
+         */
+        Entry(String id, String displayName, String type, String state, String room,
+            Supplier<OrderedJsonObject> debugState)
+        {
+            this.id = id;
+            this.displayName = displayName;
+            this.type = type;
+            this.state = state;
+            this.room = room;
+            this.debugState = debugState;
+        }
+
+        /**
+         * @return the display name of a session in the room, its hash code
+         * when it has none.
+         */
+        private static String getDisplayName(AbstractGatewaySession session)
+        {
+            String displayName = session.getMucDisplayName();
+            if (displayName == null || displayName.trim().isEmpty())
+            {
+                displayName = Integer.toString(session.hashCode());
+            }
+
+            return displayName;
+        }
+    }
+}
@@ -307,7 +307,14 @@ public class HandlerImpl
     }
 
     /**
-     * 
+     * Writes the debug state of the gateways, a session at a time, filtered
+     * and paged by the query parameters described in {@link DebugStateWriter}.
+     *
+     * @param baseRequest the original unwrapped {@link Request} object
+     * @param request the request either as the {@code Request} object or a
+     * wrapper of that request
+     * @param response the response either as the {@code Response} object or a
+     * wrapper of that response
      * @throws IOException
      */
     private void doGetDebugJSON(
@@ -316,17 +323,32 @@ public class HandlerImpl
             HttpServletResponse response)
         throws IOException
     {
-        OrderedJsonObject debugState = new OrderedJsonObject();
-        JSONObject gatewaysJson = new JSONObject();
-        debugState.put("gateways", gatewaysJson);
-        List<AbstractGateway> gateways
-            = JigasiBundleActivator.getAvailableGateways();
-        gateways.forEach(gw -> gatewaysJson.put(gw.hashCode(), gw.getDebugState()));
+        int limit = DebugStateWriter.DEFAULT_LIMIT;
+        String limitParam = request.getParameter("limit");
+        if (limitParam != null)
+        {
+            try
+            {
+                limit = Integer.parseInt(limitParam);
+            }
+            catch (NumberFormatException e)
+            {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+        }
+
+        DebugStateWriter writer = new DebugStateWriter(
+            request.getParameter("room"),
+            request.getParameter("type"),
+            request.getParameter("state"),
+            request.getParameter("cursor"),
+            limit);
 
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
-        PrintWriter out = response.getWriter();
-        out.print(debugState.toJSONString());
+        response.setStatus(HttpServletResponse.SC_OK);
+        writer.write(JigasiBundleActivator.getAvailableGateways(), response.getWriter());
     }
 
     /**
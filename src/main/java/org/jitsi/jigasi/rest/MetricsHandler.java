@@ -22,7 +22,6 @@ import kotlin.*;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.*;
 import org.jitsi.jigasi.metrics.*;
-import org.jitsi.jigasi.stats.*;
 
 import java.io.*;
 import java.util.*;
@@ -38,8 +37,6 @@ public class MetricsHandler extends AbstractHandler
         {
             String accept = request.getHeader("Accept");
 
-            Statistics.updateMetrics();
-
             Pair<String, String> metricsAndContentType
                     = JigasiMetricsContainer.INSTANCE.getMetrics(getMediaTypes(accept));
             response.setContentType(metricsAndContentType.getSecond());
@@ -0,0 +1,344 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import org.eclipse.jetty.http.*;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+
+/**
+ * Serves the transcripts and audio recordings stored in a directory.
+ *
+ * <ul>
+ *   <li>Files are memory mapped and the mapped buffers handed to Jetty,
+ *   which writes them to the connection without copying them to the
+ *   heap.</li>
+ *   <li>A client accepting gzip gets the precompressed <tt>.gz</tt> sibling
+ *   of a file, written when the transcript is published, if it is not older
+ *   than the file.</li>
+ *   <li>Responses carry an <tt>ETag</tt>, from the size and the modification
+ *   time, and <tt>Last-Modified</tt>, answering conditional requests with
+ *   <tt>304 Not Modified</tt>.</li>
+ *   <li>A single byte range is served as <tt>206 Partial Content</tt>, so
+ *   interrupted downloads of long recordings resume where they stopped.</li>
+ * </ul>
+ *
+ * Directories are not listed and paths outside the directory are not served.
+ */
+public class TranscriptFileHandler
+    extends AbstractHandler
+{
+    /**
+     * The extension of the precompressed siblings.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * Files smaller than this are read rather than mapped, as mapping costs
+     * more than copying them.
+     */
+    private static final long MIN_MAPPED_LENGTH = 64 * 1024;
+
+    /**
+     * The largest region mapped at once, bounding the address space used
+     * by a download.
+     */
+    private static final long MAX_MAPPED_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * A range which cannot be served.
+     */
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * The directory served.
+     */
+    private final Path root;
+
+    /**
+     * Creates a handler.
+     * @param directory the directory to serve.
+     */
+    public TranscriptFileHandler(String directory)
+    {
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+        throws IOException, ServletException
+    {
+        boolean head = HttpMethod.HEAD.is(request.getMethod());
+        if (!head && !HttpMethod.GET.is(request.getMethod()))
+        {
+            return;
+        }
+
+        Path file = root.resolve(target.startsWith("/") ? target.substring(1) : target).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file))
+        {
+            return;
+        }
+
+        baseRequest.setHandled(true);
+
+        String range = request.getHeader(HttpHeader.RANGE.asString());
+        Path gzip = Paths.get(file + GZIP_EXTENSION);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        response.setContentType(getContentType(file));
+        response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+        response.setHeader(HttpHeader.ACCEPT_RANGES.asString(), "bytes");
+
+        // ranges are of the identity encoding
+        Path served = file;
+        if (range == null && acceptsGzip(request) && Files.isRegularFile(gzip))
+        {
+            BasicFileAttributes gzipAttributes = Files.readAttributes(gzip, BasicFileAttributes.class);
+            if (gzipAttributes.lastModifiedTime().compareTo(attributes.lastModifiedTime()) >= 0)
+            {
+                served = gzip;
+                attributes = gzipAttributes;
+                response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+            }
+        }
+
+        long length = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length)
+            + (served == gzip ? "-gzip" : "") + "\"";
+
+        response.setHeader(HttpHeader.ETAG.asString(), etag);
+        response.setDateHeader(HttpHeader.LAST_MODIFIED.asString(), lastModified);
+
+        if (isNotModified(request, etag, lastModified))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long[] bytes = range == null || !isRangeCurrent(request, etag, lastModified)
+            ? null : parseRange(range, length);
+        if (bytes == UNSATISFIABLE)
+        {
+            response.setHeader(HttpHeader.CONTENT_RANGE.asString(), "bytes */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        long position = 0;
+        if (bytes != null)
+        {
+            position = bytes[0];
+            length = bytes[1] - bytes[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeader.CONTENT_RANGE.asString(),
+                "bytes " + bytes[0] + "-" + bytes[1] + "/" + attributes.size());
+        }
+        else
+        {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        response.setContentLengthLong(length);
+
+        if (!head)
+        {
+            send(served, position, length, response.getOutputStream());
+        }
+    }
+
+    /**
+     * Writes a region of a file.
+     */
+    private static void send(Path file, long position, long length, ServletOutputStream out)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (length < MIN_MAPPED_LENGTH)
+            {
+                ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                while (buffer.hasRemaining())
+                {
+                    if (channel.read(buffer, position + buffer.position()) < 0)
+                    {
+                        break;
+                    }
+                }
+                out.write(buffer.array(), 0, buffer.position());
+                return;
+            }
+
+            WritableByteChannel fallback = out instanceof HttpOutput ? null : Channels.newChannel(out);
+            for (long offset = position; offset < position + length; offset += MAX_MAPPED_LENGTH)
+            {
+                ByteBuffer mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, offset, Math.min(MAX_MAPPED_LENGTH, position + length - offset));
+
+                if (fallback == null)
+                {
+                    ((HttpOutput) out).write(mapped);
+                }
+                else
+                {
+                    while (mapped.hasRemaining())
+                    {
+                        fallback.write(mapped);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the client accepts gzip content.
+     */
+    private static boolean acceptsGzip(HttpServletRequest request)
+    {
+        String accept = request.getHeader(HttpHeader.ACCEPT_ENCODING.asString());
+
+        return accept != null && accept.contains("gzip");
+    }
+
+    /**
+     * @return whether the client has the current content.
+     */
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified)
+    {
+        String ifNoneMatch = request.getHeader(HttpHeader.IF_NONE_MATCH.asString());
+        if (ifNoneMatch != null)
+        {
+            return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+        }
+
+        long ifModifiedSince = getDateHeader(request, HttpHeader.IF_MODIFIED_SINCE);
+
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * @return whether the range is of the current content, when conditioned by <tt>If-Range</tt>.
+     */
+    private static boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified)
+    {
+        String ifRange = request.getHeader(HttpHeader.IF_RANGE.asString());
+        if (ifRange == null)
+        {
+            return true;
+        }
+        if (ifRange.startsWith("\""))
+        {
+            return ifRange.equals(etag);
+        }
+
+        return lastModified / 1000 == getDateHeader(request, HttpHeader.IF_RANGE) / 1000;
+    }
+
+    /**
+     * @return the date of a header, in milliseconds, -1 when missing or invalid.
+     */
+    private static long getDateHeader(HttpServletRequest request, HttpHeader header)
+    {
+        try
+        {
+            return request.getDateHeader(header.asString());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses a <tt>Range</tt> header.
+     * @param header the value of the header.
+     * @param length the length of the content.
+     * @return the first and last bytes of the range, {@link #UNSATISFIABLE}
+     * when out of the content, or null to serve the whole content as for
+     * invalid and multiple ranges.
+     */
+    static long[] parseRange(String header, long length)
+    {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0)
+        {
+            return null;
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+            if (first.isEmpty())
+            {
+                // the last bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0)
+                {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            }
+            else
+            {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? Math.max(start, length - 1) : Long.parseLong(last);
+                if (start < 0 || end < start)
+                {
+                    return null;
+                }
+                end = Math.min(end, length - 1);
+            }
+
+            return start >= length ? UNSATISFIABLE : new long[] { start, end };
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the content type of a file, by its extension.
+     */
+    private static String getContentType(Path file)
+    {
+        String type = MimeTypes.getDefaultMimeByExtension(file.getFileName().toString());
+
+        return type == null ? "application/octet-stream" : type;
+    }
+}
@@ -18,15 +18,19 @@
 package org.jitsi.jigasi.rest;
 
 import org.eclipse.jetty.server.*;
-import org.eclipse.jetty.server.handler.*;
 import org.jitsi.jigasi.transcription.*;
 import org.osgi.framework.*;
 
+import java.util.*;
+
 /**
  * Activate a jetty instance which is able to serve
  * {@link org.jitsi.jigasi.transcription.Transcript} which are locally stored
  * with a {@link org.jitsi.jigasi.transcription.LocalTxtTranscriptHandler} or
- * {@link org.jitsi.jigasi.transcription.LocalJsonTranscriptHandler}
+ * {@link org.jitsi.jigasi.transcription.LocalJsonTranscriptHandler} through a
+ * {@link TranscriptFileHandler}, and
+ * the live captions of the rooms being transcribed through a
+ * {@link CaptionStreamHandler}
  *
  * @author Nik Vaessen
  */
@@ -57,12 +61,9 @@ public class TranscriptServerBundleActivator
     protected Handler initializeHandlerList(BundleContext bundleContext,
                                             Server server)
     {
-        ResourceHandler fileHandler = new ResourceHandler();
-
-        fileHandler.setDirectoriesListed(false);
-        fileHandler.setResourceBase(
+        TranscriptFileHandler fileHandler = new TranscriptFileHandler(
             AbstractTranscriptPublisher.getLogDirPath());
 
-        return fileHandler;
+        return initializeHandlerList(Arrays.asList(new CaptionStreamHandler(), fileHandler));
     }
 }
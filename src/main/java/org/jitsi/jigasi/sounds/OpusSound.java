@@ -0,0 +1,158 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.sounds;
+
+import org.gagravarr.ogg.*;
+import org.gagravarr.opus.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The opus packets of a sound file, read once and kept in memory, so playing
+ * a notification does not read and parse the ogg container again.
+ * Instances are immutable and shared between all the calls playing the sound.
+ */
+class OpusSound
+{
+    /**
+     * The sounds that were already read by their resource name.
+     */
+    private static final Map<String, OpusSound> sounds = new ConcurrentHashMap<>();
+
+    /**
+     * The opus payload of every packet.
+     */
+    private final byte[][] payloads;
+
+    /**
+     * The number of samples (at 48kHz) of every packet.
+     */
+    private final int[] sampleCounts;
+
+    /**
+     * The length of the biggest payload.
+     */
+    private final int maxPayloadLength;
+
+    /**
+     * Returns the sound for a resource, reading it if this is its first use.
+     * @param fileName the resource name of the opus file.
+     * @return the sound.
+     * @throws UncheckedIOException when the resource cannot be read.
+     */
+    static OpusSound get(String fileName)
+    {
+        return sounds.computeIfAbsent(fileName, name ->
+        {
+            try
+            {
+                return read(name);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Cannot read sound " + name, e);
+            }
+        });
+    }
+
+    /**
+     * Reads all the audio packets of an opus file from the class path.
+     * @param fileName the resource name of the opus file.
+     * @return the sound.
+     * @throws IOException when the resource is missing or cannot be parsed.
+     */
+    private static OpusSound read(String fileName)
+        throws IOException
+    {
+        InputStream in = OpusSound.class.getClassLoader().getResourceAsStream(fileName);
+        if (in == null)
+        {
+            throw new FileNotFoundException(fileName);
+        }
+
+        List<byte[]> payloads = new ArrayList<>();
+        List<Integer> sampleCounts = new ArrayList<>();
+
+        try (OpusFile of = new OpusFile(new OggPacketReader(in)))
+        {
+            OpusAudioData opusAudioData;
+            while ((opusAudioData = of.getNextAudioPacket()) != null)
+            {
+                payloads.add(opusAudioData.getData());
+                sampleCounts.add(opusAudioData.getNumberOfSamples());
+            }
+        }
+
+        return new OpusSound(
+            payloads.toArray(new byte[0][]), sampleCounts.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private OpusSound(byte[][] payloads, int[] sampleCounts)
+    {
+        this.payloads = payloads;
+        this.sampleCounts = sampleCounts;
+        this.maxPayloadLength = Arrays.stream(payloads).mapToInt(p -> p.length).max().orElse(0);
+    }
+
+    /**
+     * @return the number of audio packets of the sound.
+     */
+    int getPacketCount()
+    {
+        return payloads.length;
+    }
+
+    /**
+     * @param index the index of the packet.
+     * @return the number of samples (at 48kHz) of the packet.
+     */
+    int getSampleCount(int index)
+    {
+        return sampleCounts[index];
+    }
+
+    /**
+     * @param index the index of the packet.
+     * @return the length of the opus payload of the packet.
+     */
+    int getPayloadLength(int index)
+    {
+        return payloads[index].length;
+    }
+
+    /**
+     * @return the length of the biggest payload of the sound.
+     */
+    int getMaxPayloadLength()
+    {
+        return maxPayloadLength;
+    }
+
+    /**
+     * Copies the opus payload of a packet.
+     * @param index the index of the packet.
+     * @param dest the destination buffer.
+     * @param offset the offset in the destination buffer.
+     */
+    void copyPayload(int index, byte[] dest, int offset)
+    {
+        System.arraycopy(payloads[index], 0, dest, offset, payloads[index].length);
+    }
+}
@@ -19,17 +19,18 @@ package org.jitsi.jigasi.sounds;
 
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
 import org.jitsi.utils.logging.Logger;
 
 /**
  * Used to queue audio files for playback. This is used for the IVR.
+ * Files are played one after the other by the shared {@link SoundPacer},
+ * once the queue is started.
  */
 class PlaybackQueue
-    extends Thread
 {
     /**
      * The logger.
@@ -145,15 +146,30 @@ class PlaybackQueue
         }
     }
 
+    /**
+     * Executes the delegates once their playback ends, they may do signalling and should not delay the pacer.
+     */
+    private static final ExecutorService delegateExecutor = Util.createNewThreadPool("sound-playback-delegate");
+
     /**
      * Queue used to schedule sound notifications.
      */
     private final BlockingQueue<PlaybackData> playbackQueue = new ArrayBlockingQueue<>(100, true);
 
     /**
-     * Flag used to stop the queue thread.
+     * Whether the queue was started and files can be played.
+     */
+    private boolean started = false;
+
+    /**
+     * Whether the queue was stopped.
      */
-    private AtomicBoolean playbackQueueStopFlag = new AtomicBoolean(false);
+    private boolean stopped = false;
+
+    /**
+     * The playback in progress, if any.
+     */
+    private SoundPlayback currentPlayback = null;
 
     /**
      * Queues a file to be played to the caller.
@@ -198,53 +214,123 @@ class PlaybackQueue
         }
 
         playbackQueue.put(new PlaybackData(fileName, delegate, call));
+
+        playNext();
+    }
+
+    /**
+     * Starts playing the queued files.
+     */
+    public void start()
+    {
+        synchronized (this)
+        {
+            if (stopped)
+            {
+                return;
+            }
+
+            started = true;
+        }
+
+        playNext();
     }
 
     /**
-     * Stops the playback queue after the current playback ends.
+     * Stops the playback queue, the current playback is stopped and the queued files dropped.
      */
     public void stopAtNextPlayback()
     {
-        playbackQueue.clear();
-        playbackQueueStopFlag.set(true);
-        this.interrupt();
+        SoundPlayback playback;
+        synchronized (this)
+        {
+            playbackQueue.clear();
+            stopped = true;
+            playback = currentPlayback;
+        }
+
+        if (playback != null)
+        {
+            SoundPacer.stop(playback);
+        }
     }
 
     /**
-     * Thread execution method that injects queued files into audio stream.
+     * Starts the playback of the next queued file, if started and nothing is playing.
      */
-    @Override
-    public void run()
+    private void playNext()
     {
-        while (!playbackQueueStopFlag.get())
+        while (true)
         {
-            Call playbackCall = null;
-            try
+            PlaybackData playbackData;
+            synchronized (this)
             {
-                PlaybackData playbackData = playbackQueue.take();
+                if (!started || stopped || currentPlayback != null)
+                {
+                    return;
+                }
 
-                if (playbackData != null)
+                playbackData = playbackQueue.poll();
+                if (playbackData == null)
                 {
-                    playbackCall = playbackData.getPlaybackCall();
-
-                    if (playbackCall != null)
-                    {
-                        SoundNotificationManager.injectSoundFile(playbackCall, playbackData.getPlaybackFileName());
-                    }
-
-                    final PlaybackDelegate playbackDelegate = playbackData.getPlaybackDelegate();
-                    if (playbackDelegate != null)
-                    {
-                        playbackDelegate.onPlaybackFinished();
-                    }
+                    return;
+                }
+
+                Call playbackCall = playbackData.getPlaybackCall();
+                if (playbackCall != null)
+                {
+                    currentPlayback = SoundNotificationManager.injectSoundFile(
+                        playbackCall, playbackData.getPlaybackFileName(), () -> onPlaybackFinished(playbackData));
+                }
+
+                if (currentPlayback != null)
+                {
+                    return;
                 }
             }
-            catch(InterruptedException ex)
+
+            // nothing to play for this one, move to the next
+            runDelegate(playbackData);
+        }
+    }
+
+    /**
+     * Called by the pacer when a playback ends.
+     * @param playbackData the data of the file that was played.
+     */
+    private void onPlaybackFinished(PlaybackData playbackData)
+    {
+        synchronized (this)
+        {
+            currentPlayback = null;
+        }
+
+        runDelegate(playbackData);
+
+        playNext();
+    }
+
+    /**
+     * Executes the delegate of a playback, if any.
+     * @param playbackData the data of the file that was played.
+     */
+    private void runDelegate(PlaybackData playbackData)
+    {
+        final PlaybackDelegate playbackDelegate = playbackData.getPlaybackDelegate();
+        if (playbackDelegate == null)
+        {
+            return;
+        }
+
+        delegateExecutor.execute(() ->
+        {
+            try
             {
-                // the execution was interrupted
+                playbackDelegate.onPlaybackFinished();
             }
             catch (Exception ex)
             {
+                Call playbackCall = playbackData.getPlaybackCall();
                 if (playbackCall != null)
                 {
                     Object callContext = playbackCall.getData(CallContext.class);
@@ -255,6 +341,6 @@ class PlaybackQueue
                     logger.error(ex);
                 }
             }
-        }
+        });
     }
 }
@@ -19,10 +19,6 @@ package org.jitsi.jigasi.sounds;
 
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.media.*;
-import org.gagravarr.ogg.*;
-import org.gagravarr.opus.*;
-import org.jitsi.impl.neomedia.*;
-import org.jitsi.impl.neomedia.codec.*;
 import org.jitsi.jigasi.*;
 import org.jitsi.jigasi.util.*;
 import org.jitsi.service.neomedia.*;
@@ -33,6 +29,7 @@ import org.jitsi.xmpp.extensions.jibri.*;
 import org.jitsi.xmpp.extensions.jitsimeet.*;
 import org.jivesoftware.smack.packet.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -184,17 +181,11 @@ public class SoundNotificationManager
      */
     private static final long PARTICIPANT_JOINED_RATE_TIMEOUT_MS = 30000;
 
-    /**
-     * Timer trigger notification when a participant is the only one
-     * in the conference for a certain amount of time.
-     */
-    private Timer participantAloneNotificationTimerLazy = null;
-
     /**
      * Task to trigger notification when the participant is the only one
      * in the conference for a certain amount of time.
      */
-    private TimerTask participantAloneNotificationTask = null;
+    private ScheduledFuture<?> participantAloneNotificationTask = null;
 
     /**
      * To sync schedule and cancel the participant alone notification.
@@ -302,6 +293,35 @@ public class SoundNotificationManager
         }
     }
 
+    /**
+     * Injects a sound file in a call's <tt>MediaStream</tt> and waits till
+     * it is played, see {@link #injectSoundFile(Call, String, Runnable)}.
+     * When the waiting thread is interrupted the playback is stopped and
+     * the interrupted status of the thread is kept.
+     *
+     * @param call the call (sip one) to inject the sound as rtp.
+     * @param fileName the file name to play.
+     */
+    public static void injectSoundFile(Call call, String fileName)
+    {
+        CountDownLatch played = new CountDownLatch(1);
+        SoundPlayback playback = injectSoundFile(call, fileName, played::countDown);
+        if (playback == null)
+        {
+            return;
+        }
+
+        try
+        {
+            played.await();
+        }
+        catch (InterruptedException e)
+        {
+            SoundPacer.stop(playback);
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Injects a sound file in a call's <tt>MediaStream</tt> using injectPacket
      * method and constructing RTP packets for it.
@@ -310,12 +330,16 @@ public class SoundNotificationManager
      *
      * The file will be played if possible is there is a call passed and that
      * call has call peers of type MediaAwareCallPeer with media handler that
-     * has MediaStream for Audio.
+     * has MediaStream for Audio. The packets are sent by the
+     * {@link SoundPacer}, this method does not wait for the playback to end.
      *
      * @param call the call (sip one) to inject the sound as rtp.
      * @param fileName the file name to play.
+     * @param onFinished executed once the playback ends.
+     * @return the playback or <tt>null</tt> if the sound cannot be played,
+     * in which case <tt>onFinished</tt> is not executed.
      */
-    public static void injectSoundFile(Call call, String fileName)
+    static SoundPlayback injectSoundFile(Call call, String fileName, Runnable onFinished)
     {
         MediaStream stream = getMediaStream(call);
 
@@ -327,87 +351,43 @@ public class SoundNotificationManager
             || stream.getDynamicRTPPayloadType(Constants.OPUS) == -1
             || fileName == null)
         {
-            return;
+            return null;
         }
 
-        final MediaStream streamToPass = stream;
-
         try
         {
-            injectSoundFileInStream(streamToPass, fileName);
+            SoundPlayback playback = new SoundPlayback(
+                stream, OpusSound.get(fileName), fileName, call.getData(CallContext.class), onFinished);
+
+            SoundPacer.play(playback);
+
+            return playback;
         }
         catch (Throwable t)
         {
             classLogger.error(call.getData(CallContext.class) + " Error playing:" + fileName, t);
+            return null;
         }
     }
 
     /**
-     * The internal implementation where we read the file and inject it in
-     * the stream.
-     * @param stream the stream where we inject the sound as rtp.
-     * @param fileName the file name to play.
-     * @throws Throwable cannot read a source sound file or cannot transmit it.
+     * Reads all the notification sounds, so playing them later does not need
+     * to read and parse the files.
      */
-    static void injectSoundFileInStream(MediaStream stream, String fileName)
-        throws Throwable
+    public static void loadSounds()
     {
-        OpusFile of = new OpusFile(new OggPacketReader(
-            Util.class.getClassLoader().getResourceAsStream(fileName)));
-
-        OpusAudioData opusAudioData;
-        // Random timestamp, ssrc and seq
-        int seq = new Random().nextInt(0xFFFF);
-        long ts = new Random().nextInt(0xFFFF);
-        long ssrc = new Random().nextInt(0xFFFF);
-        byte pt = stream.getDynamicRTPPayloadType(Constants.OPUS);
-        long timeForNextPacket = System.currentTimeMillis();
-        long sentDuration = 0;
-
-        while ((opusAudioData = of.getNextAudioPacket()) != null)
-        {
-            // seq may rollover
-            if (seq > AbstractCodec2.SEQUENCE_MAX)
-            {
-                seq = 0;
-            }
-
-            int nSamples = opusAudioData.getNumberOfSamples();
-            ts += nSamples;
-            // timestamp may rollover
-            if (ts > TimestampUtils.MAX_TIMESTAMP_VALUE)
-            {
-                ts = ts - TimestampUtils.MAX_TIMESTAMP_VALUE;
-            }
-
-            byte[] data = opusAudioData.getData();
-            RawPacket rtp = Util.makeRTP(
-                ssrc, // ssrc
-                pt, // payload
-                seq++, /// seq
-                ts, // ts
-                data.length + RawPacket.FIXED_HEADER_SIZE// len
-            );
-            rtp.setSkipStats(true);
-
-            System.arraycopy(
-                data, 0, rtp.getBuffer(), rtp.getPayloadOffset(), data.length);
-            int duration = nSamples/48;
-            timeForNextPacket += duration;
-            sentDuration += duration;
-            if (stream instanceof MediaStreamImpl)
+        for (String fileName : new String[] {
+            REC_ON_SOUND, REC_OFF_SOUND, LIVE_STREAMING_ON_SOUND, LIVE_STREAMING_OFF_SOUND, MAX_OCCUPANTS_SOUND,
+            PARTICIPANT_ALONE, PARTICIPANT_LEFT, PARTICIPANT_JOINED,
+            LOBBY_ACCESS_GRANTED, LOBBY_ACCESS_DENIED, LOBBY_MEETING_END, LOBBY_JOIN_REVIEW })
+        {
+            try
             {
-                ((MediaStreamImpl)stream).injectPacket(rtp, true, null, true);
+                OpusSound.get(fileName);
             }
-            else
+            catch (UncheckedIOException e)
             {
-                stream.injectPacket(rtp, true, null);
-            }
-
-            long sleep = timeForNextPacket - System.currentTimeMillis();
-            if (sleep > 0 && sentDuration > 200) // we let the first 200ms to be sent without waiting
-            {
-                Thread.sleep(sleep);
+                classLogger.error("Error loading sound:" + fileName, e);
             }
         }
     }
@@ -465,21 +445,12 @@ public class SoundNotificationManager
 
         if (delayedHangupSeconds != -1)
         {
-            final long mills = delayedHangupSeconds;
-            new Thread(() -> {
-                try
-                {
-                    Thread.sleep(mills);
-                }
-                catch(InterruptedException e)
-                {
-                    throw new RuntimeException(e);
-                }
+            CallTimers.schedule(() -> {
                 CallManager.hangupCall(gatewaySession.getSipCall());
 
                 if (hangupWait != null)
                     hangupWait.countDown();
-            }).start();
+            }, delayedHangupSeconds, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -489,6 +460,8 @@ public class SoundNotificationManager
     public void stop()
     {
         this.playbackQueue.stopAtNextPlayback();
+
+        this.cancelAloneNotification();
     }
 
     /**
@@ -535,24 +508,17 @@ public class SoundNotificationManager
         {
             this.cancelAloneNotification();
 
-            this.participantAloneNotificationTask
-                = new TimerTask()
+            this.participantAloneNotificationTask = CallTimers.schedule(() ->
             {
-                @Override
-                public void run()
+                try
                 {
-                    try
-                    {
-                        playParticipantAloneNotification();
-                    }
-                    catch(Exception ex)
-                    {
-                        logger.error(ex.getMessage(), ex);
-                    }
+                    playParticipantAloneNotification();
                 }
-            };
-
-            getParticipantAloneNotificationTimer().schedule(this.participantAloneNotificationTask, timeout);
+                catch(Exception ex)
+                {
+                    logger.error(ex.getMessage(), ex);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -565,7 +531,7 @@ public class SoundNotificationManager
         {
             if (this.participantAloneNotificationTask != null)
             {
-                this.participantAloneNotificationTask.cancel();
+                this.participantAloneNotificationTask.cancel(false);
             }
         }
     }
@@ -812,23 +778,6 @@ public class SoundNotificationManager
         }
     }
 
-    /**
-     * Returns a new Timer that will trigger playback for
-     * PARTICIPANT_ALONE notification.
-     *
-     * @return participantAloneNotificationTimerLazy
-     */
-    private Timer getParticipantAloneNotificationTimer()
-    {
-        if (this.participantAloneNotificationTimerLazy == null)
-        {
-            this.participantAloneNotificationTimerLazy
-                = new Timer();
-        }
-
-        return participantAloneNotificationTimerLazy;
-    }
-
     /**
      * Returns a new SoundRateLimiter to be used for participant left
      * if not created already.
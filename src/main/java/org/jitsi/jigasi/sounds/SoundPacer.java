@@ -0,0 +1,128 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.sounds;
+
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+
+import java.util.concurrent.*;
+
+/**
+ * Drives the sound playbacks of all calls. The active playbacks wait in a
+ * queue ordered by the time their next packet is due and a small number of
+ * threads take them when due, inject the packets and put them back in the
+ * queue till there is nothing more to send. Playing a sound does not need a
+ * thread per call and the pacing does not depend on per packet sleeps.
+ */
+class SoundPacer
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(SoundPacer.class);
+
+    /**
+     * The number of threads sending the packets of all playbacks.
+     */
+    private static final int THREADS = 2;
+
+    /**
+     * The active playbacks ordered by the time of their next packet.
+     */
+    private static final DelayQueue<SoundPlayback> playbacks = new DelayQueue<>();
+
+    static
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(
+            THREADS, new CustomizableThreadFactory("sound-pacer", true));
+
+        for (int i = 0; i < THREADS; i++)
+        {
+            executor.execute(SoundPacer::run);
+        }
+    }
+
+    /**
+     * Starts a playback, its first packets are sent straight away.
+     * @param playback the playback.
+     */
+    static void play(SoundPlayback playback)
+    {
+        playbacks.add(playback);
+    }
+
+    /**
+     * Stops a playback, its finished callback is still executed.
+     * @param playback the playback.
+     */
+    static void stop(SoundPlayback playback)
+    {
+        playback.cancel();
+
+        if (playbacks.remove(playback))
+        {
+            playback.finished();
+        }
+    }
+
+    /**
+     * Sends the packets of the playbacks as they become due.
+     */
+    private static void run()
+    {
+        while (true)
+        {
+            SoundPlayback playback;
+            try
+            {
+                playback = playbacks.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            boolean more;
+            try
+            {
+                more = playback.sendDuePackets();
+            }
+            catch (Throwable t)
+            {
+                logger.error(playback.getCallContext() + " Error playing:" + playback.getFileName(), t);
+                more = false;
+            }
+
+            if (more)
+            {
+                playbacks.add(playback);
+            }
+            else
+            {
+                try
+                {
+                    playback.finished();
+                }
+                catch (Throwable t)
+                {
+                    logger.error(playback.getCallContext() + " Error finishing:" + playback.getFileName(), t);
+                }
+            }
+        }
+    }
+}
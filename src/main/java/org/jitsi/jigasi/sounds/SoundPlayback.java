@@ -0,0 +1,289 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.sounds;
+
+import org.jitsi.impl.neomedia.*;
+import org.jitsi.impl.neomedia.codec.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.service.neomedia.*;
+import org.jitsi.utils.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The playback of a sound in a call's <tt>MediaStream</tt>. Holds the
+ * position in the sound and the RTP state, and is driven by the
+ * {@link SoundPacer} which sends the packets that are due, so a playback
+ * does not need a thread of its own.
+ *
+ * The first 200ms of the sound are sent straight away, the rest is paced
+ * at the rate of the audio.
+ */
+class SoundPlayback
+    implements Delayed
+{
+    /**
+     * The duration in milliseconds sent at the beginning without pacing.
+     */
+    private static final long UNPACED_DURATION_MS = 200;
+
+    /**
+     * Extra room in the packet, so the transformers (srtp auth tag, header
+     * extensions) can grow it in place.
+     */
+    private static final int PACKET_EXTRA_SPACE = 64;
+
+    /**
+     * The stream where we inject the sound.
+     */
+    private final MediaStream stream;
+
+    /**
+     * The sound to play.
+     */
+    private final OpusSound sound;
+
+    /**
+     * The name of the sound file, for logging.
+     */
+    private final String fileName;
+
+    /**
+     * The context of the call, for logging.
+     */
+    private final Object callContext;
+
+    /**
+     * Executed once the playback ends, was stopped or failed.
+     */
+    private final Runnable onFinished;
+
+    /**
+     * The payload type of opus in the stream.
+     */
+    private final byte pt;
+
+    /**
+     * The ssrc of the injected packets.
+     */
+    private final long ssrc;
+
+    /**
+     * The packet reused for all the opus packets of the sound, only the
+     * header and payload are written in it for every packet.
+     */
+    private final RawPacket rtp;
+
+    /**
+     * The time the playback started, in nanoseconds.
+     */
+    private final long startNanos;
+
+    /**
+     * The sequence number of the next packet.
+     */
+    private int seq;
+
+    /**
+     * The timestamp of the last packet.
+     */
+    private long ts;
+
+    /**
+     * The index of the next opus packet to send.
+     */
+    private int index = 0;
+
+    /**
+     * The duration in milliseconds of the audio sent so far.
+     */
+    private long sentDuration = 0;
+
+    /**
+     * The time the next packet is due, in nanoseconds.
+     */
+    private long nextSendNanos;
+
+    /**
+     * Whether the playback was stopped.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates new playback.
+     * @param stream the stream to inject the sound in.
+     * @param sound the sound.
+     * @param fileName the name of the sound file.
+     * @param callContext the context of the call, for logging.
+     * @param onFinished executed once the playback ends.
+     */
+    SoundPlayback(MediaStream stream, OpusSound sound, String fileName, Object callContext, Runnable onFinished)
+    {
+        this.stream = stream;
+        this.sound = sound;
+        this.fileName = fileName;
+        this.callContext = callContext;
+        this.onFinished = onFinished;
+
+        // Random timestamp, ssrc and seq
+        Random random = new Random();
+        this.seq = random.nextInt(0xFFFF);
+        this.ts = random.nextInt(0xFFFF);
+        this.ssrc = random.nextInt(0xFFFF);
+        this.pt = stream.getDynamicRTPPayloadType(Constants.OPUS);
+
+        this.rtp = Util.makeRTP(
+            ssrc, pt, seq, ts, RawPacket.FIXED_HEADER_SIZE + sound.getMaxPayloadLength() + PACKET_EXTRA_SPACE);
+
+        this.startNanos = System.nanoTime();
+        this.nextSendNanos = startNanos;
+    }
+
+    /**
+     * Sends all the packets that are due.
+     * @return <tt>true</tt> if there are more packets to send,
+     * at {@link #getDelay(TimeUnit)}.
+     */
+    boolean sendDuePackets()
+    {
+        while (!cancelled && index < sound.getPacketCount())
+        {
+            if (sentDuration > UNPACED_DURATION_MS)
+            {
+                long due = startNanos + TimeUnit.MILLISECONDS.toNanos(sentDuration);
+                if (due - System.nanoTime() > 0)
+                {
+                    nextSendNanos = due;
+                    return true;
+                }
+            }
+
+            sendPacket(index++);
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes an opus packet in the RTP packet and injects it in the stream.
+     * @param i the index of the opus packet.
+     */
+    private void sendPacket(int i)
+    {
+        // seq may rollover
+        if (seq > AbstractCodec2.SEQUENCE_MAX)
+        {
+            seq = 0;
+        }
+
+        int nSamples = sound.getSampleCount(i);
+        ts += nSamples;
+        // timestamp may rollover
+        if (ts > TimestampUtils.MAX_TIMESTAMP_VALUE)
+        {
+            ts = ts - TimestampUtils.MAX_TIMESTAMP_VALUE;
+        }
+
+        int payloadLength = sound.getPayloadLength(i);
+        byte[] buffer = rtp.getBuffer();
+
+        // the previous packet may have been transformed in place, start from a clean header
+        rtp.setOffset(0);
+        rtp.setLength(RawPacket.FIXED_HEADER_SIZE + payloadLength);
+        Arrays.fill(buffer, 0, RawPacket.FIXED_HEADER_SIZE, (byte) 0);
+        rtp.setVersion();
+        rtp.setPayloadType(pt);
+        rtp.setSSRC((int) ssrc);
+        rtp.setTimestamp(ts);
+        rtp.setSequenceNumber(seq++);
+        rtp.setSkipStats(true);
+
+        sound.copyPayload(i, buffer, rtp.getPayloadOffset());
+
+        sentDuration += nSamples/48;
+
+        try
+        {
+            if (stream instanceof MediaStreamImpl)
+            {
+                ((MediaStreamImpl)stream).injectPacket(rtp, true, null, true);
+            }
+            else
+            {
+                stream.injectPacket(rtp, true, null);
+            }
+        }
+        catch (TransmissionFailedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops the playback, the packets already sent are not affected.
+     */
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Called by the pacer once there is nothing more to send.
+     */
+    void finished()
+    {
+        if (onFinished != null)
+        {
+            onFinished.run();
+        }
+    }
+
+    /**
+     * @return the name of the sound file being played.
+     */
+    String getFileName()
+    {
+        return fileName;
+    }
+
+    /**
+     * @return the context of the call, for logging.
+     */
+    Object getCallContext()
+    {
+        return callContext;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit)
+    {
+        return unit.convert(nextSendNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o)
+    {
+        if (o instanceof SoundPlayback)
+        {
+            return Long.compare(nextSendNanos, ((SoundPlayback) o).nextSendNanos);
+        }
+
+        return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.stats;
+
+import io.prometheus.client.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.metrics.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.utils.logging.Logger;
+
+import java.lang.management.*;
+
+/**
+ * Decides whether this node takes new gateway sessions, from the live
+ * resources of the process rather than the number of rooms: the cpu load,
+ * the time paused in garbage collection, the number of threads, the
+ * streams open to the transcription service and the json messages waiting
+ * to be sent to the rooms. Each signal is divided by its budget and the
+ * load of the node is the highest of them, the resource closest to
+ * exhaustion. The load is published as the stress level, so Jicofo
+ * prefers the less loaded nodes.
+ *
+ * Once the load reaches {@link #P_NAME_REJECT_LEVEL} new sessions are
+ * rejected until it drops below {@link #P_NAME_RESUME_LEVEL}, so a node
+ * near its budget does not flap between accepting and rejecting.
+ */
+public class AdmissionController
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(AdmissionController.class);
+
+    /**
+     * The prefix of the properties of the admission.
+     */
+    private final static String P_NAME_PREFIX = "org.jitsi.jigasi.admission.";
+
+    /**
+     * The property enabling the rejection of sessions, the load is computed either way.
+     */
+    public final static String P_NAME_ENABLED = P_NAME_PREFIX + "ENABLED";
+
+    /**
+     * The property for the load from which sessions are rejected.
+     */
+    public final static String P_NAME_REJECT_LEVEL = P_NAME_PREFIX + "REJECT_LEVEL";
+
+    /**
+     * The property for the load below which sessions are accepted again.
+     */
+    public final static String P_NAME_RESUME_LEVEL = P_NAME_PREFIX + "RESUME_LEVEL";
+
+    /**
+     * The default load from which sessions are rejected.
+     */
+    private final static double DEFAULT_REJECT_LEVEL = 1;
+
+    /**
+     * The default load below which sessions are accepted again.
+     */
+    private final static double DEFAULT_RESUME_LEVEL = 0.9;
+
+    /**
+     * The signals are sampled at most this often, the dial requests in
+     * between use the last sample.
+     */
+    private final static long SAMPLE_INTERVAL_MS = 1000;
+
+    /**
+     * The resources watched, with the property and the default of their budget.
+     */
+    public enum Signal
+    {
+        /**
+         * The cpu load of the machine, from 0 to 1.
+         */
+        CPU("MAX_CPU", 0.85, false),
+
+        /**
+         * The fraction of the time paused in garbage collection.
+         */
+        GC("MAX_GC_TIME", 0.1, false),
+
+        /**
+         * The live threads.
+         */
+        THREADS("MAX_THREADS", 4000, false),
+
+        /**
+         * The streams open to the transcription service.
+         */
+        STT_STREAMS("MAX_STT_STREAMS", 500, true),
+
+        /**
+         * The json messages waiting to be sent to the rooms.
+         */
+        SEND_QUEUE("MAX_SEND_QUEUE", 2000, false);
+
+        /**
+         * The property of the budget.
+         */
+        private final String budgetProperty;
+
+        /**
+         * The default budget.
+         */
+        private final double defaultBudget;
+
+        /**
+         * Whether only the transcription sessions use the resource.
+         */
+        private final boolean transcriptionOnly;
+
+        Signal(String budgetProperty, double defaultBudget, boolean transcriptionOnly)
+        {
+            this.budgetProperty = P_NAME_PREFIX + budgetProperty;
+            this.defaultBudget = defaultBudget;
+            this.transcriptionOnly = transcriptionOnly;
+        }
+
+        /**
+         * @return the name of the signal in the metrics.
+         */
+        String getLabel()
+        {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * The load of every signal, its value divided by its budget.
+     */
+    private static final Gauge loadMetric = JigasiMetricsContainer.INSTANCE.createLabeledGauge(
+        "admission_load", "Load of a resource, its value divided by its budget.", "signal");
+
+    /**
+     * The sessions rejected, by the signal over budget.
+     */
+    private static final Counter rejectedMetric = JigasiMetricsContainer.INSTANCE.createLabeledCounter(
+        "admission_rejected", "Number of new sessions rejected because of the load.", "signal");
+
+    /**
+     * The load of every signal of the last sample.
+     */
+    private static volatile double[] loads = new double[Signal.values().length];
+
+    /**
+     * When the last sample was taken, in nanoseconds.
+     */
+    private static long lastSampleNanos = System.nanoTime() - SAMPLE_INTERVAL_MS * 1_000_000;
+
+    /**
+     * The garbage collection time at the last sample, in milliseconds.
+     */
+    private static long lastGcMillis = getGcMillis();
+
+    /**
+     * Whether sessions are being rejected, the sip ones first and the
+     * transcription ones second, as they do not watch the same signals.
+     */
+    private static final boolean[] shedding = new boolean[2];
+
+    static
+    {
+        for (Signal signal : Signal.values())
+        {
+            loadMetric.setChild(new Gauge.Child()
+            {
+                @Override
+                public double get()
+                {
+                    return loads[signal.ordinal()];
+                }
+            }, signal.getLabel());
+        }
+    }
+
+    /**
+     * Checks whether a new session is admitted.
+     * @param transcription whether the session transcribes, so it opens
+     * streams to the transcription service.
+     * @throws AdmissionRejectedException when the node is over its budget.
+     */
+    public static void checkAdmission(boolean transcription)
+        throws AdmissionRejectedException
+    {
+        sample(false);
+
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+        if (cfg != null && !cfg.getBoolean(P_NAME_ENABLED, true))
+        {
+            return;
+        }
+
+        double[] current = loads;
+        Signal worst = null;
+        for (Signal signal : Signal.values())
+        {
+            if ((transcription || !signal.transcriptionOnly)
+                && (worst == null || current[signal.ordinal()] > current[worst.ordinal()]))
+            {
+                worst = signal;
+            }
+        }
+
+        if (worst != null && isShedding(transcription, current[worst.ordinal()], cfg))
+        {
+            rejectedMetric.labels(worst.getLabel()).inc();
+
+            throw new AdmissionRejectedException(
+                String.format("Over budget: %s at %.2f", worst.getLabel(), current[worst.ordinal()]));
+        }
+    }
+
+    /**
+     * @return the load of the node, the highest load of the signals of the last sample.
+     */
+    public static double getLoad()
+    {
+        double load = 0;
+        for (double signalLoad : loads)
+        {
+            load = Math.max(load, signalLoad);
+        }
+
+        return load;
+    }
+
+    /**
+     * Samples the signals.
+     * @param force whether to sample even when the last sample is recent.
+     */
+    static synchronized void sample(boolean force)
+    {
+        long now = System.nanoTime();
+        long elapsedMillis = (now - lastSampleNanos) / 1_000_000;
+        if (!force && elapsedMillis < SAMPLE_INTERVAL_MS)
+        {
+            return;
+        }
+
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+        double[] values = new double[Signal.values().length];
+
+        values[Signal.CPU.ordinal()] = getCpuLoad();
+
+        long gcMillis = getGcMillis();
+        values[Signal.GC.ordinal()] = elapsedMillis <= 0 ? 0 : (double) (gcMillis - lastGcMillis) / elapsedMillis;
+        lastGcMillis = gcMillis;
+
+        values[Signal.THREADS.ordinal()] = ManagementFactory.getThreadMXBean().getThreadCount();
+        values[Signal.STT_STREAMS.ordinal()] = Statistics.countSttStreams(false);
+        values[Signal.SEND_QUEUE.ordinal()] = Statistics.getXmppSendQueueDepth();
+
+        double[] sampled = new double[values.length];
+        for (Signal signal : Signal.values())
+        {
+            double budget = cfg == null
+                ? signal.defaultBudget : cfg.getDouble(signal.budgetProperty, signal.defaultBudget);
+            sampled[signal.ordinal()] = budget <= 0 ? 0 : values[signal.ordinal()] / budget;
+        }
+
+        loads = sampled;
+        lastSampleNanos = now;
+    }
+
+    /**
+     * Updates whether sessions are rejected, with the hysteresis between
+     * the reject and the resume levels.
+     * @param transcription whether the session transcribes.
+     * @param load the load of the signal closest to its budget.
+     * @return whether sessions are rejected.
+     */
+    private static synchronized boolean isShedding(boolean transcription, double load, ConfigurationService cfg)
+    {
+        double rejectLevel = cfg == null
+            ? DEFAULT_REJECT_LEVEL : cfg.getDouble(P_NAME_REJECT_LEVEL, DEFAULT_REJECT_LEVEL);
+        double resumeLevel = cfg == null
+            ? DEFAULT_RESUME_LEVEL : cfg.getDouble(P_NAME_RESUME_LEVEL, DEFAULT_RESUME_LEVEL);
+
+        int kind = transcription ? 1 : 0;
+        String name = transcription ? "transcription" : "sip";
+        if (!shedding[kind] && load >= rejectLevel)
+        {
+            shedding[kind] = true;
+            logger.warn("Rejecting new " + name + " sessions, load " + load);
+        }
+        else if (shedding[kind] && load < Math.min(resumeLevel, rejectLevel))
+        {
+            shedding[kind] = false;
+            logger.info("Accepting new " + name + " sessions, load " + load);
+        }
+
+        return shedding[kind];
+    }
+
+    /**
+     * @return the cpu load of the machine from 0 to 1, estimated from the
+     * load average when the runtime does not report it.
+     */
+    @SuppressWarnings("deprecation")
+    private static double getCpuLoad()
+    {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+        {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+            if (load >= 0)
+            {
+                return load;
+            }
+        }
+
+        double loadAverage = os.getSystemLoadAverage();
+
+        return loadAverage < 0 ? 0 : loadAverage / os.getAvailableProcessors();
+    }
+
+    /**
+     * @return the total time paused in garbage collection, in milliseconds.
+     */
+    private static long getGcMillis()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.stats;
+
+/**
+ * Thrown when a new session is rejected because the node is over its
+ * budget, see {@link AdmissionController}.
+ */
+public class AdmissionRejectedException
+    extends RuntimeException
+{
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param message the signal over budget.
+     */
+    public AdmissionRejectedException(String message)
+    {
+        super(message);
+    }
+}
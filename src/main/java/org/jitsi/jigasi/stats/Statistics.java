@@ -24,6 +24,8 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.*;
 
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import jakarta.servlet.http.*;
 
 import net.java.sip.communicator.impl.protocol.jabber.*;
@@ -33,6 +35,7 @@ import org.eclipse.jetty.server.*;
 import org.jitsi.jigasi.metrics.*;
 import org.jitsi.jigasi.version.*;
 import org.jitsi.metrics.*;
+import org.jitsi.utils.concurrent.*;
 import org.jitsi.utils.logging.Logger;
 import org.osgi.framework.*;
 import org.json.simple.*;
@@ -44,6 +47,7 @@ import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.jabber.*;
 
 import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.util.*;
 import org.jitsi.jigasi.xmpp.*;
 
 import static org.jitsi.jigasi.JvbConference.*;
@@ -179,6 +183,46 @@ public class Statistics
      */
     public static final String TOTAL_TRANSCRIBER_SESSION_CREATION_ERRORS = "total_transcriber_session_creation_errors";
 
+    /**
+     * The total number of interim results that were replaced by a newer interim before being sent to the room.
+     */
+    public static final String TOTAL_XMPP_INTERIMS_COALESCED = "total_xmpp_interims_coalesced";
+
+    /**
+     * The total number of interim results that were not sent as the room send queue was full.
+     */
+    public static final String TOTAL_XMPP_INTERIMS_DROPPED = "total_xmpp_interims_dropped";
+
+    /**
+     * The name of the number of json messages waiting to be sent to rooms.
+     */
+    public static final String XMPP_SEND_QUEUE_DEPTH = "xmpp_send_queue_depth";
+
+    /**
+     * The total number of conferences that started with a pre-registered xmpp connection from the pool.
+     */
+    public static final String TOTAL_XMPP_POOL_HITS = "total_xmpp_pool_hits";
+
+    /**
+     * The total number of conferences that could have used the pool, but had to create a new xmpp connection.
+     */
+    public static final String TOTAL_XMPP_POOL_MISSES = "total_xmpp_pool_misses";
+
+    /**
+     * The name of the ratio of pool hits to all pool leases.
+     */
+    public static final String XMPP_POOL_HIT_RATE = "xmpp_pool_hit_rate";
+
+    /**
+     * The name of the number of pre-registered xmpp connections waiting in the pool.
+     */
+    public static final String XMPP_POOL_IDLE = "xmpp_pool_idle";
+
+    /**
+     * The name of the number of call timers (heartbeats, delayed hangups, notifications) waiting to be executed.
+     */
+    public static final String LIVE_CALL_TIMERS = "live_call_timers";
+
     /**
      * The name of the property that holds the normalizing constant that is used to reduce the number of
      * current conferences to a stress level metric {@link #CONFERENCES_THRESHOLD}.
@@ -195,7 +239,7 @@ public class Statistics
      * The normalizing constant that is used to reduce the number of current conferences to a stress level
      * metric. This number should be the max number of conferences that this Jigasi instance can handle
      * correctly (i.e. if Jigasi has more conferences it is overloaded and it may experience abnormal operation).
-     * The stress_level metric is computed in {@link #getSessionStats()}.
+     * The stress_level metric is computed in {@link #updateMetrics()}.
      */
     private static final double CONFERENCES_THRESHOLD = JigasiBundleActivator
             .getConfigurationService()
@@ -206,6 +250,17 @@ public class Statistics
      */
     private static final String STRESS_LEVEL = "stress_level";
 
+    /**
+     * The name of the property that holds the interval in milliseconds at which the conference and participant
+     * stats are aggregated from the active sessions.
+     */
+    private static final String STATS_INTERVAL_PNAME = "org.jitsi.jigasi.STATS_INTERVAL_MS";
+
+    /**
+     * The default interval of the aggregation of the conference and participant stats.
+     */
+    private static final long STATS_INTERVAL_DEFAULT = 1000;
+
     /**
      * Total number of times with dropped media since started.
      */
@@ -377,6 +432,99 @@ public class Statistics
             TOTAL_TRANSCRIBER_VSK_MILLIS,
             "Total number of milliseconds sent to Vosk.");
 
+    /**
+     * The total number of interim results that were replaced by a newer interim before being sent.
+     */
+    private static final CounterMetric totalXmppInterimsCoalesced = JigasiMetricsContainer.INSTANCE.registerCounter(
+            TOTAL_XMPP_INTERIMS_COALESCED,
+            "Total number of interim results replaced by a newer one before being sent.");
+
+    /**
+     * The total number of interim results dropped because the room send queue was full.
+     */
+    private static final CounterMetric totalXmppInterimsDropped = JigasiMetricsContainer.INSTANCE.registerCounter(
+            TOTAL_XMPP_INTERIMS_DROPPED,
+            "Total number of interim results dropped because the room send queue was full.");
+
+    /**
+     * The number of json messages waiting to be sent to all rooms.
+     */
+    private static final LongGaugeMetric xmppSendQueueDepth = JigasiMetricsContainer.INSTANCE.registerLongGauge(
+            XMPP_SEND_QUEUE_DEPTH,
+            "Number of json messages waiting to be sent to the rooms.");
+
+    /**
+     * The time from queueing a json message for a room till it is handed to the xmpp connection.
+     */
+    private static final Histogram xmppSendLatency = JigasiMetricsContainer.INSTANCE.createHistogram(
+            "xmpp_send_latency_seconds",
+            "Time from queueing a json message for a room till it is sent.",
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5);
+
+    /**
+     * The packet loss ratio of the sip calls per report interval, by direction.
+     */
+    private static final Histogram sipMediaLoss = JigasiMetricsContainer.INSTANCE.createLabeledHistogram(
+            "sip_media_loss_ratio",
+            "Ratio of RTP packets lost on the sip calls per report interval.",
+            "direction",
+            0, 0.005, 0.01, 0.02, 0.05, 0.1, 0.2, 0.5);
+
+    /**
+     * The interarrival jitter of the sip calls per report interval, by direction.
+     */
+    private static final Histogram sipMediaJitter = JigasiMetricsContainer.INSTANCE.createLabeledHistogram(
+            "sip_media_jitter_ms",
+            "Interarrival jitter in milliseconds of the RTP of the sip calls per report interval.",
+            "direction",
+            1, 2, 5, 10, 20, 30, 50, 100, 200);
+
+    /**
+     * The MOS estimate of the sip calls per report interval, by direction.
+     */
+    private static final Histogram sipMediaMos = JigasiMetricsContainer.INSTANCE.createLabeledHistogram(
+            "sip_media_mos",
+            "MOS estimated from the loss and jitter of the sip calls per report interval.",
+            "direction",
+            1.5, 2, 2.5, 3, 3.5, 3.8, 4, 4.2, 4.4);
+
+    /**
+     * The total number of conferences that got a pre-registered xmpp connection from the pool.
+     */
+    private static final CounterMetric totalXmppPoolHits = JigasiMetricsContainer.INSTANCE.registerCounter(
+            TOTAL_XMPP_POOL_HITS,
+            "Total number of conferences that started with a pre-registered xmpp connection.");
+
+    /**
+     * The total number of conferences that had to create their own xmpp connection as the pool was empty.
+     */
+    private static final CounterMetric totalXmppPoolMisses = JigasiMetricsContainer.INSTANCE.registerCounter(
+            TOTAL_XMPP_POOL_MISSES,
+            "Total number of conferences that found the xmpp connection pool empty.");
+
+    /**
+     * The number of pre-registered xmpp connections waiting in the pool.
+     */
+    private static final LongGaugeMetric xmppPoolIdle = JigasiMetricsContainer.INSTANCE.registerLongGauge(
+            XMPP_POOL_IDLE,
+            "Number of pre-registered xmpp connections waiting in the pool.");
+
+    /**
+     * The time from starting a conference till the room is joined using a pre-registered xmpp connection.
+     */
+    private static final Histogram xmppPooledJoinTime = JigasiMetricsContainer.INSTANCE.createHistogram(
+            "xmpp_pooled_join_time_seconds",
+            "Time from starting a conference till joining the room with a pre-registered xmpp connection.",
+            0.05, 0.1, 0.25, 0.5, 1, 2, 4, 8, 16);
+
+    /**
+     * The time from starting a conference till the room is joined using a new xmpp connection.
+     */
+    private static final Histogram xmppJoinTime = JigasiMetricsContainer.INSTANCE.createHistogram(
+            "xmpp_join_time_seconds",
+            "Time from starting a conference till joining the room with a new xmpp connection.",
+            0.05, 0.1, 0.25, 0.5, 1, 2, 4, 8, 16);
+
     /**
      * Cumulative number of seconds of all conferences.
      */
@@ -387,6 +535,9 @@ public class Statistics
     private static final LongGaugeMetric threadsMetric = JigasiMetricsContainer.INSTANCE.registerLongGauge(
             "threads",
             "Number of JVM threads.");
+    private static final LongGaugeMetric liveCallTimersMetric = JigasiMetricsContainer.INSTANCE.registerLongGauge(
+            LIVE_CALL_TIMERS,
+            "Number of call timers waiting to be executed.");
     private static final BooleanMetric shutdownMetric = JigasiMetricsContainer.INSTANCE.registerBooleanMetric(
             SHUTDOWN_IN_PROGRESS,
             "Whether jigasi is in graceful shutdown mode.");
@@ -400,6 +551,43 @@ public class Statistics
             STRESS_LEVEL,
             "Stress level.");
 
+    /**
+     * The streams to the transcription service, active or suspended till the participant speaks.
+     */
+    private static final Gauge sttStreamsMetric = JigasiMetricsContainer.INSTANCE.createLabeledGauge(
+            "stt_streams",
+            "Number of streams to the transcription service, active or suspended till the participant speaks.",
+            "state");
+
+    static
+    {
+        sttStreamsMetric.setChild(new Gauge.Child()
+        {
+            @Override
+            public double get()
+            {
+                return countSttStreams(false);
+            }
+        }, "active");
+        sttStreamsMetric.setChild(new Gauge.Child()
+        {
+            @Override
+            public double get()
+            {
+                return countSttStreams(true);
+            }
+        }, "suspended");
+    }
+
+    /**
+     * The distribution of the number of participants of the conferences in progress.
+     */
+    private static final SnapshotHistogram conferenceSizesMetric
+        = JigasiMetricsContainer.INSTANCE.createSnapshotHistogram(
+            "conference_size",
+            "Number of participants of the conferences in progress.",
+            1, 2, 3, 4, 5, 10, 20, 50, 100, 200, 500);
+
     /**
      * The <tt>DateFormat</tt> to be utilized by <tt>Statistics</tt>
      * in order to represent time and date as <tt>String</tt>.
@@ -425,6 +613,57 @@ public class Statistics
      */
     private static ExecutorService threadPool = Executors.newFixedThreadPool(3);
 
+    /**
+     * The executor aggregating the stats of the active sessions.
+     */
+    private static final RecurringRunnableExecutor aggregatorExecutor
+        = new RecurringRunnableExecutor(Statistics.class.getName());
+
+    /**
+     * The periodic aggregation of the stats, <tt>null</tt> when not started.
+     */
+    private static Aggregator aggregator = null;
+
+    /**
+     * Guards the aggregation, so concurrent aggregations publish their results in order. Readers never take it.
+     */
+    private static final Object aggregationLock = new Object();
+
+    /**
+     * The conference size distribution of the last aggregation, as reported in the json stats.
+     */
+    private static volatile int[] conferenceSizes = new int[CONFERENCE_SIZE_BUCKETS];
+
+    /**
+     * Starts aggregating periodically the stats of the active sessions, so reading the stats does not need to
+     * walk all the sessions.
+     */
+    public static synchronized void start()
+    {
+        if (aggregator != null)
+        {
+            return;
+        }
+
+        aggregator = new Aggregator(JigasiBundleActivator.getConfigurationService()
+            .getLong(STATS_INTERVAL_PNAME, STATS_INTERVAL_DEFAULT));
+        aggregatorExecutor.registerRecurringRunnable(aggregator);
+
+        updateMetrics();
+    }
+
+    /**
+     * Stops aggregating the stats.
+     */
+    public static synchronized void stop()
+    {
+        if (aggregator != null)
+        {
+            aggregatorExecutor.deRegisterRecurringRunnable(aggregator);
+            aggregator = null;
+        }
+    }
+
     /**
      * Gets a JSON representation of the statistics of a specific
      * {@link SipGateway}.
@@ -435,19 +674,18 @@ public class Statistics
      * @param response the response either as the {@code Response} object or a
      * wrapper of that response
      */
-    public static synchronized void sendJSON(
+    public static void sendJSON(
             Request baseRequest,
             HttpServletRequest request,
             HttpServletResponse response)
         throws IOException
     {
-        updateMetrics();
-
         Map<String, Object> stats = new HashMap<>();
 
         stats.putAll(getSessionStats());
 
         stats.put(THREADS, threadsMetric.get());
+        stats.put(LIVE_CALL_TIMERS, liveCallTimersMetric.get());
 
         // TIMESTAMP
         stats.put(TIMESTAMP, currentTimeMillis());
@@ -482,88 +720,90 @@ public class Statistics
         stats.put(TOTAL_TRANSCRIBER_SEND_ERRORS, totalTrasnscriberSendErrors.get());
         stats.put(TOTAL_TRANSCRIBER_SESSION_CREATION_ERRORS, totalTrasnscriberSessionCreationErrors.get());
 
+        stats.put(TOTAL_XMPP_INTERIMS_COALESCED, totalXmppInterimsCoalesced.get());
+        stats.put(TOTAL_XMPP_INTERIMS_DROPPED, totalXmppInterimsDropped.get());
+        stats.put(XMPP_SEND_QUEUE_DEPTH, xmppSendQueueDepth.get());
+
+        long poolHits = totalXmppPoolHits.get();
+        long poolLeases = poolHits + totalXmppPoolMisses.get();
+        stats.put(TOTAL_XMPP_POOL_HITS, poolHits);
+        stats.put(TOTAL_XMPP_POOL_MISSES, totalXmppPoolMisses.get());
+        stats.put(XMPP_POOL_HIT_RATE, poolLeases == 0 ? 0 : (double) poolHits / poolLeases);
+        stats.put(XMPP_POOL_IDLE, xmppPoolIdle.get());
+
         stats.put(SHUTDOWN_IN_PROGRESS, shutdownMetric.get());
 
         response.setStatus(HttpServletResponse.SC_OK);
         new JSONObject(stats).writeJSONString(response.getWriter());
     }
 
+    /**
+     * Aggregates the stats of the active sessions of all gateways and updates the metrics. Called periodically
+     * and when the number of conferences or participants changes, reading the metrics does not call it.
+     */
     public static void updateMetrics()
     {
-        threadsMetric.set(ManagementFactory.getThreadMXBean().getThreadCount());
-        shutdownMetric.set(JigasiBundleActivator.isShutdownInProgress());
+        synchronized (aggregationLock)
+        {
+            threadsMetric.set(ManagementFactory.getThreadMXBean().getThreadCount());
+            liveCallTimersMetric.set(CallTimers.getLiveTimers());
+            shutdownMetric.set(JigasiBundleActivator.isShutdownInProgress());
 
-        // get sessions from all gateways
-        List<AbstractGatewaySession> sessions = new ArrayList<>();
-        JigasiBundleActivator.getAvailableGateways().forEach(gw -> sessions.addAll(gw.getActiveSessions()));
+            // get sessions from all gateways
+            List<AbstractGatewaySession> sessions = new ArrayList<>();
+            JigasiBundleActivator.getAvailableGateways().forEach(gw -> sessions.addAll(gw.getActiveSessions()));
 
-        int participants = 0;
-        int conferences = 0;
+            int participants = 0;
+            int conferences = 0;
+            int[] sizes = new int[CONFERENCE_SIZE_BUCKETS];
+            double[] sizeValues = new double[sessions.size()];
 
-        for (AbstractGatewaySession ses : sessions)
-        {
-            if (ses.getJvbChatRoom() == null)
+            for (AbstractGatewaySession ses : sessions)
             {
-                continue;
-            }
+                ChatRoom chatRoom = ses.getJvbChatRoom();
+                if (chatRoom == null)
+                {
+                    continue;
+                }
 
-            // do not count focus
-            int conferenceEndpoints = ses.getJvbChatRoom().getMembersCount() - 1;
-            participants += conferenceEndpoints;
-            conferences++;
-        }
+                // do not count focus
+                int conferenceEndpoints = chatRoom.getMembersCount() - 1;
+                participants += conferenceEndpoints;
 
-        double stressLevel = conferences / CONFERENCES_THRESHOLD;
+                int idx = Math.min(conferenceEndpoints, sizes.length - 1);
+                if (idx >= 0)
+                {
+                    sizes[idx]++;
+                }
+                sizeValues[conferences++] = Math.max(0, conferenceEndpoints);
+            }
 
-        conferencesMetric.set(conferences);
-        participantsMetric.set(participants);
-        stressMetric.set(stressLevel);
+            // the conferences alone ignore their size and the transcription
+            // streams, the resource closest to its budget tells the load
+            AdmissionController.sample(false);
+            double stressLevel = Math.max(conferences / CONFERENCES_THRESHOLD, AdmissionController.getLoad());
 
+            conferencesMetric.set(conferences);
+            participantsMetric.set(participants);
+            stressMetric.set(stressLevel);
+            conferenceSizesMetric.set(Arrays.copyOf(sizeValues, conferences));
+            conferenceSizes = sizes;
+        }
     }
 
     /**
-     * Counts conferences count, participants count and conference size
-     * distributions.
+     * Gets the conferences count, participants count and conference size
+     * distribution of the last aggregation.
      *
      * @return a map with the stats.
      */
     private static Map<String, Object> getSessionStats()
     {
-
         Map<String, Object> stats = new HashMap<>();
         stats.put(CONFERENCES, conferencesMetric.get());
         stats.put(PARTICIPANTS, participantsMetric.get());
         stats.put(STRESS_LEVEL, stressMetric.get());
 
-        // Calculate the conference sizes separately because we don't have a metric for them. TODO: port to a metric.
-        // get sessions from all gateways
-        List<AbstractGatewaySession> sessions = new ArrayList<>();
-        JigasiBundleActivator.getAvailableGateways().forEach(
-            gw -> sessions.addAll(gw.getActiveSessions()));
-
-        int[] conferenceSizes = new int[CONFERENCE_SIZE_BUCKETS];
-
-        for (AbstractGatewaySession ses : sessions)
-        {
-            if (ses.getJvbChatRoom() == null)
-            {
-                continue;
-            }
-
-            // do not count focus
-            int conferenceEndpoints
-                = ses.getJvbChatRoom().getMembersCount() - 1;
-            int idx
-                = conferenceEndpoints < conferenceSizes.length
-                ? conferenceEndpoints
-                : conferenceSizes.length - 1;
-            if (idx >= 0)
-            {
-                conferenceSizes[idx]++;
-            }
-        }
-
-
         JSONArray conferenceSizesJson = new JSONArray();
         for (int size : conferenceSizes)
         {
@@ -781,6 +1021,122 @@ public class Statistics
         totalTrasnscriberSessionCreationErrors.inc();
     }
 
+    /**
+     * Increment the value of total number of interim results replaced before being sent.
+     */
+    public static void incrementTotalXmppInterimsCoalesced()
+    {
+        totalXmppInterimsCoalesced.inc();
+    }
+
+    /**
+     * Increment the value of total number of interim results dropped because of a full send queue.
+     */
+    public static void incrementTotalXmppInterimsDropped()
+    {
+        totalXmppInterimsDropped.inc();
+    }
+
+    /**
+     * Adds the value to the number of json messages waiting to be sent to the rooms.
+     * @param value the value to add, negative when messages leave the queues.
+     */
+    public static void addXmppSendQueueDepth(long value)
+    {
+        xmppSendQueueDepth.addAndGet(value);
+    }
+
+    /**
+     * Counts the streams to the transcription service of all the transcription sessions.
+     * @param suspended whether to count the streams suspended till the participant speaks, or the active ones.
+     * @return the number of streams.
+     */
+    public static int countSttStreams(boolean suspended)
+    {
+        int count = 0;
+        for (AbstractGateway<?> gateway : JigasiBundleActivator.getAvailableGateways())
+        {
+            if (gateway instanceof TranscriptionGateway)
+            {
+                for (Object session : gateway.getActiveSessions())
+                {
+                    TranscriptionGatewaySession transcriptionSession = (TranscriptionGatewaySession) session;
+                    count += suspended
+                        ? transcriptionSession.getSuspendedSttStreamCount()
+                        : transcriptionSession.getActiveSttStreamCount();
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the number of json messages waiting to be sent to the rooms.
+     */
+    public static long getXmppSendQueueDepth()
+    {
+        return xmppSendQueueDepth.get();
+    }
+
+    /**
+     * Records the time a json message spent from being queued till it was sent.
+     * @param millis the time in milliseconds.
+     */
+    public static void observeXmppSendLatency(long millis)
+    {
+        xmppSendLatency.observe(millis / 1000d);
+    }
+
+    /**
+     * Records the media quality of a sip call for the last report interval.
+     * @param direction the direction of the media, <tt>incoming</tt> (from the sip side) or <tt>outgoing</tt>.
+     * @param lossRatio the ratio of lost packets.
+     * @param jitterMs the interarrival jitter in milliseconds.
+     * @param mos the estimated MOS.
+     */
+    public static void observeSipMediaStats(String direction, double lossRatio, double jitterMs, double mos)
+    {
+        sipMediaLoss.labels(direction).observe(lossRatio);
+        sipMediaJitter.labels(direction).observe(jitterMs);
+        sipMediaMos.labels(direction).observe(mos);
+    }
+
+    /**
+     * Increment the value of total number of conferences that got a connection from the xmpp pool.
+     */
+    public static void incrementTotalXmppPoolHits()
+    {
+        totalXmppPoolHits.inc();
+    }
+
+    /**
+     * Increment the value of total number of conferences that found the xmpp pool empty.
+     */
+    public static void incrementTotalXmppPoolMisses()
+    {
+        totalXmppPoolMisses.inc();
+    }
+
+    /**
+     * Adds the value to the number of pre-registered connections waiting in the xmpp pool.
+     * @param value the value to add, negative when connections leave the pool.
+     */
+    public static void addXmppPoolIdle(long value)
+    {
+        xmppPoolIdle.addAndGet(value);
+    }
+
+    /**
+     * Records the time from starting a conference till its room was joined.
+     * @param millis the time in milliseconds.
+     * @param pooled whether the conference used a pre-registered connection from the pool.
+     */
+    public static void observeXmppJoinTime(long millis, boolean pooled)
+    {
+        (pooled ? xmppPooledJoinTime : xmppJoinTime).observe(millis / 1000d);
+    }
+
     /**
      * Adds the value to the number of total conference seconds.
      * @param value the value to add to the number of total conference seconds.
@@ -918,4 +1274,35 @@ public class Statistics
             }
         }
     }
+
+    /**
+     * Aggregates periodically the stats of the active sessions.
+     */
+    private static class Aggregator
+        extends PeriodicRunnable
+    {
+        /**
+         * Creates new aggregator.
+         * @param period the interval of the aggregation in milliseconds.
+         */
+        Aggregator(long period)
+        {
+            super(period);
+        }
+
+        @Override
+        public void run()
+        {
+            super.run();
+
+            try
+            {
+                updateMetrics();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error aggregating stats", t);
+            }
+        }
+    }
 }
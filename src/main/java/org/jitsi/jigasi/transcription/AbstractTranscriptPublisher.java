@@ -29,6 +29,7 @@ import java.nio.charset.*;
 import java.nio.file.*;
 import java.time.*;
 import java.util.*;
+import java.util.zip.*;
 
 /**
  * An abstract TranscriptHandler which implements the basic storage for the
@@ -102,6 +103,14 @@ public abstract class AbstractTranscriptPublisher<T>
     public final static String P_NAME_SCRIPTS_TO_EXECUTE_LIST
         = "org.jitsi.jigasi.transcription.SCRIPTS_TO_EXECUTE_LIST";
 
+    /**
+     * The property name for the boolean value whether a gzip compressed copy
+     * of every saved transcript should be written next to it, served to the
+     * clients accepting gzip
+     */
+    public final static String P_NAME_PRECOMPRESS
+        = "org.jitsi.jigasi.transcription.PRECOMPRESS";
+
     /**
      * The default for the url
      */
@@ -125,6 +134,11 @@ public abstract class AbstractTranscriptPublisher<T>
      */
     public final static boolean RECORD_AUDIO_DEFAULT_VALUE = false;
 
+    /**
+     * By default write gzip compressed copies of the transcripts
+     */
+    public final static boolean PRECOMPRESS_DEFAULT_VALUE = true;
+
     /**
      * By default when recording audio the format to store it as is WAV
      */
@@ -212,6 +226,47 @@ public abstract class AbstractTranscriptPublisher<T>
         catch(IOException e)
         {
             logger.warn("Unable to write transcript to file " + t, e);
+            return;
+        }
+
+        if (shouldPrecompress())
+        {
+            saveCompressedCopy(t.toPath(), transcript);
+        }
+    }
+
+    /**
+     * Save a gzip compressed copy of a transcript next to it, written to a
+     * temporary file first so a partial copy is never served
+     *
+     * @param file the saved transcript
+     * @param transcript the transcript
+     */
+    private static void saveCompressedCopy(Path file, String transcript)
+    {
+        Path compressed = Paths.get(file + ".gz");
+        Path temporary = Paths.get(file + ".gz.tmp");
+        try
+        {
+            try (Writer writer = new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temporary)), StandardCharsets.UTF_8))
+            {
+                writer.write(transcript);
+            }
+            Files.move(temporary, compressed,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to write compressed transcript to " + compressed, e);
+            try
+            {
+                Files.deleteIfExists(temporary);
+            }
+            catch (IOException ignored)
+            {
+                // the transcript is still served uncompressed
+            }
         }
     }
 
@@ -301,6 +356,18 @@ public abstract class AbstractTranscriptPublisher<T>
                 RECORD_AUDIO_DEFAULT_VALUE);
     }
 
+    /**
+     * Get whether gzip compressed copies of the transcripts should be saved
+     *
+     * @return true when compressed copies should be saved, false otherwise
+     */
+    protected boolean shouldPrecompress()
+    {
+        return JigasiBundleActivator.getConfigurationService()
+            .getBoolean(P_NAME_PRECOMPRESS,
+                PRECOMPRESS_DEFAULT_VALUE);
+    }
+
     /**
      * Get in which format the audio mix should be recorded
      *
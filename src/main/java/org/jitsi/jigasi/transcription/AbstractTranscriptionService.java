@@ -48,4 +48,25 @@ public abstract class AbstractTranscriptionService
     {
         return false;
     }
+
+    /**
+     * The backend this service sends the audio to, used to account the usage.
+     *
+     * @return the backend.
+     */
+    public TranscriptionBackend getBackend()
+    {
+        return TranscriptionBackend.OTHER;
+    }
+
+    /**
+     * Creates the accounting of the audio sent by a room to this service.
+     *
+     * @param tenant the tenant of the room, can be <tt>null</tt>.
+     * @return the usage of the room.
+     */
+    public TranscriptionUsage createUsage(String tenant)
+    {
+        return new TranscriptionUsage(getBackend(), tenant);
+    }
 }
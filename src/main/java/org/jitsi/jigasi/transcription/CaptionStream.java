@@ -0,0 +1,237 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The live captions of a room, kept in a ring buffer of the latest events
+ * so subscribers can follow them and resume from a sequence number.
+ *
+ * Every event is encoded once as a server-sent event frame when appended,
+ * the same bytes are then written to all the subscribers. Appending wakes
+ * the subscribers, which read the frames from their own position.
+ */
+public class CaptionStream
+{
+    /**
+     * The event of a transcription result.
+     */
+    public static final String EVENT_TRANSCRIPTION = "transcription";
+
+    /**
+     * The event of a translation result.
+     */
+    public static final String EVENT_TRANSLATION = "translation";
+
+    /**
+     * The last event of a stream, when the transcription of the room ended.
+     */
+    public static final String EVENT_END = "end";
+
+    /**
+     * The latest frames, at their sequence modulo the capacity.
+     */
+    private final AtomicReferenceArray<Frame> frames;
+
+    /**
+     * The sequence of the next frame appended.
+     */
+    private volatile long nextSequence;
+
+    /**
+     * Whether the end frame was appended.
+     */
+    private volatile boolean ended;
+
+    /**
+     * Woken after every frame appended.
+     */
+    private final Set<Runnable> listeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * Creates a stream.
+     * @param capacity the number of latest frames kept.
+     */
+    public CaptionStream(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+
+        this.frames = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Appends an event and wakes the subscribers. Ignored once the stream ended.
+     * @param event the name of the event.
+     * @param data the data of the event, json on a single line.
+     */
+    public void append(String event, String data)
+    {
+        synchronized (this)
+        {
+            if (ended)
+            {
+                return;
+            }
+
+            long sequence = nextSequence;
+            frames.set(index(sequence), new Frame(sequence, event, data));
+            nextSequence = sequence + 1;
+            ended = EVENT_END.equals(event);
+        }
+
+        for (Runnable listener : listeners)
+        {
+            listener.run();
+        }
+    }
+
+    /**
+     * Appends the end event, after which no more events are appended.
+     */
+    public void end()
+    {
+        append(EVENT_END, "{}");
+    }
+
+    /**
+     * @return whether the end event was appended.
+     */
+    public boolean isEnded()
+    {
+        return ended;
+    }
+
+    /**
+     * @return the sequence of the next frame appended.
+     */
+    public long getNextSequence()
+    {
+        return nextSequence;
+    }
+
+    /**
+     * @return the sequence of the oldest frame still kept.
+     */
+    public long getOldestSequence()
+    {
+        return Math.max(0, nextSequence - frames.length());
+    }
+
+    /**
+     * Gets a frame.
+     * @param sequence the sequence of the frame.
+     * @return the frame, or null when it was not appended yet or is not kept anymore.
+     */
+    public Frame get(long sequence)
+    {
+        if (sequence < 0)
+        {
+            return null;
+        }
+
+        Frame frame = frames.get(index(sequence));
+
+        return frame != null && frame.sequence == sequence ? frame : null;
+    }
+
+    /**
+     * Adds a listener woken, in the appending thread, after every frame appended.
+     * @param listener the listener.
+     */
+    public void addListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     * @param listener the listener.
+     */
+    public void removeListener(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the number of listeners following the stream.
+     */
+    public int getListenerCount()
+    {
+        return listeners.size();
+    }
+
+    /**
+     * @return the slot of a sequence.
+     */
+    private int index(long sequence)
+    {
+        return (int) (sequence % frames.length());
+    }
+
+    /**
+     * An event, encoded as a server-sent event frame.
+     */
+    public static class Frame
+    {
+        /**
+         * The sequence of the event, its id.
+         */
+        private final long sequence;
+
+        /**
+         * The encoded frame.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Encodes an event.
+         * @param sequence the sequence of the event.
+         * @param event the name of the event.
+         * @param data the data of the event, on a single line.
+         */
+        Frame(long sequence, String event, String data)
+        {
+            this.sequence = sequence;
+            this.bytes = ("id: " + sequence + "\nevent: " + event + "\ndata: " + data + "\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the sequence of the event.
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * @return the encoded frame, shared by all subscribers and not to be modified.
+         */
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+    }
+}
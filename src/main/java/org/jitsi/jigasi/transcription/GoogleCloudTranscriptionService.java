@@ -306,6 +306,12 @@ public class GoogleCloudTranscriptionService
         }
     }
 
+    @Override
+    public TranscriptionBackend getBackend()
+    {
+        return TranscriptionBackend.GOOGLE;
+    }
+
     /**
      * Sends audio as an array of bytes to speech-to-text API of google cloud
      *
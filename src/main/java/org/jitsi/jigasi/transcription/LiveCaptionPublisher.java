@@ -0,0 +1,207 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.*;
+import org.jitsi.service.configuration.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Publishes the transcription and translation results of the rooms to
+ * their {@link CaptionStream}, followed through the transcript server.
+ * A stream is created with the first result of a room and ends when its
+ * transcription ends. Results arriving after that, as the last audio sent
+ * is transcribed, are dropped rather than starting another stream.
+ *
+ * Like the transcript files, a stream is served under a hard to guess id
+ * rather than the jid of its room, and its url is sent to the room when the
+ * stream is created.
+ */
+public class LiveCaptionPublisher
+    implements TranscriptionResultPublisher,
+               TranscriptionEventListener
+{
+    /**
+     * The property for the number of latest events kept per room, which
+     * subscribers can resume from.
+     */
+    public final static String P_NAME_LIVE_CAPTIONS_BUFFER_SIZE
+        = "org.jitsi.jigasi.transcription.LIVE_CAPTIONS_BUFFER_SIZE";
+
+    /**
+     * The default number of latest events kept per room.
+     */
+    private final static int DEFAULT_BUFFER_SIZE = 512;
+
+    /**
+     * The captions of the rooms being transcribed, by room jid.
+     */
+    private static final Map<String, RoomCaptions> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * The streams of the rooms being transcribed, by id.
+     */
+    private static final Map<String, CaptionStream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the live captions of a room.
+     * @param id the id of the stream of the room, sent to the room.
+     * @return the stream, or null when no room being transcribed has this id.
+     */
+    public static CaptionStream getStream(String id)
+    {
+        return streams.get(id);
+    }
+
+    @Override
+    public void publish(JvbConference jvbConference, TranscriptionResult result)
+    {
+        CaptionStream stream = getOrCreateStream(jvbConference, result.getParticipant().getTranscriber());
+        if (stream != null)
+        {
+            stream.append(CaptionStream.EVENT_TRANSCRIPTION,
+                LocalJsonTranscriptHandler.createTranscriptionJSONObject(result).toJSONString());
+        }
+    }
+
+    @Override
+    public void publish(JvbConference jvbConference, TranslationResult result)
+    {
+        CaptionStream stream = getOrCreateStream(
+            jvbConference, result.getTranscriptionResult().getParticipant().getTranscriber());
+        if (stream != null)
+        {
+            stream.append(CaptionStream.EVENT_TRANSLATION,
+                LocalJsonTranscriptHandler.createTranslationJSONObject(result).toJSONString());
+        }
+    }
+
+    @Override
+    public void notify(Transcriber transcriber, TranscriptEvent event)
+    {
+        if (event.getEvent() != Transcript.TranscriptEventType.END)
+        {
+            return;
+        }
+
+        String room = getRoom(transcriber);
+        RoomCaptions captions = room == null ? null : rooms.remove(room);
+        if (captions != null)
+        {
+            streams.remove(captions.id);
+            captions.stream.end();
+        }
+    }
+
+    /**
+     * Gets the stream of the room of a transcriber, creating it on the first
+     * result while the transcriber is transcribing and sending its url to the
+     * room.
+     */
+    private static CaptionStream getOrCreateStream(JvbConference jvbConference, Transcriber transcriber)
+    {
+        String room = getRoom(transcriber);
+        if (room == null)
+        {
+            return null;
+        }
+
+        // the transcriber stops transcribing before notifying the end, which
+        // removes the stream: a stream created here is either removed then or
+        // not created at all
+        RoomCaptions captions = rooms.computeIfAbsent(room, r ->
+        {
+            if (!transcriber.isTranscribing())
+            {
+                return null;
+            }
+
+            RoomCaptions created = new RoomCaptions();
+            streams.put(created.id, created.stream);
+            return created;
+        });
+        if (captions == null)
+        {
+            return null;
+        }
+
+        if (jvbConference != null && captions.advertised.compareAndSet(false, true))
+        {
+            jvbConference.sendMessageToRoom(String.format("Live captions are streamed at %s/captions/%s%n",
+                getBaseURL(), captions.id));
+        }
+
+        return captions.stream;
+    }
+
+    /**
+     * @return the jid of the room of a transcriber, null if unknown.
+     */
+    private static String getRoom(Transcriber transcriber)
+    {
+        CallContext context = transcriber == null ? null : transcriber.getCallContext();
+
+        return context == null || context.getRoomJid() == null ? null : context.getRoomJid().toString();
+    }
+
+    /**
+     * @return the base url of the transcript server, as advertised for the
+     * transcript files.
+     */
+    private static String getBaseURL()
+    {
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+        return cfg == null
+            ? AbstractTranscriptPublisher.TRANSCRIPT_BASE_URL_DEFAULT_VALUE
+            : cfg.getString(AbstractTranscriptPublisher.P_NAME_TRANSCRIPT_BASE_URL,
+                AbstractTranscriptPublisher.TRANSCRIPT_BASE_URL_DEFAULT_VALUE);
+    }
+
+    /**
+     * @return the number of latest events kept per room.
+     */
+    private static int getBufferSize()
+    {
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+        return cfg == null ? DEFAULT_BUFFER_SIZE : cfg.getInt(P_NAME_LIVE_CAPTIONS_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * The stream of a room and its id.
+     */
+    private static class RoomCaptions
+    {
+        /**
+         * The id of the stream, hard to guess.
+         */
+        private final String id = AbstractTranscriptPublisher.generateHardToGuessTimeString("captions", "");
+
+        /**
+         * The stream.
+         */
+        private final CaptionStream stream = new CaptionStream(getBufferSize());
+
+        /**
+         * Whether the url of the stream was sent to the room.
+         */
+        private final AtomicBoolean advertised = new AtomicBoolean();
+    }
+}
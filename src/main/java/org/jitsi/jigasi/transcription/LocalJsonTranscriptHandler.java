@@ -264,7 +264,7 @@ public class LocalJsonTranscriptHandler
      * @return json object representing the <tt>TranslationResult</tt>.
      */
     @SuppressWarnings("unchecked")
-    private static JSONObject createTranslationJSONObject(
+    public static JSONObject createTranslationJSONObject(
         TranslationResult result)
     {
         JSONObject eventObject = new JSONObject();
@@ -0,0 +1,170 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import javax.media.*;
+
+/**
+ * The whole room transcribed as one stream, for the lecture-like rooms where
+ * hundreds of participants are mostly silent: the audio of every ssrc is
+ * mixed into one frame per mixing cycle and sent on a single stream, rather
+ * than a stream per participant.
+ *
+ * A result is attributed to the participant which spoke the most since the
+ * previous final result, from the {@link SpeakerTimeline} of the room, so
+ * the speaker of a sentence is found while two participants talking over
+ * each other are not told apart.
+ */
+class MixedRoomParticipant
+    extends Participant
+{
+    /**
+     * The identifier of the stream of the room.
+     */
+    static final String IDENTIFIER = "mixed-room";
+
+    /**
+     * The maximum number of ssrcs mixed in a frame.
+     */
+    private static final int MAX_SSRCS = 64;
+
+    /**
+     * The sum of the samples of the frame being mixed.
+     */
+    private int[] mix = new int[0];
+
+    /**
+     * The ssrcs mixed in the frame, a ssrc coming again starts the next frame.
+     */
+    private final long[] mixedSsrcs = new long[MAX_SSRCS];
+
+    /**
+     * The number of ssrcs mixed in the frame.
+     */
+    private int mixedCount;
+
+    /**
+     * The format of the audio.
+     */
+    private Format format;
+
+    /**
+     * When the last final result was received, the start of the sentence
+     * of the next result, in milliseconds since the epoch.
+     */
+    private volatile long lastFinalMillis;
+
+    /**
+     * Creates the stream of a room.
+     * @param transcriber the transcriber of the room.
+     * @param filterAudio whether silence is filtered out.
+     */
+    MixedRoomParticipant(Transcriber transcriber, boolean filterAudio)
+    {
+        super(transcriber, IDENTIFIER, filterAudio);
+    }
+
+    /**
+     * Mixes audio of a participant in the frame, called on the mixing
+     * thread. The mixing cycle gives the audio of every ssrc once, so the
+     * frame is sent when one of its ssrcs comes again.
+     *
+     * @param ssrc the ssrc of the audio.
+     * @param buffer the audio, 16 bits little endian.
+     */
+    void mix(long ssrc, Buffer buffer)
+    {
+        byte[] audio = (byte[]) buffer.getData();
+        int samples = audio.length / 2;
+
+        if (mixedCount > 0 && (samples != mix.length || mixedCount == MAX_SSRCS || isMixed(ssrc)))
+        {
+            flush();
+        }
+        if (samples != mix.length)
+        {
+            mix = new int[samples];
+        }
+        if (format == null)
+        {
+            format = buffer.getFormat();
+        }
+
+        for (int i = 0; i < samples; i++)
+        {
+            mix[i] += (short) ((audio[2 * i] & 0xff) | (audio[2 * i + 1] << 8));
+        }
+        mixedSsrcs[mixedCount++] = ssrc;
+    }
+
+    /**
+     * @return whether the ssrc is mixed in the frame.
+     */
+    private boolean isMixed(long ssrc)
+    {
+        for (int i = 0; i < mixedCount; i++)
+        {
+            if (mixedSsrcs[i] == ssrc)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sends the frame being mixed and starts the next one.
+     */
+    private void flush()
+    {
+        byte[] audio = new byte[mix.length * 2];
+        for (int i = 0; i < mix.length; i++)
+        {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            audio[2 * i] = (byte) sample;
+            audio[2 * i + 1] = (byte) (sample >> 8);
+            mix[i] = 0;
+        }
+        mixedCount = 0;
+
+        Buffer frame = new Buffer();
+        frame.setData(audio);
+        frame.setLength(audio.length);
+        frame.setFormat(format);
+        giveBuffer(frame);
+    }
+
+    /**
+     * Attributes the result to the participant speaking the most, or to
+     * the room when it is unknown.
+     */
+    @Override
+    public void notify(TranscriptionResult result)
+    {
+        long now = System.currentTimeMillis();
+        Participant speaker = getTranscriber().getDominantSpeaker(lastFinalMillis, now);
+        if (!result.isInterim())
+        {
+            lastFinalMillis = now;
+        }
+
+        result.setParticipant(speaker != null ? speaker : this);
+        getTranscriber().notify(result);
+    }
+}
@@ -199,6 +199,12 @@ public class OracleTranscriptionService
         return isConfiguredProperly;
     }
 
+    @Override
+    public TranscriptionBackend getBackend()
+    {
+        return TranscriptionBackend.ORACLE;
+    }
+
 
     public class OracleStreamingSession implements StreamingRecognitionSession, OracleRealtimeClientListener
     {
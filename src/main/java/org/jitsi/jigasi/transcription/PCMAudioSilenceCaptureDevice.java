@@ -19,7 +19,6 @@ package org.jitsi.jigasi.transcription;
 
 import org.jitsi.impl.neomedia.codec.*;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.*;
-import org.jitsi.impl.neomedia.jmfext.media.renderer.audio.*;
 
 import javax.media.*;
 import javax.media.control.*;
@@ -43,13 +42,6 @@ public class PCMAudioSilenceCaptureDevice
         extends AbstractPushBufferCaptureDevice
 {
 
-    /**
-     * The interval of time in milliseconds between two consecutive ticks of the
-     * clock used by <tt>AudioSilenceCaptureDevice</tt> and, more specifically,
-     * <tt>AudioSilenceStream</tt>.
-     */
-    private static final long CLOCK_TICK_INTERVAL = 20;
-
     /**
      * The list of <tt>Format</tt>s supported by the
      * <tt>AudioSilenceCaptureDevice</tt> instances.
@@ -123,23 +115,18 @@ public class PCMAudioSilenceCaptureDevice
 
     /**
      * Implements a <tt>PushBufferStream</tt> which provides silence in the form
-     * of audio media.
+     * of audio media, every 20ms of the {@link SilenceClock} shared by the
+     * streams.
      */
     private static class AudioSilenceStream
             extends AbstractPushBufferStream<PCMAudioSilenceCaptureDevice>
-            implements Runnable
     {
         /**
-         * The indicator which determines whether {@link #start()} has been
-         * invoked on this instance without an intervening {@link #stop()}.
-         */
-        private boolean started;
-
-        /**
-         * The <tt>Thread</tt> which pushes available media data out of this
-         * instance to its consumer i.e. <tt>BufferTransferHandler</tt>.
+         * The ticks of the {@link SilenceClock} which push available media
+         * data out of this instance to its consumer i.e.
+         * <tt>BufferTransferHandler</tt>, null while stopped.
          */
-        private Thread thread;
+        private SilenceClock.Registration registration;
 
         /**
          * The flag which determines whether this {@code AudioSilenceStream}
@@ -211,118 +198,17 @@ public class PCMAudioSilenceCaptureDevice
         }
 
         /**
-         * Runs in {@link #thread} and pushes available media data out of this
-         * instance to its consumer i.e. <tt>BufferTransferHandler</tt>.
+         * Runs on a tick of the {@link SilenceClock} and pushes available
+         * media data out of this instance to its consumer i.e.
+         * <tt>BufferTransferHandler</tt>.
          */
-        @Override
-        public void run()
+        private void transfer()
         {
-            try
-            {
-                /*
-                 * Make sure that the current thread which implements the actual
-                 * ticking of the clock implemented by this instance uses a
-                 * thread priority considered appropriate for audio processing.
-                 */
-                AbstractAudioRenderer.useAudioThreadPriority();
-
-                /*
-                 * The method implements a clock which ticks at a certain and
-                 * regular interval of time which is not affected by the
-                 * duration of the execution of, for example, the invocation of
-                 * BufferTransferHandler.transferData(PushBufferStream).
-                 *
-                 * XXX The implementation utilizes System.currentTimeMillis()
-                 * and, consequently, may be broken by run-time adjustments to
-                 * the system time.
-                 */
-                long tickTime = System.currentTimeMillis();
-
-                while (true)
-                {
-                    long sleepInterval = tickTime - System.currentTimeMillis();
-                    boolean tick = (sleepInterval <= 0);
-
-                    if (tick)
-                    {
-                        /*
-                         * The current thread has woken up just in time or too
-                         * late for the next scheduled clock tick and,
-                         * consequently, the clock should tick right now.
-                         */
-                        tickTime += CLOCK_TICK_INTERVAL;
-                    }
-                    else
-                    {
-                        /*
-                         * The current thread has woken up too early for the
-                         * next scheduled clock tick and, consequently, it
-                         * should sleep until the time of the next scheduled
-                         * clock tick comes.
-                         */
-                        try
-                        {
-                            Thread.sleep(sleepInterval);
-                        }
-                        catch (InterruptedException ie)
-                        {
-                        }
-                        /*
-                         * The clock will not tick and spurious wakeups will be
-                         * handled. However, the current thread will first check
-                         * whether it is still utilized by this
-                         * AudioSilenceStream in order to not delay stop
-                         * requests.
-                         */
-                    }
+            BufferTransferHandler transferHandler = this.transferHandler;
 
-                    synchronized (this)
-                    {
-                        /*
-                         * If the current Thread is no longer utilized by this
-                         * AudioSilenceStream, it no longer has the right to
-                         * touch it. If this AudioSilenceStream has been
-                         * stopped, the current Thread should stop as well.
-                         */
-                        if ((thread != Thread.currentThread()) || !started)
-                            break;
-                    }
-
-                    if (tick)
-                    {
-                        BufferTransferHandler transferHandler
-                                = this.transferHandler;
-
-                        if (transferHandler != null)
-                        {
-                            try
-                            {
-                                transferHandler.transferData(this);
-                            }
-                            catch (Throwable t)
-                            {
-                                if (t instanceof ThreadDeath)
-                                    throw (ThreadDeath) t;
-                                else
-                                {
-                                    // TODO Auto-generated method stub
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            finally
+            if (transferHandler != null)
             {
-                synchronized (this)
-                {
-                    if (thread == Thread.currentThread())
-                    {
-                        thread = null;
-                        started = false;
-                        notifyAll();
-                    }
-                }
+                transferHandler.transferData(this);
             }
         }
 
@@ -336,62 +222,34 @@ public class PCMAudioSilenceCaptureDevice
         public synchronized void start()
                 throws IOException
         {
-            if (thread == null)
+            if (registration == null)
             {
-                String className = getClass().getName();
-
-                thread = new Thread(this, className);
-                thread.setDaemon(true);
-
-                boolean started = false;
-
-                try
-                {
-                    thread.start();
-                    started = true;
-                }
-                finally
-                {
-                    this.started = started;
-                    if (!started)
-                    {
-                        thread = null;
-                        notifyAll();
-
-                        throw new IOException("Failed to start " + className);
-                    }
-                }
+                registration = SilenceClock.INSTANCE.register(this::transfer);
             }
         }
 
         /**
-         * Stops the transfer of media data from this instance.
+         * Stops the transfer of media data from this instance, once the
+         * transfer in progress is done.
          *
          * @throws IOException if an error has prevented the stopping of the
          * transfer of media from this instance
          */
         @Override
-        public synchronized void stop()
+        public void stop()
                 throws IOException
         {
-            this.started = false;
-            notifyAll();
-
-            boolean interrupted = false;
+            SilenceClock.Registration stopped;
+            synchronized (this)
+            {
+                stopped = registration;
+                registration = null;
+            }
 
-            while (thread != null)
+            if (stopped != null)
             {
-                try
-                {
-                    wait();
-                }
-                catch (InterruptedException ie)
-                {
-                    interrupted = true;
-                }
+                stopped.cancel();
             }
-            if (interrupted)
-                Thread.currentThread().interrupt();
         }
     }
 }
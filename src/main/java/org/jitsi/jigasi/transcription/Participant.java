@@ -20,11 +20,11 @@ package org.jitsi.jigasi.transcription;
 import net.java.sip.communicator.impl.protocol.jabber.*;
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.util.CallTimers;
 import org.jitsi.jigasi.util.Util;
 import org.jitsi.xmpp.extensions.jitsimeet.*;
 import org.jitsi.utils.logging2.*;
 import org.jivesoftware.smack.packet.*;
-import org.jitsi.jigasi.stats.*;
 
 import javax.media.format.*;
 import java.nio.Buffer;
@@ -33,6 +33,7 @@ import java.nio.BufferOverflowException;
 import java.nio.ReadOnlyBufferException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * This class describes a participant in a conference whose
@@ -43,7 +44,8 @@ import java.util.concurrent.*;
  * @author Boris Grozev
  */
 public class Participant
-    implements TranscriptionListener
+    implements TranscriptionListener,
+               SttStreamQuota.Holder
 {
     /**
      * The logger of this class
@@ -59,6 +61,11 @@ public class Participant
      * Base delay between STT connection retry attempts (in milliseconds)
      */
     private static final long STT_RETRY_BASE_DELAY_MS = 5000;
+
+    /**
+     * How often a participant speaking without a stream slot asks for one again.
+     */
+    private static final long QUOTA_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
     
     /**
      * Current retry attempt counter for STT connection
@@ -160,9 +167,12 @@ public class Participant
     private ConferenceMember confMember;
 
     /**
-     * The streaming session which will constantly receive audio
+     * The streaming session which will constantly receive audio. Concurrent,
+     * as the sessions are created in {@link Transcriber#executorService} and
+     * read on the audio thread and when the streams are counted.
      */
-    private HashMap<String, TranscriptionService.StreamingRecognitionSession> sessions = new HashMap<>();
+    private final Map<String, TranscriptionService.StreamingRecognitionSession> sessions
+        = new ConcurrentHashMap<>();
 
     /**
      * A buffer which is used to locally store audio before sending
@@ -201,8 +211,6 @@ public class Participant
      */
     private SilenceFilter silenceFilter = null;
 
-    private String transcriptionServiceName;
-
     private CallContext context;
 
     /**
@@ -210,6 +218,28 @@ public class Participant
      */
     private String statsId;
 
+    /**
+     * Detects the speech of this participant on the mixing thread, for the
+     * stream quotas and the suspension of the silent streams, apart from the
+     * {@link #silenceFilter} which filters the audio sent.
+     */
+    private final SilenceFilter speechDetector = new SilenceFilter();
+
+    /**
+     * When this participant last spoke, from {@link System#nanoTime()}.
+     */
+    private volatile long lastSpeechNanos = System.nanoTime();
+
+    /**
+     * When this participant last asked for a stream slot, from {@link System#nanoTime()}.
+     */
+    private long lastQuotaAttemptNanos = System.nanoTime() - QUOTA_RETRY_NANOS;
+
+    /**
+     * Whether the stream of this participant is suspended, till it speaks.
+     */
+    private final AtomicBoolean suspended = new AtomicBoolean();
+
     /**
      * Create a participant with a given name and audio stream
      *
@@ -222,7 +252,6 @@ public class Participant
         this.context = transcriber.getCallContext();
         this.logger = context.getLogger().createChildLogger(Participant.class.getName());
         this.identifier = identifier;
-        this.transcriptionServiceName = transcriber.getTranscriptionService().getClass().getSimpleName();
 
         if (filterAudio)
         {
@@ -395,13 +424,14 @@ public class Participant
      * Get the key to access the transcription session when language
      * routing is supported
      *
-     * @return the key of the Hashmap
+     * @return the key of the map of the sessions, never null
      */
     public String getLanguageKey()
     {
         if (transcriber.getTranscriptionService().supportsLanguageRouting())
         {
-            return this.getSourceLanguage();
+            String language = this.getSourceLanguage();
+            return language == null ? "" : language;
         }
         return "global";
     }
@@ -621,71 +651,106 @@ public class Participant
      * Creates a streaming session with retry logic and exponential backoff.
      * Retries up to MAX_STT_RETRY_ATTEMPTS times with increasing delays.
      * Uses connection flags to prevent duplicate attempts.
+     *
+     * This is called on the thread mixing the audio, shared by the rooms, so
+     * the attempts run in {@link Transcriber#executorService}, before the
+     * audio given after them, and the delays between them on
+     * {@link CallTimers}, never blocking the caller.
      */
     private void createStreamingSessionWithRetry(String languageKey)
     {
         // Set connecting flag and timestamp
         isConnecting = true;
         lastConnectionAttempt = System.currentTimeMillis();
-        
+
+        executeStreamingSessionAttempt(languageKey, 1);
+    }
+
+    /**
+     * Queues an attempt to create a streaming session in
+     * {@link Transcriber#executorService}.
+     * @param languageKey the language of the session.
+     * @param attempt the number of the attempt, starting from 1.
+     */
+    private void executeStreamingSessionAttempt(String languageKey, int attempt)
+    {
+        try
+        {
+            transcriber.executorService.execute(() -> createStreamingSession(languageKey, attempt));
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the transcriber stopped
+            isConnecting = false;
+        }
+    }
+
+    /**
+     * Tries to create a streaming session, scheduling the next attempt on
+     * failure.
+     * @param languageKey the language of the session.
+     * @param attempt the number of the attempt, starting from 1.
+     */
+    private void createStreamingSession(String languageKey, int attempt)
+    {
         try
         {
-            for (int attempt = 1; attempt <= MAX_STT_RETRY_ATTEMPTS; attempt++)
+            if (logger.isDebugEnabled()) {
+                logger.debug("Creating STT connection for participant " + identifier +
+                           " (attempt " + attempt + "/" + MAX_STT_RETRY_ATTEMPTS + ")");
+            }
+
+            TranscriptionService.StreamingRecognitionSession session =
+                transcriber.getTranscriptionService().initStreamingSession(this);
+            session.addTranscriptionListener(this);
+            sessions.put(languageKey, session);
+            isCompleted = false;
+            sttRetryCount = 0; // Reset retry counter on success
+            isConnecting = false;
+
+            logger.info("STT connection successfully created for participant " + identifier +
+                       " after " + attempt + " attempt(s)");
+        }
+        catch (Exception e)
+        {
+            sttRetryCount = attempt;
+
+            if (attempt == MAX_STT_RETRY_ATTEMPTS)
             {
-                try
-                {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Creating STT connection for participant " + identifier + 
-                                   " (attempt " + attempt + "/" + MAX_STT_RETRY_ATTEMPTS + ")");
-                    }
-                    
-                    TranscriptionService.StreamingRecognitionSession session = 
-                        transcriber.getTranscriptionService().initStreamingSession(this);
-                    session.addTranscriptionListener(this);
-                    sessions.put(languageKey, session);
-                    isCompleted = false;
-                    sttRetryCount = 0; // Reset retry counter on success
-                    
-                    logger.info("STT connection successfully created for participant " + identifier + 
-                               " after " + attempt + " attempt(s)");
-                    return; // Success - exit retry loop
-                }
-                catch (Exception e)
-                {
-                    sttRetryCount = attempt;
-                    
-                    if (attempt == MAX_STT_RETRY_ATTEMPTS)
-                    {
-                        logger.error("Failed to create STT streaming session for participant " + identifier + 
-                                   " after " + MAX_STT_RETRY_ATTEMPTS + " attempts. Giving up.", e);
-                        return; // Give up after max attempts
-                    }
-                    
-                    // Calculate exponential backoff delay
-                    long delayMs = STT_RETRY_BASE_DELAY_MS * (1L << (attempt - 1)); // 1s, 2s, 4s
-                    
-                    logger.warn("STT connection failed for participant " + identifier + 
-                               " (attempt " + attempt + "/" + MAX_STT_RETRY_ATTEMPTS + 
-                               "). Retrying in " + delayMs + "ms. Error: " + e.getMessage());
-                    
-                    try
-                    {
-                        Thread.sleep(delayMs);
-                    }
-                    catch (InterruptedException ie)
-                    {
-                        logger.warn("STT retry sleep interrupted for participant " + identifier);
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
-                }
+                logger.error("Failed to create STT streaming session for participant " + identifier +
+                           " after " + MAX_STT_RETRY_ATTEMPTS + " attempts. Giving up.", e);
+                isConnecting = false;
+                return; // Give up after max attempts
             }
+
+            // Calculate exponential backoff delay
+            long delayMs = STT_RETRY_BASE_DELAY_MS * (1L << (attempt - 1)); // 5s, 10s
+
+            logger.warn("STT connection failed for participant " + identifier +
+                       " (attempt " + attempt + "/" + MAX_STT_RETRY_ATTEMPTS +
+                       "). Retrying in " + delayMs + "ms. Error: " + e.getMessage());
+
+            CallTimers.schedule(
+                () -> executeStreamingSessionAttempt(languageKey, attempt + 1), delayMs, TimeUnit.MILLISECONDS);
         }
-        finally
+    }
+
+    /**
+     * @return the number of streaming sessions of this participant which
+     * did not end.
+     */
+    public int getActiveStreamCount()
+    {
+        int count = 0;
+        for (TranscriptionService.StreamingRecognitionSession session : sessions.values())
         {
-            // Always reset connecting flag when done (success or failure)
-            isConnecting = false;
+            if (!session.ended())
+            {
+                count++;
+            }
         }
+
+        return count;
     }
 
     /**
@@ -694,6 +759,9 @@ public class Participant
      */
     public void left()
     {
+        transcriber.getStreamQuota().release(this);
+        suspended.set(false);
+
         TranscriptionService.StreamingRecognitionSession session = sessions.getOrDefault(getLanguageKey(), null);
         if (session != null)
         {
@@ -701,6 +769,145 @@ public class Participant
         }
     }
 
+    @Override
+    public long getLastSpeechNanos()
+    {
+        return lastSpeechNanos;
+    }
+
+    /**
+     * Ends the stream of this participant, which lost its slot to a
+     * participant speaking. It is opened again when this participant
+     * speaks and gets a slot.
+     */
+    @Override
+    public void suspendStream()
+    {
+        suspend("preempted");
+    }
+
+    /**
+     * Ends the stream of this participant after sending the audio buffered,
+     * releasing its slot. The stream is opened again when this participant
+     * speaks.
+     *
+     * @param reason why, for the logs.
+     */
+    void suspend(String reason)
+    {
+        transcriber.getStreamQuota().release(this);
+        if (!suspended.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        logger.info("Suspending the STT stream of participant " + identifier + " (" + reason + "), silent for "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSpeechNanos) + "ms");
+
+        try
+        {
+            // after the audio already queued
+            transcriber.executorService.execute(() ->
+            {
+                TranscriptionService.StreamingRecognitionSession session
+                    = sessions.getOrDefault(getLanguageKey(), null);
+                if (session != null && !session.ended())
+                {
+                    if (audioFormat != null && buffer.position() > 0)
+                    {
+                        session.sendRequest(new TranscriptionRequest(
+                            Arrays.copyOf(buffer.array(), buffer.position()), audioFormat, sourceLanguageLocale));
+                        transcriber.getUsage().addAudio(buffer.position(), audioFormat);
+                    }
+                    session.end();
+                }
+                ((Buffer) buffer).clear();
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the transcriber stopped, ending the streams
+        }
+    }
+
+    /**
+     * @return whether the stream of this participant is suspended, as it
+     * was silent, muted or lost its slot.
+     */
+    public boolean isStreamSuspended()
+    {
+        return suspended.get();
+    }
+
+    /**
+     * @return whether this participant may open a stream.
+     */
+    private boolean mayOpenStream()
+    {
+        return !suspended.get() && transcriber.getStreamQuota().allows(this);
+    }
+
+    /**
+     * Checks the stream of this participant, when the stream quotas or the
+     * suspension of the silent streams apply. A silent participant has its
+     * stream suspended and one without a stream gets one on speech, which
+     * may suspend the stream of a participant silent for a while when the
+     * slots are all taken.
+     *
+     * @param audio the audio received
+     * @return whether this participant has a stream and its audio is sent.
+     */
+    private boolean checkStreamActivity(byte[] audio)
+    {
+        SttStreamQuota quota = transcriber.getStreamQuota();
+        long suspendAfterSilenceNanos = transcriber.getSuspendAfterSilenceNanos();
+        if (!quota.isEnabled() && suspendAfterSilenceNanos <= 0 && !suspended.get())
+        {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        speechDetector.giveSegment(audio);
+        boolean speaking = !speechDetector.shouldFilter();
+        if (speaking)
+        {
+            lastSpeechNanos = now;
+        }
+
+        if (mayOpenStream())
+        {
+            if (suspendAfterSilenceNanos > 0 && !speaking && now - lastSpeechNanos > suspendAfterSilenceNanos)
+            {
+                suspend("silent");
+                return false;
+            }
+            return true;
+        }
+
+        if (!speaking || !speechDetector.newSpeech() && now - lastQuotaAttemptNanos < QUOTA_RETRY_NANOS)
+        {
+            return false;
+        }
+        lastQuotaAttemptNanos = now;
+
+        if (!quota.acquire(this, now))
+        {
+            return false;
+        }
+
+        if (suspended.compareAndSet(true, false))
+        {
+            // open the stream now rather than after the retry interval
+            lastConnectionAttempt = 0;
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Resuming the STT stream of participant " + identifier + " on speech");
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Give a packet of the audio of this participant such that it can be
      * buffered and sent to the transcription once enough has been stored
@@ -721,11 +928,17 @@ public class Participant
             audioFormat = (AudioFormat) buffer.getFormat();
         }
 
+        byte[] audio = (byte[]) buffer.getData();
+
+        // without a stream the audio is dropped till this participant speaks
+        if (!checkStreamActivity(audio))
+        {
+            return;
+        }
+
         // Lazy connection: Create STT session only when first audio data arrives
         ensureStreamingSessionExists();
 
-        byte[] audio = (byte[]) buffer.getData();
-
         if (USE_LOCAL_BUFFER)
         {
             buffer(audio);
@@ -825,35 +1038,6 @@ public class Participant
            });
     }
 
-    private void incrementSentStats(int byteCount)
-    {
-        int divider = EXPECTED_AUDIO_LENGTH;
-
-        if (transcriptionServiceName.equals("WhisperTranscriptionService")
-                || transcriptionServiceName.equals("OracleTranscriptionService"))
-        {
-            // the byte count for each 20ms packet if the audio format is 16kHz mono
-            divider = 640;
-        }
-
-        long millis = byteCount / divider * 20;
-
-        switch (transcriptionServiceName) {
-            case "WhisperTranscriptionService":
-                Statistics.incrementTotalTranscriberWhisperMillis(millis);
-                break;
-            case "OracleTranscriptionService":
-                Statistics.incrementTotalTranscriberOracleMillis(millis);
-                break;
-            case "VoskTranscriptionService":
-                Statistics.incrementTotalTranscriberVoskMillis(millis);
-                break;
-            case "GoogleCloudTranscriptionService":
-                Statistics.incrementTotalTranscriberGoogleMillis(millis);
-                break;
-        }
-    }
-
     /**
      * Send the specified audio to the TranscriptionService.
      * <p>
@@ -874,11 +1058,17 @@ public class Participant
             if (session != null && !session.ended())
             {
                 session.sendRequest(request);
-                incrementSentStats(audio.length);
+                transcriber.getUsage().addAudio(audio.length, audioFormat);
             }
             else if (transcriber.getTranscriptionService().supportsStreamRecognition())
             // re-establish prematurely ended streaming session
             {
+                if (!mayOpenStream() || isConnecting)
+                {
+                    // suspended, opened again when speaking, or a retry is scheduled
+                    return;
+                }
+
                 session = transcriber.getTranscriptionService()
                         .initStreamingSession(this);
                 session.addTranscriptionListener(this);
@@ -898,7 +1088,7 @@ public class Participant
                 transcriber.getTranscriptionService().sendSingleRequest(
                         request,
                         this::notify);
-                incrementSentStats(audio.length);
+                transcriber.getUsage().addAudio(audio.length, audioFormat);
             }
         });
     }
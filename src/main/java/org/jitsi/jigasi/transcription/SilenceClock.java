@@ -0,0 +1,308 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import io.prometheus.client.*;
+import org.jitsi.impl.neomedia.jmfext.media.renderer.audio.*;
+import org.jitsi.jigasi.metrics.*;
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Ticks the silence streams driving the audio mixers of the transcribed
+ * rooms every 20ms from a single clock thread, rather than a thread per
+ * room sleeping between its ticks.
+ *
+ * The ticks are due at fixed times from {@link System#nanoTime()}, so a
+ * late wake up does not delay the next ticks and the clock does not follow
+ * the adjustments of the system time. After a stall of more than
+ * {@link #MAX_LATE_TICKS} ticks the clock starts again from the current
+ * time rather than bursting the ticks missed.
+ *
+ * The mixing runs on a pool of a thread per processor, a stream being ticked
+ * by one thread at a time: a stream still busy with its previous tick gets
+ * the ticks missed right after it, up to {@link #MAX_LATE_TICKS}, as the
+ * thread of a stream used to catch up. When all the threads are busy, as
+ * streams block in their ticks, the pool grows rather than queuing the ticks
+ * of the other streams behind them, up to a thread per stream.
+ */
+class SilenceClock
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(SilenceClock.class);
+
+    /**
+     * The interval between two ticks.
+     */
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * The number of ticks a stream or the clock catches up at most.
+     */
+    static final int MAX_LATE_TICKS = 5;
+
+    /**
+     * The clock of the silence streams.
+     */
+    static final SilenceClock INSTANCE = new SilenceClock(TICK_NANOS, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * How late the ticks of the clock are.
+     */
+    private static final Histogram latenessMetric = JigasiMetricsContainer.INSTANCE.createHistogram(
+        "silence_clock_lateness_seconds",
+        "Time from when a tick of the clock of the audio mixers is due till it happens.",
+        0.0005, 0.001, 0.002, 0.005, 0.01, 0.02, 0.05, 0.1);
+
+    /**
+     * The interval between two ticks.
+     */
+    private final long tickNanos;
+
+    /**
+     * The threads ticking the streams.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The streams ticked.
+     */
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    /**
+     * The clock thread, null while no stream is ticked.
+     */
+    private Thread thread;
+
+    /**
+     * Creates a clock.
+     * @param tickNanos the interval between two ticks.
+     * @param threads the number of threads ticking the streams, unless they
+     * block.
+     */
+    SilenceClock(long tickNanos, int threads)
+    {
+        this.tickNanos = tickNanos;
+
+        ThreadFactory threadFactory = new CustomizableThreadFactory("silence-clock-tick", true);
+        // a stream runs a tick at a time, so the threads never outnumber the streams
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            r -> threadFactory.newThread(() ->
+            {
+                AbstractAudioRenderer.useAudioThreadPriority();
+                r.run();
+            }));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /**
+     * Ticks a stream from the next tick on.
+     * @param tick what the stream does on a tick.
+     * @return the registration, to stop the ticks.
+     */
+    synchronized Registration register(Runnable tick)
+    {
+        Registration registration = new Registration(tick);
+        registrations.add(registration);
+
+        if (thread == null)
+        {
+            thread = new Thread(this::run, "silence-clock");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        return registration;
+    }
+
+    /**
+     * Runs in {@link #thread}, ticking the streams till there are none.
+     */
+    private void run()
+    {
+        AbstractAudioRenderer.useAudioThreadPriority();
+
+        long nextTick = System.nanoTime() + tickNanos;
+        while (true)
+        {
+            long now = System.nanoTime();
+            if (now < nextTick)
+            {
+                LockSupport.parkNanos(this, nextTick - now);
+                continue;
+            }
+
+            synchronized (this)
+            {
+                if (registrations.isEmpty())
+                {
+                    thread = null;
+                    return;
+                }
+            }
+
+            long lateness = now - nextTick;
+            latenessMetric.observe(lateness / 1e9);
+            if (lateness > MAX_LATE_TICKS * tickNanos)
+            {
+                logger.warn("The silence clock is " + TimeUnit.NANOSECONDS.toMillis(lateness)
+                    + "ms late, skipping the ticks missed");
+                nextTick = now + tickNanos;
+            }
+            else
+            {
+                nextTick += tickNanos;
+            }
+
+            for (Registration registration : registrations)
+            {
+                registration.tick();
+            }
+        }
+    }
+
+    /**
+     * A stream ticked by the clock.
+     */
+    class Registration
+        implements Runnable
+    {
+        /**
+         * What the stream does on a tick.
+         */
+        private final Runnable tick;
+
+        /**
+         * The ticks due and not done yet.
+         */
+        private final AtomicInteger pendingTicks = new AtomicInteger();
+
+        /**
+         * Whether the stream is still ticked.
+         */
+        private volatile boolean active = true;
+
+        /**
+         * The thread ticking the stream, null between the ticks.
+         */
+        private Thread ticking;
+
+        Registration(Runnable tick)
+        {
+            this.tick = tick;
+        }
+
+        /**
+         * A tick is due, the stream is ticked unless busy with a previous one.
+         */
+        private void tick()
+        {
+            if (pendingTicks.getAndUpdate(pending -> Math.min(pending + 1, MAX_LATE_TICKS)) == 0)
+            {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * Ticks the stream till the ticks due are done.
+         */
+        @Override
+        public void run()
+        {
+            do
+            {
+                synchronized (this)
+                {
+                    if (!active)
+                    {
+                        pendingTicks.set(0);
+                        return;
+                    }
+                    ticking = Thread.currentThread();
+                }
+
+                try
+                {
+                    tick.run();
+                }
+                catch (Throwable t)
+                {
+                    if (t instanceof ThreadDeath)
+                    {
+                        throw (ThreadDeath) t;
+                    }
+                    logger.warn("Failed to tick a silence stream", t);
+                }
+                finally
+                {
+                    synchronized (this)
+                    {
+                        ticking = null;
+                        notifyAll();
+                    }
+                }
+            }
+            while (pendingTicks.decrementAndGet() > 0);
+        }
+
+        /**
+         * Stops the ticks of the stream, waiting for the tick in progress
+         * unless called from it.
+         */
+        void cancel()
+        {
+            synchronized (SilenceClock.this)
+            {
+                registrations.remove(this);
+            }
+
+            boolean interrupted = false;
+            synchronized (this)
+            {
+                active = false;
+                while (ticking != null && ticking != Thread.currentThread())
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import java.util.*;
+
+/**
+ * The recent speech energy of the ssrcs of a room, 20ms at a time, telling
+ * who spoke during the time range of a result transcribed from the mixed
+ * audio of the room.
+ *
+ * The timeline is a ring of frames in primitive arrays, allocated once:
+ * each frame keeps the {@link #SLOTS_PER_FRAME} loudest ssrcs heard in its
+ * 20ms, the older frames being overwritten, so the memory of a room is
+ * bounded whatever its number of participants and recording a frame of
+ * audio does not allocate.
+ */
+public class SpeakerTimeline
+{
+    /**
+     * The duration of a frame, in milliseconds.
+     */
+    static final int FRAME_MS = 20;
+
+    /**
+     * The default number of frames kept, 30 seconds.
+     */
+    static final int DEFAULT_FRAMES = 1500;
+
+    /**
+     * The number of ssrcs kept per frame, the loudest ones.
+     */
+    static final int SLOTS_PER_FRAME = 4;
+
+    /**
+     * The number of ssrcs weighed when attributing a time range.
+     */
+    private static final int MAX_CANDIDATES = 64;
+
+    /**
+     * The mean square of the 16 bits samples under which audio is silence
+     * and not recorded, a level of about -50 dBFS.
+     */
+    static final double SILENCE_ENERGY = 10_000;
+
+    /**
+     * The number of frames of the ring.
+     */
+    private final int frames;
+
+    /**
+     * The time of each frame of the ring, the milliseconds since the epoch
+     * divided by {@link #FRAME_MS}, a frame of another time being stale.
+     */
+    private final long[] frameTimes;
+
+    /**
+     * The number of ssrcs heard in each frame.
+     */
+    private final int[] counts;
+
+    /**
+     * The ssrcs heard, {@link #SLOTS_PER_FRAME} per frame.
+     */
+    private final long[] ssrcs;
+
+    /**
+     * The energy of the ssrcs heard, {@link #SLOTS_PER_FRAME} per frame.
+     */
+    private final float[] energies;
+
+    /**
+     * The ssrcs weighed by the last attribution.
+     */
+    private final long[] candidateSsrcs = new long[MAX_CANDIDATES];
+
+    /**
+     * The energy of the ssrcs weighed by the last attribution.
+     */
+    private final double[] candidateEnergies = new double[MAX_CANDIDATES];
+
+    /**
+     * Creates a timeline.
+     * @param frames the number of 20ms frames kept.
+     */
+    public SpeakerTimeline(int frames)
+    {
+        this.frames = frames;
+        this.frameTimes = new long[frames];
+        this.counts = new int[frames];
+        this.ssrcs = new long[frames * SLOTS_PER_FRAME];
+        this.energies = new float[frames * SLOTS_PER_FRAME];
+
+        Arrays.fill(frameTimes, -1);
+    }
+
+    /**
+     * Records the energy of a packet of audio, called on the mixing thread.
+     * @param ssrc the ssrc of the audio.
+     * @param audio the audio, 16 bits little endian.
+     * @param nowMillis the time the audio is received, in milliseconds since the epoch.
+     */
+    public void record(long ssrc, byte[] audio, long nowMillis)
+    {
+        int samples = audio.length / 2;
+        if (samples == 0)
+        {
+            return;
+        }
+
+        long sum = 0;
+        for (int i = 0; i < samples; i++)
+        {
+            int sample = (short) ((audio[2 * i] & 0xff) | (audio[2 * i + 1] << 8));
+            sum += (long) sample * sample;
+        }
+
+        record(ssrc, (double) sum / samples, nowMillis);
+    }
+
+    /**
+     * Records the energy of a ssrc.
+     * @param ssrc the ssrc.
+     * @param energy the mean square of its samples.
+     * @param nowMillis the time of the audio, in milliseconds since the epoch.
+     */
+    synchronized void record(long ssrc, double energy, long nowMillis)
+    {
+        if (energy < SILENCE_ENERGY)
+        {
+            return;
+        }
+
+        long time = nowMillis / FRAME_MS;
+        int frame = (int) (time % frames);
+        if (frameTimes[frame] != time)
+        {
+            frameTimes[frame] = time;
+            counts[frame] = 0;
+        }
+
+        int base = frame * SLOTS_PER_FRAME;
+        int count = counts[frame];
+        int quietest = base;
+        for (int i = base; i < base + count; i++)
+        {
+            if (ssrcs[i] == ssrc)
+            {
+                energies[i] += (float) energy;
+                return;
+            }
+            if (energies[i] < energies[quietest])
+            {
+                quietest = i;
+            }
+        }
+
+        if (count < SLOTS_PER_FRAME)
+        {
+            ssrcs[base + count] = ssrc;
+            energies[base + count] = (float) energy;
+            counts[frame] = count + 1;
+        }
+        else if (energy > energies[quietest])
+        {
+            ssrcs[quietest] = ssrc;
+            energies[quietest] = (float) energy;
+        }
+    }
+
+    /**
+     * Finds the ssrc which spoke the most during a time range, the part of
+     * the range older than the timeline being ignored.
+     * @param fromMillis the start of the range, in milliseconds since the epoch.
+     * @param toMillis the end of the range, in milliseconds since the epoch.
+     * @return the ssrc, -1 when none spoke.
+     */
+    public synchronized long getDominantSsrc(long fromMillis, long toMillis)
+    {
+        long last = toMillis / FRAME_MS;
+        long first = Math.max(fromMillis / FRAME_MS, last - frames + 1);
+
+        int candidates = 0;
+        for (long time = first; time <= last; time++)
+        {
+            int frame = (int) (time % frames);
+            if (frameTimes[frame] != time)
+            {
+                continue;
+            }
+
+            int base = frame * SLOTS_PER_FRAME;
+            for (int i = base; i < base + counts[frame]; i++)
+            {
+                int candidate = 0;
+                while (candidate < candidates && candidateSsrcs[candidate] != ssrcs[i])
+                {
+                    candidate++;
+                }
+
+                if (candidate < candidates)
+                {
+                    candidateEnergies[candidate] += energies[i];
+                }
+                else if (candidates < MAX_CANDIDATES)
+                {
+                    candidateSsrcs[candidates] = ssrcs[i];
+                    candidateEnergies[candidates] = energies[i];
+                    candidates++;
+                }
+            }
+        }
+
+        long dominant = -1;
+        double maxEnergy = 0;
+        for (int i = 0; i < candidates; i++)
+        {
+            if (candidateEnergies[i] > maxEnergy)
+            {
+                maxEnergy = candidateEnergies[i];
+                dominant = candidateSsrcs[i];
+            }
+        }
+
+        return dominant;
+    }
+}
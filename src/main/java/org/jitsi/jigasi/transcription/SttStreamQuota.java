@@ -0,0 +1,319 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import io.prometheus.client.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.metrics.*;
+import org.jitsi.service.configuration.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Limits the streams open to the transcription service, per room and per
+ * node. A participant needs a slot to open a stream; when the slots are
+ * taken it gets the one of a participant that has been silent for
+ * {@link #P_NAME_PREEMPT_IDLE_MS}, which stream is suspended, the one silent
+ * the longest first and the moderators last, as a moderator's slot only
+ * goes to another moderator. A participant without a slot tries again on
+ * speech onset, so the active speakers of a huge room keep their streams
+ * while the silent attendees hold none.
+ *
+ * Without limits configured every participant gets a slot.
+ */
+public class SttStreamQuota
+{
+    /**
+     * The property for the maximum number of streams of a room, 0 for no limit.
+     */
+    public final static String P_NAME_MAX_STREAMS_PER_ROOM
+        = "org.jitsi.jigasi.transcription.MAX_STT_STREAMS_PER_ROOM";
+
+    /**
+     * The property for the maximum number of streams of the node, 0 for no limit.
+     */
+    public final static String P_NAME_MAX_STREAMS_PER_NODE
+        = "org.jitsi.jigasi.transcription.MAX_STT_STREAMS_PER_NODE";
+
+    /**
+     * The property for how long a participant is silent before its slot can
+     * be given to another, in milliseconds.
+     */
+    public final static String P_NAME_PREEMPT_IDLE_MS
+        = "org.jitsi.jigasi.transcription.STT_PREEMPT_IDLE_MS";
+
+    /**
+     * The default silence before a slot can be given to another.
+     */
+    private final static long DEFAULT_PREEMPT_IDLE_MS = 3000;
+
+    /**
+     * The slots given, taken from another participant or denied.
+     */
+    private static final Counter quotaMetric = JigasiMetricsContainer.INSTANCE.createLabeledCounter(
+        "stt_stream_quota", "Number of streams granted, preempted or denied by the quotas.", "outcome");
+
+    /**
+     * The slots of the whole node.
+     */
+    private static final Node node = new Node((int) getConfig(P_NAME_MAX_STREAMS_PER_NODE, 0));
+
+    /**
+     * A participant holding a slot.
+     */
+    interface Holder
+    {
+        /**
+         * @return whether the holder is a moderator.
+         */
+        boolean isModerator();
+
+        /**
+         * @return when the holder last spoke, from {@link System#nanoTime()}.
+         */
+        long getLastSpeechNanos();
+
+        /**
+         * Ends the stream of the holder, which lost its slot.
+         */
+        void suspendStream();
+    }
+
+    /**
+     * The slots of the node, shared by the quotas of the rooms.
+     */
+    static class Node
+    {
+        /**
+         * The maximum number of slots, 0 for no limit.
+         */
+        private final int limit;
+
+        /**
+         * The holders of the node with their room.
+         */
+        private final Map<Holder, SttStreamQuota> holders = new HashMap<>();
+
+        Node(int limit)
+        {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * The slots of the node.
+     */
+    private final Node nodeSlots;
+
+    /**
+     * The maximum number of slots of the room, 0 for no limit.
+     */
+    private final int limit;
+
+    /**
+     * How long a holder is silent before its slot can be given to another, in nanoseconds.
+     */
+    private final long preemptIdleNanos;
+
+    /**
+     * The holders of the room, guarded by {@link #nodeSlots}.
+     */
+    private final Set<Holder> holders = new HashSet<>();
+
+    /**
+     * Creates the quota of a room, with the configured limits.
+     * @return the quota.
+     */
+    static SttStreamQuota forRoom()
+    {
+        return new SttStreamQuota(
+            node,
+            (int) getConfig(P_NAME_MAX_STREAMS_PER_ROOM, 0),
+            getConfig(P_NAME_PREEMPT_IDLE_MS, DEFAULT_PREEMPT_IDLE_MS));
+    }
+
+    /**
+     * Creates the quota of a room.
+     * @param nodeSlots the slots of the node.
+     * @param limit the maximum number of slots of the room, 0 for no limit.
+     * @param preemptIdleMs how long a holder is silent before its slot can be given to another.
+     */
+    SttStreamQuota(Node nodeSlots, int limit, long preemptIdleMs)
+    {
+        this.nodeSlots = nodeSlots;
+        this.limit = limit;
+        this.preemptIdleNanos = TimeUnit.MILLISECONDS.toNanos(preemptIdleMs);
+    }
+
+    /**
+     * @return whether any limit applies, otherwise every participant holds a slot.
+     */
+    boolean isEnabled()
+    {
+        return limit > 0 || nodeSlots.limit > 0;
+    }
+
+    /**
+     * @return whether the holder may open a stream.
+     */
+    boolean allows(Holder holder)
+    {
+        if (!isEnabled())
+        {
+            return true;
+        }
+
+        synchronized (nodeSlots)
+        {
+            return holders.contains(holder);
+        }
+    }
+
+    /**
+     * Gets a slot, taking the one of a quieter participant when they are all held.
+     * @param holder the participant which starts speaking.
+     * @param nowNanos the current time, from {@link System#nanoTime()}.
+     * @return whether the participant holds a slot.
+     */
+    boolean acquire(Holder holder, long nowNanos)
+    {
+        if (!isEnabled())
+        {
+            return true;
+        }
+
+        Holder victim = null;
+        synchronized (nodeSlots)
+        {
+            if (holders.contains(holder))
+            {
+                return true;
+            }
+
+            boolean roomFull = limit > 0 && holders.size() >= limit;
+            if (roomFull || nodeSlots.limit > 0 && nodeSlots.holders.size() >= nodeSlots.limit)
+            {
+                // a slot of the room also frees one of the node
+                victim = pickVictim(roomFull ? holders : nodeSlots.holders.keySet(), holder, nowNanos);
+                if (victim == null)
+                {
+                    quotaMetric.labels("denied").inc();
+                    return false;
+                }
+
+                SttStreamQuota victimRoom = nodeSlots.holders.remove(victim);
+                if (victimRoom != null)
+                {
+                    victimRoom.holders.remove(victim);
+                }
+                quotaMetric.labels("preempted").inc();
+            }
+            else
+            {
+                quotaMetric.labels("granted").inc();
+            }
+
+            holders.add(holder);
+            nodeSlots.holders.put(holder, this);
+        }
+
+        // the stream ends outside of the lock, it may wait for the service
+        if (victim != null)
+        {
+            victim.suspendStream();
+        }
+
+        return true;
+    }
+
+    /**
+     * Frees the slot of a participant.
+     * @param holder the participant.
+     */
+    void release(Holder holder)
+    {
+        synchronized (nodeSlots)
+        {
+            holders.remove(holder);
+            nodeSlots.holders.remove(holder);
+        }
+    }
+
+    /**
+     * Frees the slots of the room.
+     */
+    void releaseAll()
+    {
+        synchronized (nodeSlots)
+        {
+            holders.forEach(nodeSlots.holders::remove);
+            holders.clear();
+        }
+    }
+
+    /**
+     * @return the number of slots held in the room.
+     */
+    int getHeldCount()
+    {
+        synchronized (nodeSlots)
+        {
+            return holders.size();
+        }
+    }
+
+    /**
+     * Chooses the holder giving its slot: one silent for long enough, a
+     * moderator only to another moderator, the other participants first and
+     * then the one silent the longest.
+     * @return the holder, null when none can give its slot.
+     */
+    private Holder pickVictim(Collection<Holder> candidates, Holder requester, long nowNanos)
+    {
+        Holder victim = null;
+        for (Holder candidate : candidates)
+        {
+            if (nowNanos - candidate.getLastSpeechNanos() < preemptIdleNanos
+                || candidate.isModerator() && !requester.isModerator())
+            {
+                continue;
+            }
+
+            if (victim == null
+                || victim.isModerator() && !candidate.isModerator()
+                || victim.isModerator() == candidate.isModerator()
+                    && candidate.getLastSpeechNanos() < victim.getLastSpeechNanos())
+            {
+                victim = candidate;
+            }
+        }
+
+        return victim;
+    }
+
+    /**
+     * @return the value of a property, or its default outside of the osgi container.
+     */
+    private static long getConfig(String property, long defaultValue)
+    {
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+
+        return cfg == null ? defaultValue : cfg.getLong(property, defaultValue);
+    }
+}
@@ -23,6 +23,7 @@ import org.jitsi.impl.neomedia.device.*;
 import org.jitsi.jigasi.*;
 import org.jitsi.jigasi.stats.*;
 import org.jitsi.jigasi.transcription.action.*;
+import org.jitsi.service.configuration.*;
 import org.jitsi.utils.logging2.*;
 import org.jitsi.utils.logging2.LoggerImpl;
 import org.jitsi.xmpp.extensions.jitsimeet.*;
@@ -72,6 +73,30 @@ public class Transcriber
      */
     public final static boolean FILTER_SILENCE_DEFAULT_VALUE = false;
 
+    /**
+     * The property name for the boolean value whether the stream of a
+     * participant to the transcription service ends when it mutes, to be
+     * opened again when it speaks.
+     */
+    public final static String P_NAME_SUSPEND_STT_ON_MUTE
+        = "org.jitsi.jigasi.transcription.SUSPEND_STT_ON_MUTE";
+
+    /**
+     * The property name for the silence after which the stream of a
+     * participant to the transcription service ends, to be opened again
+     * when it speaks, in milliseconds, 0 to keep the streams.
+     */
+    public final static String P_NAME_SUSPEND_STT_AFTER_SILENCE_MS
+        = "org.jitsi.jigasi.transcription.SUSPEND_STT_AFTER_SILENCE_MS";
+
+    /**
+     * The property name for the boolean value whether the audio of the room
+     * is mixed and transcribed as one stream, rather than a stream per
+     * participant, the results being attributed to the loudest participant.
+     */
+    public final static String P_NAME_MIXED_STREAM
+        = "org.jitsi.jigasi.transcription.MIXED_STREAM";
+
     /**
      * The states the transcriber can be in. The Transcriber
      * can only go through one cycle. So once it is started it can never
@@ -105,9 +130,10 @@ public class Transcriber
     }
 
     /**
-     * The current state of the transcribing
+     * The current state of the transcribing, read by the threads delivering
+     * the results.
      */
-    private State state = State.NOT_STARTED;
+    private volatile State state = State.NOT_STARTED;
 
     /**
      * Holds participants of the conference which need
@@ -193,6 +219,40 @@ public class Transcriber
      */
     final private CallContext context;
 
+    /**
+     * The accounting of the audio sent for transcription.
+     */
+    private final TranscriptionUsage usage;
+
+    /**
+     * The limit of the streams of the participants to the transcription service.
+     */
+    private final SttStreamQuota streamQuota = SttStreamQuota.forRoom();
+
+    /**
+     * Whether the streams of the participants end when they mute.
+     */
+    private final boolean suspendOnMute = getConfigBoolean(P_NAME_SUSPEND_STT_ON_MUTE, false);
+
+    /**
+     * The silence after which the stream of a participant ends, in
+     * nanoseconds, 0 to keep the streams.
+     */
+    private final long suspendAfterSilenceNanos
+        = TimeUnit.MILLISECONDS.toNanos(getConfigLong(P_NAME_SUSPEND_STT_AFTER_SILENCE_MS, 0));
+
+    /**
+     * The stream of the whole room when its audio is transcribed mixed,
+     * null when every participant has its stream.
+     */
+    private MixedRoomParticipant mixedStream;
+
+    /**
+     * Who spoke when in the room, attributing the results of the
+     * {@link #mixedStream}, null when every participant has its stream.
+     */
+    private SpeakerTimeline speakerTimeline;
+
     /**
      * Create a transcription object which can be used to add and remove
      * participants of a conference to a list of audio streams which will
@@ -218,8 +278,14 @@ public class Transcriber
                 "Currently only services which support streaming recognition are supported");
         }
         this.transcriptionService = service;
+        this.usage = service.createUsage(context == null ? null : context.getTenant());
         addTranscriptionListener(this.transcript);
         this.filterSilence = shouldFilterSilence();
+        if (getConfigBoolean(P_NAME_MIXED_STREAM, false))
+        {
+            this.mixedStream = new MixedRoomParticipant(this, filterSilence);
+            this.speakerTimeline = new SpeakerTimeline(SpeakerTimeline.DEFAULT_FRAMES);
+        }
 
         configureTranslationManager();
         if (isTranslationEnabled())
@@ -254,6 +320,7 @@ public class Transcriber
         this.transcriptionService = service;
         this.logger = new LoggerImpl(Transcriber.class.getName());
         this.context = null;
+        this.usage = service.createUsage(null);
         this.filterSilence = shouldFilterSilence();
         
         addTranscriptionListener(this.transcript);
@@ -467,6 +534,12 @@ public class Transcriber
         if (participant != null)
         {
             participant.setSourceLanguage(language);
+
+            // the room is transcribed in the language last requested
+            if (mixedStream != null && language != null && !language.isEmpty())
+            {
+                mixedStream.setSourceLanguage(language);
+            }
         }
     }
 
@@ -541,6 +614,30 @@ public class Transcriber
         }
     }
 
+    /**
+     * A participant muted: ends its stream after sending its audio buffer,
+     * when configured to, otherwise only sends its audio buffer.
+     *
+     * @param identifier the identifier of the participant
+     */
+    public void participantMuted(String identifier)
+    {
+        Participant participant = getParticipant(identifier);
+        if (participant == null)
+        {
+            return;
+        }
+
+        if (suspendOnMute)
+        {
+            participant.suspend("muted");
+        }
+        else
+        {
+            participant.flushBuffer();
+        }
+    }
+
 
 
     /**
@@ -583,7 +680,14 @@ public class Transcriber
                 logger.debug("transcriber is now finishing up");
 
             this.state = reason == null ? State.FINISHING_UP : State.FINISHED;
+            if (mixedStream != null)
+            {
+                mixedStream.left();
+            }
             this.executorService.shutdown();
+            this.streamQuota.releaseAll();
+
+            logger.info("Sent " + usage.getAudioMillis() + "ms of audio to " + usage.getBackend().getLabel());
 
             TranscriptEvent event = this.transcript.ended();
             fireTranscribeEvent(event);
@@ -761,6 +865,14 @@ public class Transcriber
 
         long ssrc = receiveStream.getSSRC() & 0xffffffffL;
 
+        if (mixedStream != null)
+        {
+            // the audio of the participants not known yet is mixed too
+            speakerTimeline.record(ssrc, (byte[]) buffer.getData(), System.currentTimeMillis());
+            mixedStream.mix(ssrc, buffer);
+            return;
+        }
+
         Participant p = findParticipant(ssrc);
 
         if (p != null)
@@ -803,7 +915,7 @@ public class Transcriber
      * @param ssrc the ssrc to search for
      * @return the participant with the given ssrc, or null if not present
      */
-    private Participant findParticipant(long ssrc)
+    Participant findParticipant(long ssrc)
     {
         synchronized (this.participants)
         {
@@ -1011,6 +1123,80 @@ public class Transcriber
             && !this.transcriptionService.disableSilenceFilter();
     }
 
+    /**
+     * @return the limit of the streams of the participants to the transcription service.
+     */
+    SttStreamQuota getStreamQuota()
+    {
+        return streamQuota;
+    }
+
+    /**
+     * Finds the participant which spoke the most during a time range, when
+     * the audio of the room is transcribed mixed.
+     *
+     * @param fromMillis the start of the range, in milliseconds since the epoch.
+     * @param toMillis the end of the range, in milliseconds since the epoch.
+     * @return the participant, null when none spoke or it is not known.
+     */
+    Participant getDominantSpeaker(long fromMillis, long toMillis)
+    {
+        if (speakerTimeline == null)
+        {
+            return null;
+        }
+
+        long ssrc = speakerTimeline.getDominantSsrc(fromMillis, toMillis);
+
+        return ssrc == -1 ? null : findParticipant(ssrc);
+    }
+
+    /**
+     * @return the stream of the whole room when its audio is transcribed
+     * mixed, null when every participant has its stream.
+     */
+    public Participant getMixedStream()
+    {
+        return mixedStream;
+    }
+
+    /**
+     * @return the silence after which the stream of a participant ends, in
+     * nanoseconds, 0 to keep the streams.
+     */
+    long getSuspendAfterSilenceNanos()
+    {
+        return suspendAfterSilenceNanos;
+    }
+
+    /**
+     * @return the value of a property, or its default outside of the osgi container.
+     */
+    private static boolean getConfigBoolean(String property, boolean defaultValue)
+    {
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+
+        return cfg == null ? defaultValue : cfg.getBoolean(property, defaultValue);
+    }
+
+    /**
+     * @return the value of a property, or its default outside of the osgi container.
+     */
+    private static long getConfigLong(String property, long defaultValue)
+    {
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+
+        return cfg == null ? defaultValue : cfg.getLong(property, defaultValue);
+    }
+
+    /**
+     * @return the accounting of the audio sent for transcription.
+     */
+    public TranscriptionUsage getUsage()
+    {
+        return usage;
+    }
+
     /**
      * Retrieves the current call context.
      *
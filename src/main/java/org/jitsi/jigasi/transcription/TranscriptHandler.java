@@ -60,6 +60,12 @@ public class TranscriptHandler
     public final static String P_NAME_SEND_JSON_REMOTE
         = "org.jitsi.jigasi.transcription.SEND_JSON_REMOTE_URLS";
 
+    /**
+     * Property name for streaming results live through the transcript server
+     */
+    public final static String P_NAME_LIVE_CAPTIONS
+        = "org.jitsi.jigasi.transcription.LIVE_CAPTIONS";
+
     /**
      * Whether to publish final transcripts by locally saving them in json
      * format
@@ -83,6 +89,11 @@ public class TranscriptHandler
      */
     private final static boolean SEND_TXT = false;
 
+    /**
+     * Whether to stream results live through the transcript server
+     */
+    private final static boolean LIVE_CAPTIONS = false;
+
     /**
      * The list of {@link TranscriptionResultPublisher} which will handle
      * {@link TranscriptionResult}s
@@ -123,6 +134,10 @@ public class TranscriptHandler
         {
             this.add((TranscriptionResultPublisher) txtHandler);
         }
+        if (getLiveCaptions())
+        {
+            this.add(new LiveCaptionPublisher());
+        }
         String urls;
         if ((urls = getSendJSONToRemote()) != null)
         {
@@ -267,6 +282,17 @@ public class TranscriptHandler
             .getString(P_NAME_SEND_JSON_REMOTE);
     }
 
+    /**
+     * Get whether to stream results live through the transcript server
+     *
+     * @return true if results are streamed, false otherwise
+     */
+    private boolean getLiveCaptions()
+    {
+        return JigasiBundleActivator.getConfigurationService()
+            .getBoolean(P_NAME_LIVE_CAPTIONS, LIVE_CAPTIONS);
+    }
+
     /**
      * Get whether to save transcript in JSON
      *
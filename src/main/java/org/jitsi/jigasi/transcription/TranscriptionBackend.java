@@ -0,0 +1,74 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.jitsi.jigasi.stats.*;
+
+import java.util.function.*;
+
+/**
+ * The speech-to-text backends, used to account the audio sent to each of
+ * them. A {@link TranscriptionService} reports its backend through
+ * {@link AbstractTranscriptionService#getBackend()}.
+ */
+public enum TranscriptionBackend
+{
+    GOOGLE("google", Statistics::incrementTotalTranscriberGoogleMillis),
+    ORACLE("oracle", Statistics::incrementTotalTranscriberOracleMillis),
+    WHISPER("whisper", Statistics::incrementTotalTranscriberWhisperMillis),
+    VOSK("vosk", Statistics::incrementTotalTranscriberVoskMillis),
+    OTHER("other", millis -> {});
+
+    /**
+     * The name used as a label in the metrics.
+     */
+    private final String label;
+
+    /**
+     * Adds milliseconds of audio to the legacy total of the backend.
+     */
+    private final LongConsumer totalMillis;
+
+    /**
+     * Creates a backend.
+     * @param label the name used as a label in the metrics.
+     * @param totalMillis adds milliseconds of audio to the legacy total of the backend.
+     */
+    TranscriptionBackend(String label, LongConsumer totalMillis)
+    {
+        this.label = label;
+        this.totalMillis = totalMillis;
+    }
+
+    /**
+     * @return the name used as a label in the metrics.
+     */
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /**
+     * Adds milliseconds of audio to the legacy total of the backend.
+     * @param millis the milliseconds of audio.
+     */
+    void addTotalMillis(long millis)
+    {
+        totalMillis.accept(millis);
+    }
+}
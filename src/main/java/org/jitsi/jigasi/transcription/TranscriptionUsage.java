@@ -0,0 +1,279 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import io.prometheus.client.*;
+import org.jitsi.jigasi.metrics.*;
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+
+import javax.media.format.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Accounts the audio sent to a {@link TranscriptionService} for a room. The
+ * duration is computed from the actual format of the audio and is added to
+ * the room, its tenant and the backend of the service. Recording audio only
+ * adds to <tt>LongAdder</tt>s obtained when the room started, the totals are
+ * flushed periodically to the metrics.
+ */
+public class TranscriptionUsage
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(TranscriptionUsage.class);
+
+    /**
+     * The interval in milliseconds at which the usage is flushed to the metrics.
+     */
+    private static final long FLUSH_INTERVAL_MS = 10000;
+
+    /**
+     * The tenant used for rooms without one.
+     */
+    private static final String NO_TENANT = "none";
+
+    /**
+     * The bytes per second assumed when the audio format is not known, 16 bit mono at 48kHz.
+     */
+    private static final long DEFAULT_BYTES_PER_SECOND = 96000;
+
+    /**
+     * The seconds of audio sent per backend.
+     */
+    private static final Counter backendSeconds = JigasiMetricsContainer.INSTANCE.createLabeledCounter(
+            "transcriber_audio_seconds",
+            "Seconds of audio sent for transcription, by backend.",
+            "backend");
+
+    /**
+     * The seconds of audio sent per tenant.
+     */
+    private static final Counter tenantSeconds = JigasiMetricsContainer.INSTANCE.createLabeledCounter(
+            "transcriber_tenant_audio_seconds",
+            "Seconds of audio sent for transcription, by tenant.",
+            "tenant");
+
+    /**
+     * The usage of each backend.
+     */
+    private static final Map<TranscriptionBackend, Total> backendTotals = new EnumMap<>(TranscriptionBackend.class);
+
+    /**
+     * The usage of each tenant.
+     */
+    private static final Map<String, Total> tenantTotals = new ConcurrentHashMap<>();
+
+    /**
+     * Flushes periodically the usage to the metrics.
+     */
+    private static final RecurringRunnableExecutor executor
+        = new RecurringRunnableExecutor(TranscriptionUsage.class.getName());
+
+    static
+    {
+        for (TranscriptionBackend backend : TranscriptionBackend.values())
+        {
+            backendTotals.put(backend, new Total());
+        }
+
+        executor.registerRecurringRunnable(new PeriodicRunnable(FLUSH_INTERVAL_MS)
+        {
+            @Override
+            public void run()
+            {
+                super.run();
+
+                try
+                {
+                    flush();
+                }
+                catch (Throwable t)
+                {
+                    logger.error("Error flushing transcription usage", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * The backend the audio is sent to.
+     */
+    private final TranscriptionBackend backend;
+
+    /**
+     * The microseconds of audio sent for the room.
+     */
+    private final LongAdder roomMicros = new LongAdder();
+
+    /**
+     * The microseconds of audio sent for the tenant of the room.
+     */
+    private final LongAdder tenantMicros;
+
+    /**
+     * The microseconds of audio sent to the backend.
+     */
+    private final LongAdder backendMicros;
+
+    /**
+     * Creates the usage of a room.
+     * @param backend the backend the audio is sent to.
+     * @param tenant the tenant of the room, can be <tt>null</tt>.
+     */
+    TranscriptionUsage(TranscriptionBackend backend, String tenant)
+    {
+        this.backend = backend;
+        this.backendMicros = backendTotals.get(backend).micros;
+        this.tenantMicros
+            = tenantTotals.computeIfAbsent(tenant == null || tenant.isEmpty() ? NO_TENANT : tenant, t -> new Total())
+                .micros;
+    }
+
+    /**
+     * Records audio sent for transcription.
+     * @param byteCount the number of bytes of audio.
+     * @param format the format of the audio, can be <tt>null</tt> if not known.
+     */
+    public void addAudio(int byteCount, AudioFormat format)
+    {
+        long micros = byteCount * 1_000_000L / getBytesPerSecond(format);
+
+        roomMicros.add(micros);
+        tenantMicros.add(micros);
+        backendMicros.add(micros);
+    }
+
+    /**
+     * @return the milliseconds of audio sent for the room.
+     */
+    public long getAudioMillis()
+    {
+        return roomMicros.sum() / 1000;
+    }
+
+    /**
+     * @return the backend the audio is sent to.
+     */
+    public TranscriptionBackend getBackend()
+    {
+        return backend;
+    }
+
+    /**
+     * The number of bytes in a second of audio.
+     * @param format the format of the audio.
+     * @return the bytes per second.
+     */
+    static long getBytesPerSecond(AudioFormat format)
+    {
+        if (format == null)
+        {
+            return DEFAULT_BYTES_PER_SECOND;
+        }
+
+        double sampleRate = format.getSampleRate();
+        int sampleSize = format.getSampleSizeInBits();
+        int channels = format.getChannels();
+
+        if (sampleRate <= 0 || sampleSize <= 0)
+        {
+            return DEFAULT_BYTES_PER_SECOND;
+        }
+
+        long bytesPerSecond = (long) (sampleRate * Math.max(channels, 1) * sampleSize / 8);
+
+        return bytesPerSecond > 0 ? bytesPerSecond : DEFAULT_BYTES_PER_SECOND;
+    }
+
+    /**
+     * Adds the usage since the previous flush to the metrics.
+     */
+    private static void flush()
+    {
+        backendTotals.forEach((backend, total) ->
+        {
+            long micros = total.takeDelta();
+            if (micros > 0)
+            {
+                backendSeconds.labels(backend.getLabel()).inc(micros / 1_000_000d);
+                backend.addTotalMillis(total.takeMillis(micros));
+            }
+        });
+
+        tenantTotals.forEach((tenant, total) ->
+        {
+            long micros = total.takeDelta();
+            if (micros > 0)
+            {
+                tenantSeconds.labels(tenant).inc(micros / 1_000_000d);
+            }
+        });
+    }
+
+    /**
+     * The usage of a backend or a tenant.
+     */
+    private static class Total
+    {
+        /**
+         * The microseconds of audio, added by all the rooms.
+         */
+        private final LongAdder micros = new LongAdder();
+
+        /**
+         * The microseconds already flushed, only used by the flushing thread.
+         */
+        private long flushed = 0;
+
+        /**
+         * The microseconds not yet flushed as whole milliseconds, only used by the flushing thread.
+         */
+        private long remainder = 0;
+
+        /**
+         * @return the microseconds of audio since the previous call.
+         */
+        long takeDelta()
+        {
+            long sum = micros.sum();
+            long delta = sum - flushed;
+
+            flushed = sum;
+
+            return delta;
+        }
+
+        /**
+         * Converts microseconds to whole milliseconds, keeping the rest for the next call.
+         * @param micros the microseconds.
+         * @return the milliseconds.
+         */
+        long takeMillis(long micros)
+        {
+            long total = remainder + micros;
+
+            remainder = total % 1000;
+
+            return total / 1000;
+        }
+    }
+}
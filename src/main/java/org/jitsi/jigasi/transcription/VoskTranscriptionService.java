@@ -64,8 +64,39 @@ public class VoskTranscriptionService
 
     public final static String DEFAULT_WEBSOCKET_URL = "ws://localhost:2700";
 
+    /**
+     * The config key of the number of connections to each websocket url
+     * kept open before they are needed, so the streams of the participants
+     * which start speaking open without waiting.
+     */
+    public final static String WARM_CONNECTIONS
+            = "org.jitsi.jigasi.transcription.vosk.WARM_CONNECTIONS";
+
+    public final static int DEFAULT_WARM_CONNECTIONS = 2;
+
     private final static String EOF_MESSAGE = "{\"eof\" : 1}";
 
+    /**
+     * How long an ended stream waits for its last result before it is closed.
+     */
+    private final static long END_GRACE_MS = 3000;
+
+    /**
+     * The connections to the websocket urls.
+     */
+    private final static Map<String, WarmWebSocketPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Closes the ended streams which did not get their last result.
+     */
+    private final static ScheduledExecutorService endTimer
+            = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread thread = new Thread(r, "vosk-end-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     /**
      * The config value of the websocket to the speech-to-text service.
      */
@@ -76,6 +107,11 @@ public class VoskTranscriptionService
      */
     private String websocketUrl;
 
+    /**
+     * The number of connections to each websocket url kept open.
+     */
+    private final int warmConnections;
+
     private final JSONParser jsonParser = new JSONParser();
 
     /**
@@ -112,6 +148,19 @@ public class VoskTranscriptionService
     {
         websocketUrlConfig = JigasiBundleActivator.getConfigurationService()
                 .getString(WEBSOCKET_URL, DEFAULT_WEBSOCKET_URL);
+        warmConnections = JigasiBundleActivator.getConfigurationService()
+                .getInt(WARM_CONNECTIONS, DEFAULT_WARM_CONNECTIONS);
+    }
+
+    /**
+     * Gets the connections to a websocket url.
+     */
+    private WarmWebSocketPool getPool(String url)
+        throws URISyntaxException
+    {
+        URI uri = new URI(url);
+
+        return pools.computeIfAbsent(url, key -> new WarmWebSocketPool(uri, warmConnections));
     }
 
     /**
@@ -122,6 +171,12 @@ public class VoskTranscriptionService
         return true;
     }
 
+    @Override
+    public TranscriptionBackend getBackend()
+    {
+        return TranscriptionBackend.VOSK;
+    }
+
     /**
      * If the websocket url is a JSON, language routing is supported
      */
@@ -211,11 +266,12 @@ public class VoskTranscriptionService
 
     /**
      * A Transcription session for transcribing streams, handles
-     * the lifecycle of websocket
+     * the lifecycle of websocket. Its connection is taken from the
+     * {@link WarmWebSocketPool} of the url.
      */
-    @WebSocket
     public class VoskWebsocketStreamingSession
-        implements StreamingRecognitionSession
+        implements StreamingRecognitionSession,
+                   WarmWebSocketPool.Endpoint
     {
         private Session session;
         /* The name of the participant */
@@ -233,7 +289,7 @@ public class VoskTranscriptionService
          * List of TranscriptionListeners which will be notified when a
          * result comes in
          */
-        private final List<TranscriptionListener> listeners = new ArrayList<>();
+        private final List<TranscriptionListener> listeners = new CopyOnWriteArrayList<>();
 
         /**
          *  Latest assigned UUID to a transcription result.
@@ -247,19 +303,30 @@ public class VoskTranscriptionService
         private static final long RESPONSE_TIMEOUT_MS = 10 * 60 * 1000; // 10 minutes
         private volatile long lastResponseTime = System.currentTimeMillis();
 
+        /**
+         * Whether the stream ended and waits for its last result.
+         */
+        private volatile boolean ending;
+
          VoskWebsocketStreamingSession(String debugName, Participant participant)
             throws Exception
         {
             this.debugName = debugName;
             this.participant = participant;
-            WebSocketClient ws = new WebSocketClient();
-            ws.start();
-            ws.connect(this, new URI(websocketUrl));
+            getPool(websocketUrl).connect(this);
         }
 
-        @OnWebSocketClose
+        @Override
         public void onClose(int statusCode, String reason)
         {
+            if (ending)
+            {
+                logger.debug("STT WebSocket connection closed after the end of the stream of " + debugName);
+                cleanupWebSocketSession("stream ended");
+                this.session = null;
+                return;
+            }
+
             logger.warn("STT WebSocket connection closed for participant " + debugName + 
                        ". Status: " + statusCode + ", Reason: " + (reason != null ? reason : "Unknown"));
             
@@ -280,7 +347,7 @@ public class VoskTranscriptionService
             }
         }
 
-        @OnWebSocketConnect
+        @Override
         public void onConnect(Session session)
         {
             this.session = session;
@@ -293,7 +360,7 @@ public class VoskTranscriptionService
             logger.info("STT WebSocket connection established for participant " + debugName);
         }
 
-        @OnWebSocketMessage
+        @Override
         public void onMessage(String msg)
         {
             try
@@ -354,9 +421,15 @@ public class VoskTranscriptionService
             }
         }
 
-        @OnWebSocketError
+        @Override
         public void onError(Throwable cause)
         {
+            if (ending)
+            {
+                logger.debug("STT WebSocket error after the end of the stream of " + debugName + ": " + cause);
+                return;
+            }
+
             // Log error with more context
             String errorType = cause.getClass().getSimpleName();
             String errorMessage = cause.getMessage() != null ? cause.getMessage() : "Unknown error";
@@ -537,31 +610,45 @@ public class VoskTranscriptionService
                         " due to " + reason);
         }
 
+        /**
+         * Ends the stream gracefully: the service gets the end of the audio
+         * and sends its last result before the connection closes, which is
+         * closed after {@link #END_GRACE_MS} otherwise. The stream counts as
+         * ended right away, so the participant may open another one.
+         */
         public void end()
         {
+            if (ending)
+            {
+                return;
+            }
+            ending = true;
+
+            Session endedSession = session;
             try
             {
-                if (session != null && session.isOpen()) {
-                    session.getRemote().sendString(EOF_MESSAGE);
+                if (endedSession != null && endedSession.isOpen()) {
+                    endedSession.getRemote().sendString(EOF_MESSAGE);
+                    endTimer.schedule(
+                        () -> cleanupWebSocketSession("no last result"), END_GRACE_MS, TimeUnit.MILLISECONDS);
+                    return;
                 }
             }
             catch (Exception e)
             {
                 logger.error("Error to finalize websocket connection for participant " + debugName, e);
             }
-            finally
-            {
-                // Clean up WebSocket session resources
-                cleanupWebSocketSession("session ended");
-                
-                // Mark session as null
-                this.session = null;
-            }
+
+            // Clean up WebSocket session resources
+            cleanupWebSocketSession("session ended");
+
+            // Mark session as null
+            this.session = null;
         }
 
         public boolean ended()
         {
-            return session == null || !session.isOpen();
+            return ending || session == null || !session.isOpen();
         }
     }
 
@@ -0,0 +1,423 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.eclipse.jetty.websocket.api.*;
+import org.eclipse.jetty.websocket.api.annotations.*;
+import org.eclipse.jetty.websocket.client.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.utils.logging.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Keeps websocket connections to the transcription service open before
+ * they are needed, so a stream suspended while its participant was silent
+ * or muted is opened again without waiting for the handshake when the
+ * participant speaks. A connection taken from the pool is replaced in the
+ * background. All the connections share one client, rather than one client
+ * and its threads per stream.
+ *
+ * The connections waiting in the pool are pinged, so the idle timeout of the
+ * client does not close them while the participants stay muted. A connection
+ * of the pool which closes anyway, or fails to open, is replaced after a
+ * delay doubling with every failure.
+ */
+public class WarmWebSocketPool
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(WarmWebSocketPool.class);
+
+    /**
+     * The receiver of the events of a connection.
+     */
+    public interface Endpoint
+    {
+        /**
+         * The connection is open.
+         */
+        void onConnect(Session session);
+
+        /**
+         * A text message was received.
+         */
+        void onMessage(String message);
+
+        /**
+         * The connection closed.
+         */
+        void onClose(int statusCode, String reason);
+
+        /**
+         * The connection failed.
+         */
+        void onError(Throwable cause);
+    }
+
+    /**
+     * The period of the pings of the connections waiting in the pool, less
+     * than the idle timeout of the client (30 seconds by default).
+     */
+    private static final long KEEP_ALIVE_SECONDS = 15;
+
+    /**
+     * The delay before replacing a connection of the pool after a first failure.
+     */
+    private static final long MIN_RETRY_SECONDS = 1;
+
+    /**
+     * The longest delay before replacing a connection of the pool.
+     */
+    private static final long MAX_RETRY_SECONDS = 60;
+
+    /**
+     * The client of all the connections, started with the first one.
+     */
+    private static WebSocketClient client;
+
+    /**
+     * The open connections waiting for a stream.
+     */
+    private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    /**
+     * The connections of the pool being opened.
+     */
+    private final AtomicInteger opening = new AtomicInteger();
+
+    /**
+     * The url connected to.
+     */
+    private final URI uri;
+
+    /**
+     * The number of connections kept open.
+     */
+    private final int size;
+
+    /**
+     * The connections of the pool which closed or failed to open since one
+     * last opened, doubling the delay of the next refill.
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * Whether a refill is scheduled.
+     */
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+
+    /**
+     * Creates a pool.
+     * @param uri the url connected to.
+     * @param size the number of connections kept open, 0 to connect on demand.
+     */
+    public WarmWebSocketPool(URI uri, int size)
+    {
+        this.uri = uri;
+        this.size = size;
+
+        if (size > 0)
+        {
+            // the pools are kept for the lifetime of the service
+            CallTimers.scheduleAtFixedRate(this::keepAlive, KEEP_ALIVE_SECONDS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Connects an endpoint with an open connection of the pool, or a new
+     * one when the pool has none.
+     * @param endpoint the endpoint.
+     * @throws Exception when connecting fails.
+     */
+    public void connect(Endpoint endpoint)
+        throws Exception
+    {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null)
+        {
+            if (connection.bind(endpoint))
+            {
+                refill();
+                return;
+            }
+        }
+
+        connection = new Connection(false);
+        connection.bind(endpoint);
+        getClient().connect(connection, uri);
+        refill();
+    }
+
+    /**
+     * Opens connections till the pool has its size.
+     */
+    private void refill()
+    {
+        for (int missing = size - idle.size() - opening.get(); missing > 0; missing--)
+        {
+            Connection connection = new Connection(true);
+            opening.incrementAndGet();
+            try
+            {
+                getClient().connect(connection, uri);
+            }
+            catch (Exception e)
+            {
+                connection.opened();
+                logger.warn("Failed to open a warm connection to " + uri + ": " + e);
+                scheduleRefill();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Refills the pool after a delay, doubling with every failure since a
+     * connection of the pool last opened.
+     */
+    private void scheduleRefill()
+    {
+        if (size == 0 || !refillScheduled.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        long delay = Math.min(MAX_RETRY_SECONDS, MIN_RETRY_SECONDS << Math.min(failures.getAndIncrement(), 6));
+        CallTimers.schedule(() ->
+        {
+            refillScheduled.set(false);
+            refill();
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Pings the connections waiting in the pool.
+     */
+    private void keepAlive()
+    {
+        for (Connection connection : idle)
+        {
+            connection.ping();
+        }
+    }
+
+    /**
+     * @return the number of open connections waiting for a stream.
+     */
+    public int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    /**
+     * @return the client of all the connections.
+     */
+    private static synchronized WebSocketClient getClient()
+        throws Exception
+    {
+        if (client == null)
+        {
+            WebSocketClient newClient = new WebSocketClient();
+            newClient.start();
+            client = newClient;
+        }
+
+        return client;
+    }
+
+    /**
+     * A connection, forwarding its events to its endpoint once bound and
+     * otherwise waiting in the pool.
+     */
+    @WebSocket
+    public class Connection
+    {
+        /**
+         * The endpoint, null while in the pool.
+         */
+        private Endpoint endpoint;
+
+        /**
+         * The session, once open.
+         */
+        private Session session;
+
+        /**
+         * Whether the connection closed.
+         */
+        private boolean closed;
+
+        /**
+         * Whether the connection is opened for the pool and still counted in {@link #opening}.
+         */
+        private boolean warm;
+
+        Connection(boolean warm)
+        {
+            this.warm = warm;
+        }
+
+        /**
+         * The connection opened or failed to.
+         */
+        synchronized void opened()
+        {
+            if (warm)
+            {
+                warm = false;
+                opening.decrementAndGet();
+            }
+        }
+
+        /**
+         * Pings the connection while it waits in the pool.
+         */
+        void ping()
+        {
+            Session target;
+            synchronized (this)
+            {
+                if (closed || endpoint != null || session == null)
+                {
+                    return;
+                }
+                target = session;
+            }
+
+            try
+            {
+                target.getRemote().sendPing(ByteBuffer.allocate(0));
+            }
+            catch (IOException e)
+            {
+                // it is replaced once it closes
+                logger.debug("Failed to ping a warm connection to " + uri + ": " + e);
+            }
+        }
+
+        /**
+         * Binds the connection to an endpoint.
+         * @return whether it is bound, false when it closed meanwhile.
+         */
+        synchronized boolean bind(Endpoint endpoint)
+        {
+            if (closed || this.endpoint != null)
+            {
+                return false;
+            }
+
+            if (session != null && !session.isOpen())
+            {
+                return false;
+            }
+
+            this.endpoint = endpoint;
+            if (session != null)
+            {
+                endpoint.onConnect(session);
+            }
+
+            return true;
+        }
+
+        @OnWebSocketConnect
+        public void onConnect(Session session)
+        {
+            Endpoint target;
+            synchronized (this)
+            {
+                opened();
+                this.session = session;
+                target = endpoint;
+            }
+
+            if (target != null)
+            {
+                target.onConnect(session);
+            }
+            else
+            {
+                failures.set(0);
+                idle.addLast(this);
+            }
+        }
+
+        @OnWebSocketMessage
+        public void onMessage(String message)
+        {
+            Endpoint target = getEndpoint();
+            if (target != null)
+            {
+                target.onMessage(message);
+            }
+        }
+
+        @OnWebSocketClose
+        public void onClose(int statusCode, String reason)
+        {
+            Endpoint target;
+            synchronized (this)
+            {
+                opened();
+                closed = true;
+                target = endpoint;
+            }
+
+            if (target != null)
+            {
+                target.onClose(statusCode, reason);
+            }
+            else
+            {
+                idle.remove(this);
+                scheduleRefill();
+            }
+        }
+
+        @OnWebSocketError
+        public void onError(Throwable cause)
+        {
+            opened();
+            Endpoint target = getEndpoint();
+            if (target != null)
+            {
+                target.onError(cause);
+            }
+            else
+            {
+                logger.debug("Warm connection to " + uri + " failed: " + cause);
+                scheduleRefill();
+            }
+        }
+
+        /**
+         * @return the endpoint, null while in the pool.
+         */
+        private synchronized Endpoint getEndpoint()
+        {
+            return endpoint;
+        }
+    }
+}
@@ -70,6 +70,12 @@ public class WhisperTranscriptionService
         return true;
     }
 
+    @Override
+    public TranscriptionBackend getBackend()
+    {
+        return TranscriptionBackend.WHISPER;
+    }
+
     @Override
     public boolean supportsLanguageRouting()
     {
@@ -415,7 +415,12 @@ public class WhisperWebsocket
         return lang;
     }
 
-    private ByteBuffer buildPayload(String participantId, Participant participant, ByteBuffer audio)
+    /**
+     * Builds the binary message carrying the audio of a participant: a 60 bytes
+     * header with the participant id and language, followed by the audio.
+     * Package-private for the benchmarks.
+     */
+    ByteBuffer buildPayload(String participantId, Participant participant, ByteBuffer audio)
     {
         ByteBuffer header = ByteBuffer.allocate(60);
         int lenAudio = audio.remaining();
@@ -25,7 +25,7 @@ import org.json.simple.*;
 import org.osgi.framework.*;
 
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
 import java.util.stream.*;
 
 /**
@@ -77,15 +77,17 @@ public class ActionServicesHandler
     private List<ActionHandler> actions = new ArrayList<>();
 
     /**
-     * Map of patterns to detect and corresponding action.
+     * Finds the phrases of all the actions in a transcript in a single pass.
      */
-    private Map<Pattern, ActionHandler> patterns = new HashMap<>();
+    private final PhraseMatcher<ActionHandler> phraseMatcher;
 
     /**
      * Set of all conferences we had detected an action and service was
-     * notified for it.
+     * notified for it. Results for different rooms are delivered from
+     * different threads, so this is a concurrent structure.
      */
-    private Map<String, List<ActionHandler>> actionSources = new HashMap<>();
+    private final Map<String, Set<ActionHandler>> actionSources
+        = new ConcurrentHashMap<>();
 
     /**
      * Constructs this single instance of actions service handler and
@@ -115,12 +117,10 @@ public class ActionServicesHandler
             String url = config.getString(ACTION_PROPS_PREFIX
                 + "." + actionName + "." + ACTION_URL_PROP_NAME);
 
-            ActionHandler handler = new ActionHandler(actionName, ph, url);
-            actions.add(handler);
-            patterns.put(
-                Pattern.compile(Pattern.quote(ph), Pattern.CASE_INSENSITIVE),
-                handler);
+            actions.add(new ActionHandler(actionName, ph, url));
         }
+
+        phraseMatcher = new PhraseMatcher<>(actions, ActionHandler::getPhrase);
     }
 
     /**
@@ -168,61 +168,52 @@ public class ActionServicesHandler
      */
     public void notifyActionServices(TranscriptionResult result)
     {
-        for (Map.Entry<Pattern, ActionHandler> en : patterns.entrySet())
+        if (actions.isEmpty())
+            return;
+
+        TranscriptionAlternative alt
+            = result.getAlternatives().iterator().next();
+        String msg = alt.getTranscription();
+
+        // every handler is notified at most once per result, using the text
+        // that follows the first occurrence of its phrase
+        for (Map.Entry<ActionHandler, Integer> en
+            : phraseMatcher.match(msg).entrySet())
         {
-            TranscriptionAlternative alt
-                = result.getAlternatives().iterator().next();
-            String msg = alt.getTranscription();
-            Matcher match = en.getKey().matcher(msg);
-            if (match.find())
+            // lets modify it so we can remove the trigger command text
+            String newText = msg.substring(en.getValue()).trim();
+            TranscriptionResult actionResult = new TranscriptionResult(
+                result.getParticipant(),
+                result.getMessageID(),
+                result.getTimeStamp(),
+                result.isInterim(),
+                result.getLanguage(),
+                result.getStability(),
+                new TranscriptionAlternative(newText, alt.getConfidence()));
+
+            JSONObject jsonResult =
+                LocalJsonTranscriptHandler.createTranscriptionJSONObject(actionResult);
+            String roomName
+                = actionResult.getParticipant().getTranscriber().getRoomName();
+            jsonResult.put(
+                LocalJsonTranscriptHandler
+                    .JSON_KEY_FINAL_TRANSCRIPT_ROOM_NAME,
+                roomName);
+
+            ActionHandler handler = en.getKey();
+            if (logger.isDebugEnabled())
             {
-                // lets modify it so we can remove the trigger command text
-                String newText = msg.substring(match.end()).trim();
-                result = new TranscriptionResult(
-                    result.getParticipant(),
-                    result.getMessageID(),
-                    result.getTimeStamp(),
-                    result.isInterim(),
-                    result.getLanguage(),
-                    result.getStability(),
-                    new TranscriptionAlternative(newText, alt.getConfidence()));
-
-                JSONObject jsonResult =
-                    LocalJsonTranscriptHandler.createTranscriptionJSONObject(result);
-                String roomName
-                    = result.getParticipant().getTranscriber().getRoomName();
-                jsonResult.put(
-                    LocalJsonTranscriptHandler
-                        .JSON_KEY_FINAL_TRANSCRIPT_ROOM_NAME,
-                    roomName);
-
-
-                ActionHandler handler = en.getValue();
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Action detected:" + handler.getName()
-                        + ", will push to address:" + handler.getUrl());
-                }
-
-                // store that we had sent a result to that handler for this room
-                if (!actionSources.containsKey(roomName))
-                {
-                    List<ActionHandler> handlers = new ArrayList<>();
-                    handlers.add(handler);
-                    actionSources.put(roomName, handlers);
-                }
-                else
-                {
-                    List<ActionHandler> handlers = actionSources.get(roomName);
-                    if (!handlers.contains(handler))
-                    {
-                        handlers.add(handler);
-                    }
-                }
-
-                // post to action url
-                Util.postJSON(handler.getUrl(), jsonResult);
+                logger.debug("Action detected:" + handler.getName()
+                    + ", will push to address:" + handler.getUrl());
             }
+
+            // store that we had sent a result to that handler for this room
+            actionSources
+                .computeIfAbsent(roomName, k -> ConcurrentHashMap.newKeySet())
+                .add(handler);
+
+            // post to action url
+            Util.postJSON(handler.getUrl(), jsonResult);
         }
     }
 
@@ -238,8 +229,11 @@ public class ActionServicesHandler
     {
         String roomName = transcriber.getRoomName();
 
-        if (event.getEvent() != Transcript.TranscriptEventType.END
-            || !actionSources.containsKey(roomName))
+        if (event.getEvent() != Transcript.TranscriptEventType.END)
+            return;
+
+        Set<ActionHandler> handlers = actionSources.remove(roomName);
+        if (handlers == null)
             return;
 
         JSONObject object = new JSONObject();
@@ -252,7 +246,7 @@ public class ActionServicesHandler
         object.put(LocalJsonTranscriptHandler.JSON_KEY_EVENT_TIMESTAMP,
             event.getTimeStamp().toEpochMilli());
 
-        for (ActionHandler handler : actionSources.remove(roomName))
+        for (ActionHandler handler : handlers)
         {
             Util.postJSON(handler.getUrl(), object);
         }
@@ -0,0 +1,162 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription.action;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Finds the phrases of a set of values in a text in a single pass, ignoring
+ * case, with an Aho-Corasick automaton. A phrase is found even when it
+ * overlaps or is nested in another one, and a phrase shared by several values
+ * is found for all of them.
+ *
+ * @param <T> the values having the phrases.
+ */
+class PhraseMatcher<T>
+{
+    /**
+     * The state of the automaton after the first characters of a text.
+     */
+    private static class Node<T>
+    {
+        /**
+         * The states after the next character, by folded character.
+         */
+        private final Map<Character, Node<T>> next = new HashMap<>();
+
+        /**
+         * The values of the phrases ending at this state.
+         */
+        private final List<T> values = new ArrayList<>();
+
+        /**
+         * The state of the longest suffix of this one which is a prefix of a
+         * phrase.
+         */
+        private Node<T> fail;
+
+        /**
+         * The state of the longest suffix of this one which ends a phrase,
+         * null when none does.
+         */
+        private Node<T> output;
+    }
+
+    /**
+     * The state before the first character.
+     */
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Builds the automaton of the phrases of values.
+     * @param values the values, the ones with a null phrase are ignored.
+     * @param phrase gets the phrase of a value.
+     */
+    PhraseMatcher(Collection<T> values, Function<T, String> phrase)
+    {
+        for (T value : values)
+        {
+            String text = phrase.apply(value);
+            if (text == null)
+            {
+                continue;
+            }
+
+            Node<T> node = root;
+            for (int i = 0; i < text.length(); i++)
+            {
+                node = node.next.computeIfAbsent(fold(text.charAt(i)), c -> new Node<>());
+            }
+            node.values.add(value);
+        }
+
+        // the links of the states in breadth first order, those of the
+        // shorter prefixes are needed first
+        root.fail = root;
+        Deque<Node<T>> queue = new ArrayDeque<>();
+        for (Node<T> child : root.next.values())
+        {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty())
+        {
+            Node<T> node = queue.poll();
+            for (Map.Entry<Character, Node<T>> en : node.next.entrySet())
+            {
+                Node<T> child = en.getValue();
+                Node<T> fail = node.fail;
+                while (fail != root && !fail.next.containsKey(en.getKey()))
+                {
+                    fail = fail.fail;
+                }
+                child.fail = fail.next.getOrDefault(en.getKey(), root);
+                child.output = child.fail.values.isEmpty() ? child.fail.output : child.fail;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Finds the first occurrence of the phrase of every value in a text.
+     * @param text the text.
+     * @return the end in the text of the first occurrence of the phrase of
+     * each value found, in the order they end.
+     */
+    Map<T, Integer> match(String text)
+    {
+        Map<T, Integer> found = new LinkedHashMap<>();
+        for (T value : root.values)
+        {
+            found.put(value, 0);
+        }
+
+        Node<T> node = root;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = fold(text.charAt(i));
+            while (node != root && !node.next.containsKey(c))
+            {
+                node = node.fail;
+            }
+            node = node.next.getOrDefault(c, root);
+
+            for (Node<T> out = node.values.isEmpty() ? node.output : node; out != null; out = out.output)
+            {
+                for (T value : out.values)
+                {
+                    found.putIfAbsent(value, i + 1);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Folds the case of a character, keeping the length of the text unlike
+     * {@link String#toLowerCase()}.
+     * @param c the character.
+     * @return the character to compare.
+     */
+    private static char fold(char c)
+    {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+
+import java.util.concurrent.*;
+
+/**
+ * A scheduler shared by all the calls for their timers (SIP heartbeats,
+ * delayed hangups, sound notifications), so a call does not need a thread
+ * per timer. Tasks must be short and not block, as a small number of
+ * threads serves all the calls. The owner of a timer is expected to cancel
+ * it when the call ends, cancelled timers are removed from the scheduler
+ * straight away.
+ */
+public class CallTimers
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(CallTimers.class);
+
+    /**
+     * The number of threads executing the timers.
+     */
+    private static final int THREADS = 2;
+
+    /**
+     * The scheduler executing the timers of all calls.
+     */
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+    /**
+     * Creates the scheduler.
+     * @return the scheduler.
+     */
+    private static ScheduledThreadPoolExecutor createScheduler()
+    {
+        ScheduledThreadPoolExecutor executor
+            = new ScheduledThreadPoolExecutor(THREADS, new CustomizableThreadFactory("call-timers", true));
+
+        // do not keep the cancelled timers of ended calls till their time comes
+        executor.setRemoveOnCancelPolicy(true);
+
+        return executor;
+    }
+
+    /**
+     * Executes a task once after the given delay.
+     * @param task the task to execute.
+     * @param delay the delay.
+     * @param unit the unit of the delay.
+     * @return the future to use to cancel the task.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        return scheduler.schedule(wrap(task), delay, unit);
+    }
+
+    /**
+     * Executes a task periodically till cancelled.
+     * @param task the task to execute.
+     * @param initialDelay the delay of the first execution.
+     * @param period the period between executions.
+     * @param unit the unit of the delay and the period.
+     * @return the future to use to cancel the task.
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(
+        Runnable task, long initialDelay, long period, TimeUnit unit)
+    {
+        return scheduler.scheduleAtFixedRate(wrap(task), initialDelay, period, unit);
+    }
+
+    /**
+     * The number of timers waiting to be executed, periodic timers are
+     * counted till cancelled.
+     * @return the number of live timers.
+     */
+    public static int getLiveTimers()
+    {
+        return scheduler.getQueue().size();
+    }
+
+    /**
+     * Makes sure an exception in a task is logged and, for periodic tasks,
+     * does not silently stop its next executions.
+     * @param task the task.
+     * @return the wrapped task.
+     */
+    private static Runnable wrap(Runnable task)
+    {
+        return () ->
+        {
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error executing call timer", t);
+            }
+        };
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.util;
+
+import io.prometheus.client.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.metrics.*;
+import org.jitsi.service.configuration.*;
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Creates the executors of the blocking gateway work (call control, xmpp,
+ * sip and http calls), which mostly wait. By default the tasks run in a pool
+ * of platform threads which hands each task to an idle thread, starts a new
+ * thread when none is idle and queues the tasks above its size instead of
+ * creating a thread for each. With {@link #P_NAME_EXECUTOR_MODE}
+ * every task can run in a virtual thread instead (JDK 21), which costs no
+ * stack while blocked; this is not the default as the gateway blocks in
+ * synchronized blocks, which pin the carrier threads of virtual threads.
+ *
+ * A pool takes at most {@link #P_NAME_EXECUTOR_MAX_THREADS} plus
+ * {@link #P_NAME_EXECUTOR_MAX_QUEUED} tasks at once and refuses the others
+ * with a {@link RejectedExecutionException}, in both modes. The number of
+ * running tasks, the most running at once and the tasks waiting for a
+ * thread are exported per pool as metrics.
+ */
+public class GatewayExecutors
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(GatewayExecutors.class);
+
+    /**
+     * The property choosing the threads of the executors: <tt>platform</tt>
+     * (the default), <tt>virtual</tt> or <tt>auto</tt> (virtual when available).
+     */
+    public final static String P_NAME_EXECUTOR_MODE = "org.jitsi.jigasi.EXECUTOR_MODE";
+
+    /**
+     * The property for the maximum number of platform threads of a pool.
+     */
+    public final static String P_NAME_EXECUTOR_MAX_THREADS = "org.jitsi.jigasi.EXECUTOR_MAX_THREADS";
+
+    /**
+     * The property for the maximum number of tasks of a pool waiting for a thread.
+     */
+    public final static String P_NAME_EXECUTOR_MAX_QUEUED = "org.jitsi.jigasi.EXECUTOR_MAX_QUEUED";
+
+    /**
+     * The default maximum number of platform threads of a pool, the size
+     * the pools used to grow to.
+     */
+    private final static int DEFAULT_MAX_THREADS = 1000;
+
+    /**
+     * The default maximum number of tasks of a pool waiting for a thread.
+     */
+    private final static int DEFAULT_MAX_QUEUED = 1000;
+
+    /**
+     * How long an idle platform thread is kept.
+     */
+    private final static long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * The running tasks per pool.
+     */
+    private static final Gauge activeTasks = JigasiMetricsContainer.INSTANCE.createLabeledGauge(
+        "executor_active_tasks", "Number of tasks running in an executor.", "pool");
+
+    /**
+     * The most tasks running at once per pool.
+     */
+    private static final Gauge peakTasks = JigasiMetricsContainer.INSTANCE.createLabeledGauge(
+        "executor_peak_tasks", "Highest number of tasks running at once in an executor.", "pool");
+
+    /**
+     * The tasks waiting for a thread per pool.
+     */
+    private static final Gauge queuedTasks = JigasiMetricsContainer.INSTANCE.createLabeledGauge(
+        "executor_queued_tasks", "Number of tasks of an executor waiting for a thread.", "pool");
+
+    /**
+     * The counts of the pools by name, summing the executors re-created with the same name.
+     */
+    private static final Map<String, PoolStats> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the virtual thread executors, null when the runtime has no virtual threads.
+     */
+    private static final VirtualThreads virtualThreads = VirtualThreads.load();
+
+    /**
+     * Whether the executors use virtual threads, decided at the first executor created.
+     */
+    private static Boolean useVirtualThreads;
+
+    /**
+     * Creates an executor for blocking tasks.
+     * @param name the name of the pool, the prefix of the names of its threads.
+     * @return the new executor.
+     */
+    public static ExecutorService create(String name)
+    {
+        PoolStats stats = pools.computeIfAbsent(name, PoolStats::new);
+
+        int maxThreads = getInt(P_NAME_EXECUTOR_MAX_THREADS, DEFAULT_MAX_THREADS);
+        int maxQueued = getInt(P_NAME_EXECUTOR_MAX_QUEUED, DEFAULT_MAX_QUEUED);
+
+        // the tasks of this executor accepted and not ended
+        AtomicInteger pending = new AtomicInteger();
+
+        ExecutorService delegate;
+        if (useVirtualThreads())
+        {
+            delegate = virtualThreads.newExecutor(name);
+        }
+        else
+        {
+            // the queue is bounded by CountingExecutorService
+            HandoffQueue queue = new HandoffQueue(pending);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queue,
+                new CustomizableThreadFactory(name, true),
+                (task, pool) ->
+                {
+                    // all the threads were busy when the queue was offered the task
+                    if (pool.isShutdown() || !queue.force(task))
+                    {
+                        throw new RejectedExecutionException("The pool " + name + " is shut down");
+                    }
+                });
+            queue.executor = executor;
+            delegate = executor;
+        }
+
+        return new CountingExecutorService(delegate, stats, pending, maxThreads + maxQueued);
+    }
+
+    /**
+     * @return whether the runtime has virtual threads.
+     */
+    public static boolean isVirtualThreadsAvailable()
+    {
+        return virtualThreads != null;
+    }
+
+    /**
+     * @return the number of tasks running in each pool, by pool name.
+     */
+    public static Map<String, Integer> getActiveTasks()
+    {
+        Map<String, Integer> result = new TreeMap<>();
+        pools.forEach((name, stats) -> result.put(name, stats.active.get()));
+        return result;
+    }
+
+    /**
+     * The tasks of the pools with a name waiting for a thread, which happens
+     * when all their threads are busy. Virtual threads pools have none.
+     * @param name the name of the pool.
+     * @return the number of tasks waiting, 0 for an unknown pool.
+     */
+    public static int getQueuedTasks(String name)
+    {
+        PoolStats stats = pools.get(name);
+        return stats == null ? 0 : stats.getQueued();
+    }
+
+    /**
+     * Decides once whether to use virtual threads.
+     */
+    private static synchronized boolean useVirtualThreads()
+    {
+        if (useVirtualThreads == null)
+        {
+            ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+            String mode = cfg == null ? "platform" : cfg.getString(P_NAME_EXECUTOR_MODE, "platform");
+
+            if (!"virtual".equalsIgnoreCase(mode) && !"auto".equalsIgnoreCase(mode))
+            {
+                useVirtualThreads = false;
+            }
+            else
+            {
+                if ("virtual".equalsIgnoreCase(mode) && virtualThreads == null)
+                {
+                    logger.warn("Virtual threads are not available in Java "
+                        + System.getProperty("java.specification.version") + ", using platform threads");
+                }
+                useVirtualThreads = virtualThreads != null;
+            }
+
+            logger.info("Executors use " + (useVirtualThreads ? "virtual threads" : "platform threads, at most "
+                + getInt(P_NAME_EXECUTOR_MAX_THREADS, DEFAULT_MAX_THREADS) + " per pool"));
+        }
+
+        return useVirtualThreads;
+    }
+
+    /**
+     * Reads an integer property.
+     * @param name the name of the property.
+     * @param defaultValue the value when not configured.
+     * @return the value of the property.
+     */
+    private static int getInt(String name, int defaultValue)
+    {
+        ConfigurationService cfg = JigasiBundleActivator.getConfigurationService();
+        return cfg == null ? defaultValue : cfg.getInt(name, defaultValue);
+    }
+
+    /**
+     * The counts of the pools with a name, read by the metrics when scraped.
+     */
+    private static class PoolStats
+    {
+        /**
+         * The running tasks.
+         */
+        private final AtomicInteger active = new AtomicInteger();
+
+        /**
+         * The most tasks running at once.
+         */
+        private final AtomicInteger peak = new AtomicInteger();
+
+        /**
+         * The tasks accepted and waiting for a thread.
+         */
+        private final AtomicInteger queued = new AtomicInteger();
+
+        PoolStats(String name)
+        {
+            activeTasks.setChild(new Gauge.Child()
+            {
+                @Override
+                public double get()
+                {
+                    return active.get();
+                }
+            }, name);
+            peakTasks.setChild(new Gauge.Child()
+            {
+                @Override
+                public double get()
+                {
+                    return peak.get();
+                }
+            }, name);
+            queuedTasks.setChild(new Gauge.Child()
+            {
+                @Override
+                public double get()
+                {
+                    return getQueued();
+                }
+            }, name);
+        }
+
+        /**
+         * @return the tasks waiting for a thread.
+         */
+        int getQueued()
+        {
+            return queued.get();
+        }
+
+        /**
+         * Accounts a task accepted.
+         */
+        void accepted()
+        {
+            queued.incrementAndGet();
+        }
+
+        /**
+         * Accounts a task accepted and not run, refused by the executor.
+         */
+        void refused()
+        {
+            queued.decrementAndGet();
+        }
+
+        /**
+         * Accounts a task starting.
+         */
+        void started()
+        {
+            queued.decrementAndGet();
+            int running = active.incrementAndGet();
+            if (running > peak.get())
+            {
+                peak.accumulateAndGet(running, Math::max);
+            }
+        }
+
+        /**
+         * Accounts a task ending.
+         */
+        void ended()
+        {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * The queue of a pool of platform threads, which takes a task only when a
+     * thread is idle or the pool has all its threads, so that the pool starts
+     * a thread instead of queueing while it can.
+     */
+    private static class HandoffQueue
+        extends LinkedBlockingQueue<Runnable>
+    {
+        /**
+         * The tasks of the executor accepted and not ended.
+         */
+        private final AtomicInteger pending;
+
+        /**
+         * The executor taking its tasks from this queue.
+         */
+        private ThreadPoolExecutor executor;
+
+        HandoffQueue(AtomicInteger pending)
+        {
+            this.pending = pending;
+        }
+
+        @Override
+        public boolean offer(Runnable task)
+        {
+            int threads = executor.getPoolSize();
+
+            // a thread is idle or no other can be started
+            if (pending.get() <= threads || threads >= executor.getMaximumPoolSize())
+            {
+                return super.offer(task);
+            }
+
+            // makes the executor start a thread
+            return false;
+        }
+
+        /**
+         * Queues a task refused by {@link #offer(Runnable)}, for a pool which
+         * could not start a thread.
+         * @param task the task.
+         * @return whether the task was queued.
+         */
+        boolean force(Runnable task)
+        {
+            return super.offer(task);
+        }
+    }
+
+    /**
+     * Counts the running tasks of the executor it delegates to.
+     */
+    private static class CountingExecutorService
+        extends AbstractExecutorService
+    {
+        /**
+         * The executor running the tasks.
+         */
+        private final ExecutorService delegate;
+
+        /**
+         * The counts of the pools with the name of this one.
+         */
+        private final PoolStats stats;
+
+        /**
+         * The tasks of this executor accepted and not ended, running or
+         * waiting for a thread.
+         */
+        private final AtomicInteger pending;
+
+        /**
+         * The most tasks taken at once.
+         */
+        private final int maxPending;
+
+        CountingExecutorService(ExecutorService delegate, PoolStats stats, AtomicInteger pending, int maxPending)
+        {
+            this.delegate = delegate;
+            this.stats = stats;
+            this.pending = pending;
+            this.maxPending = maxPending;
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            if (pending.incrementAndGet() > maxPending)
+            {
+                pending.decrementAndGet();
+                throw new RejectedExecutionException("Too many tasks waiting in the pool");
+            }
+            stats.accepted();
+
+            try
+            {
+                delegate.execute(() ->
+                {
+                    stats.started();
+                    try
+                    {
+                        command.run();
+                    }
+                    finally
+                    {
+                        stats.ended();
+                        pending.decrementAndGet();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                stats.refused();
+                pending.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown()
+        {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException
+        {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Creates executors running every task in a new virtual thread, through
+     * reflection as jigasi is built for Java 11.
+     */
+    private static class VirtualThreads
+    {
+        /**
+         * <tt>Thread.ofVirtual()</tt>.
+         */
+        private final Method ofVirtual;
+
+        /**
+         * <tt>Thread.Builder.name(String, long)</tt>.
+         */
+        private final Method name;
+
+        /**
+         * <tt>Thread.Builder.factory()</tt>.
+         */
+        private final Method factory;
+
+        /**
+         * <tt>Executors.newThreadPerTaskExecutor(ThreadFactory)</tt>.
+         */
+        private final Method newThreadPerTaskExecutor;
+
+        private VirtualThreads()
+            throws ReflectiveOperationException
+        {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        }
+
+        /**
+         * @return the virtual threads of the runtime, null when it has none.
+         */
+        static VirtualThreads load()
+        {
+            try
+            {
+                VirtualThreads virtualThreads = new VirtualThreads();
+
+                // preview versions have the methods but refuse to create threads
+                virtualThreads.newExecutor("jigasi-probe").shutdown();
+
+                return virtualThreads;
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                return null;
+            }
+        }
+
+        /**
+         * Creates an executor starting a named virtual thread per task.
+         * @param prefix the prefix of the names of the threads.
+         * @return the executor.
+         */
+        ExecutorService newExecutor(String prefix)
+        {
+            try
+            {
+                Object builder = name.invoke(ofVirtual.invoke(null), prefix + "-", 0L);
+                ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+            }
+            catch (ReflectiveOperationException e)
+            {
+                throw new IllegalStateException("Cannot create virtual threads", e);
+            }
+        }
+    }
+}
@@ -242,17 +242,15 @@ public class Util
     }
 
     /**
-     * Creates new thread pool with one initial thread and can grow up.
+     * Creates new thread pool for blocking tasks, of virtual threads when
+     * available or else bounded.
      * @param name the threads name prefix.
      * @return the newly created pool.
+     * @see GatewayExecutors
      */
     public static ExecutorService createNewThreadPool(String name)
     {
-        return new ThreadPoolExecutor(
-            1, 1000, // a pretty big thread pool size to avoid reaching capacity
-            60L, TimeUnit.SECONDS, // time to wait before clearing threads
-            new SynchronousQueue<>(),
-            new CustomizableThreadFactory(name, true));
+        return GatewayExecutors.create(name);
     }
 
     /**
@@ -18,6 +18,7 @@
 package org.jitsi.jigasi.xmpp;
 
 import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.stats.*;
 import org.jitsi.utils.logging.Logger;
 import org.jitsi.xmpp.extensions.rayo.*;
 import org.jitsi.service.configuration.*;
@@ -149,6 +150,7 @@ public class CallControl
      * @param iq the {@link IQ} of type {@link IQ.Type#set} which represents
      * the request to handle
      * @return a {@link RefIq} which represents the response to the request.
+     * @throws AdmissionRejectedException when the node is over its budget.
      */
     public RefIq handleDialIq(DialIq iq, CallContext ctx,
         AbstractGatewaySession[] createdSession)
@@ -202,6 +204,13 @@ public class CallControl
             " Got dial request " + from + " -> " + to + " room: " + roomName);
 
         AbstractGatewaySession session = null;
+        if (!TRANSCRIPTION_DIAL_IQ_DESTINATION.equals(to))
+        {
+            // the transcription gateway checks its own admission, with the
+            // transcription streams
+            AdmissionController.checkAdmission(false);
+        }
+
         if (TRANSCRIPTION_DIAL_IQ_DESTINATION.equals(to))
         {
             if (transcriptionGateway == null)
@@ -640,6 +640,13 @@ public class CallControlMucActivator
             {
                 return ccae.getErrorIq();
             }
+            catch (AdmissionRejectedException are)
+            {
+                // an error makes the focus retry the dial on another instance
+                logger.warn(ctx + " Rejecting dialIQ: " + are.getMessage());
+                return IQ.createErrorResponse(packet, StanzaError.from(
+                    StanzaError.Condition.resource_constraint, are.getMessage()).build());
+            }
             catch (Exception e)
             {
                 logger.error(ctx + " Error processing RayoIq", e);
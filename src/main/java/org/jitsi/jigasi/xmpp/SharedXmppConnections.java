@@ -0,0 +1,249 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.jabber.*;
+import org.apache.commons.lang3.StringUtils;
+import org.jitsi.jigasi.*;
+import org.jitsi.utils.*;
+import org.jitsi.utils.logging.Logger;
+import org.osgi.framework.*;
+
+import java.util.*;
+
+/**
+ * Keeps XMPP accounts that are shared between all the transcriber conferences
+ * that connect to the same server with the same credentials. Instead of one
+ * XMPP connection per transcribed room, a single authenticated connection
+ * joins all the rooms and every <tt>JvbConference</tt> only listens for the
+ * events of its own room.
+ *
+ * Accounts are reference counted, the connection is closed and the account
+ * unloaded once the last conference using it releases it.
+ *
+ * Sharing is not possible for BOSH connections, as the BOSH url is room
+ * specific.
+ */
+public class SharedXmppConnections
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(SharedXmppConnections.class);
+
+    /**
+     * The name of the property to enable sharing a single XMPP connection
+     * between all transcriber conferences.
+     */
+    public static final String P_NAME_SHARE_TRANSCRIBER_CONNECTION
+        = "org.jitsi.jigasi.xmpp.SHARE_TRANSCRIBER_CONNECTION";
+
+    /**
+     * The node part (and resource) used by the shared accounts. Random, so
+     * multiple jigasi instances sharing a server do not conflict.
+     */
+    private static final String SHARED_NODE = "transcriber-" + Long.toHexString(new Random().nextLong() >>> 1);
+
+    /**
+     * The shared accounts by the key built from their properties.
+     */
+    private static final Map<String, SharedAccount> accounts = new HashMap<>();
+
+    /**
+     * Whether sharing the connection between transcriber conferences is enabled.
+     * @return whether sharing is enabled.
+     */
+    public static boolean isEnabled()
+    {
+        return JigasiBundleActivator.getConfigurationService()
+            .getBoolean(P_NAME_SHARE_TRANSCRIBER_CONNECTION, false);
+    }
+
+    /**
+     * The node part to use when creating the properties of a shared account.
+     * @return the node part to use.
+     */
+    public static String getSharedNode()
+    {
+        return SHARED_NODE;
+    }
+
+    /**
+     * Whether an account with the given properties can be shared.
+     * @param accountProperties the account properties.
+     * @return <tt>false</tt> when the account is using a room specific BOSH url
+     * or a user id that must be unique for every connection.
+     */
+    public static boolean canShare(Map<String, String> accountProperties)
+    {
+        if (StringUtils.isNotEmpty(accountProperties.get(JabberAccountID.BOSH_URL)))
+        {
+            return false;
+        }
+
+        return Boolean.parseBoolean(accountProperties.get(JabberAccountID.ANONYMOUS_AUTH))
+            || !JigasiBundleActivator.getConfigurationService()
+                .getBoolean("org.jitsi.jigasi.xmpp.acc.UNIQUE_USER_ID", false);
+    }
+
+    /**
+     * Returns a loaded account with the given properties, creating and loading it if it is the first use.
+     * @param factory the factory used to create jabber accounts.
+     * @param accountProperties the properties of the account.
+     * @return the shared account.
+     */
+    public static synchronized AccountID acquire(
+        ProtocolProviderFactory factory, Map<String, String> accountProperties)
+    {
+        String key = new TreeMap<>(accountProperties).toString();
+
+        SharedAccount shared = accounts.get(key);
+        if (shared == null)
+        {
+            AccountID account = factory.createAccount(accountProperties);
+            factory.loadAccount(account);
+
+            shared = new SharedAccount(key, account);
+            accounts.put(key, shared);
+
+            logger.info("Created shared xmpp account " + account);
+        }
+
+        shared.users++;
+
+        return shared.account;
+    }
+
+    /**
+     * Marks the registration of a shared account as started. Only the first
+     * caller gets <tt>true</tt> and registers the account, the others wait for
+     * its registered event. Once registered, reconnecting is left to the
+     * provider, so the registration is started once for the life of the account.
+     * @param account the shared account.
+     * @return whether the caller should register the account.
+     */
+    public static synchronized boolean startRegistration(AccountID account)
+    {
+        SharedAccount shared = accounts.values().stream()
+            .filter(s -> s.account.equals(account))
+            .findFirst().orElse(null);
+
+        if (shared == null || shared.registrationStarted)
+        {
+            return false;
+        }
+
+        shared.registrationStarted = true;
+        return true;
+    }
+
+    /**
+     * Releases a shared account. When there are no more users of the account
+     * its connection is closed and the account unloaded.
+     * @param factory the factory used to create jabber accounts.
+     * @param account the account to release.
+     */
+    public static void release(ProtocolProviderFactory factory, AccountID account)
+    {
+        SharedAccount shared;
+        synchronized (SharedXmppConnections.class)
+        {
+            shared = accounts.values().stream()
+                .filter(s -> s.account.equals(account))
+                .findFirst().orElse(null);
+
+            if (shared == null)
+            {
+                logger.warn("Releasing unknown shared account " + account);
+                return;
+            }
+
+            if (--shared.users > 0)
+            {
+                return;
+            }
+
+            accounts.remove(shared.key);
+        }
+
+        logger.info("Removing shared xmpp account " + account);
+
+        ServiceReference<ProtocolProviderService> ppsRef = factory.getProviderForAccount(account);
+        ProtocolProviderService pps = ppsRef == null ? null : JigasiBundleActivator.osgiContext.getService(ppsRef);
+        if (pps != null)
+        {
+            try
+            {
+                // user request, so the reconnect plugin does not kick in
+                pps.unregister(true);
+            }
+            catch (OperationFailedException e)
+            {
+                logger.error("Cannot unregister", e);
+            }
+        }
+
+        factory.unloadAccount(account);
+    }
+
+    /**
+     * Returns the number of shared connections and the number of conferences using them.
+     * @return debug information for the shared connections.
+     */
+    public static synchronized OrderedJsonObject getDebugState()
+    {
+        OrderedJsonObject debugState = new OrderedJsonObject();
+
+        accounts.values().forEach(s -> debugState.put(s.account.getAccountUniqueID(), s.users));
+
+        return debugState;
+    }
+
+    /**
+     * A shared account and the number of conferences using it.
+     */
+    private static class SharedAccount
+    {
+        /**
+         * The key identifying the account.
+         */
+        private final String key;
+
+        /**
+         * The account.
+         */
+        private final AccountID account;
+
+        /**
+         * The number of conferences using the account.
+         */
+        private int users = 0;
+
+        /**
+         * Whether a conference started the registration of the account.
+         */
+        private boolean registrationStarted = false;
+
+        private SharedAccount(String key, AccountID account)
+        {
+            this.key = key;
+            this.account = account;
+        }
+    }
+}
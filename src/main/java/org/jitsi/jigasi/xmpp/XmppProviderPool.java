@@ -0,0 +1,427 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.xmpp;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.jabber.*;
+import org.apache.commons.lang3.StringUtils;
+import org.jitsi.jigasi.*;
+import org.jitsi.jigasi.stats.*;
+import org.jitsi.jigasi.util.*;
+import org.jitsi.utils.*;
+import org.jitsi.utils.concurrent.*;
+import org.jitsi.utils.logging.Logger;
+import org.osgi.framework.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a number of registered, idle XMPP accounts so that a conference can
+ * join its room without waiting for the connection to be established
+ * (DNS, TLS and SASL). Accounts are pooled by their properties, leaving out
+ * the per connection ones (user id, resource and account uid), so a
+ * conference only gets a connection equivalent to the one it would have
+ * created itself.
+ *
+ * A pool for given properties is created on its first use and refilled in
+ * the background every time a connection is leased. Connections are given
+ * back when the conference stops, if they are still registered and the pool
+ * is not full, otherwise they are closed and their account unloaded.
+ *
+ * BOSH connections are never pooled, as the BOSH url is room specific.
+ */
+public class XmppProviderPool
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(XmppProviderPool.class);
+
+    /**
+     * The name of the property that configures the number of idle connections
+     * to keep for every set of account properties. Zero disables the pool.
+     */
+    public static final String P_NAME_POOL_SIZE = "org.jitsi.jigasi.xmpp.POOL_SIZE";
+
+    /**
+     * The default number of idle connections, the pool is disabled by default.
+     */
+    private static final int DEFAULT_POOL_SIZE = 0;
+
+    /**
+     * The account properties that are specific to a single connection and
+     * are not part of the key of a pool.
+     */
+    private static final Set<String> PER_CONNECTION_PROPERTIES = Set.of(
+        ProtocolProviderFactory.USER_ID,
+        ProtocolProviderFactory.RESOURCE,
+        ProtocolProviderFactory.ACCOUNT_UID);
+
+    /**
+     * Used to generate the node part of the pooled accounts.
+     */
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Creates and registers the accounts that refill the pools.
+     */
+    private static final ExecutorService refillExecutor = Executors.newSingleThreadExecutor(
+        new CustomizableThreadFactory("xmpp-pool-refill", true));
+
+    /**
+     * The pools by the key built from their account properties.
+     */
+    private static final Map<String, Pool> pools = new HashMap<>();
+
+    /**
+     * The key of the pool of every account in use by a conference.
+     */
+    private static final Map<AccountID, String> leased = new HashMap<>();
+
+    /**
+     * Whether the pool is enabled.
+     * @return whether the pool is enabled.
+     */
+    public static boolean isEnabled()
+    {
+        return getPoolSize() > 0;
+    }
+
+    /**
+     * The number of idle connections to keep per set of account properties.
+     * @return the configured pool size.
+     */
+    private static int getPoolSize()
+    {
+        return JigasiBundleActivator.getConfigurationService().getInt(P_NAME_POOL_SIZE, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Whether an account with the given properties can be pooled.
+     * @param accountProperties the account properties.
+     * @return <tt>false</tt> when the account is using a room specific BOSH url
+     * or a user id that must be unique for every connection.
+     */
+    public static boolean canPool(Map<String, String> accountProperties)
+    {
+        if (StringUtils.isNotEmpty(accountProperties.get(JabberAccountID.BOSH_URL)))
+        {
+            return false;
+        }
+
+        return Boolean.parseBoolean(accountProperties.get(JabberAccountID.ANONYMOUS_AUTH))
+            || !JigasiBundleActivator.getConfigurationService()
+                .getBoolean("org.jitsi.jigasi.xmpp.acc.UNIQUE_USER_ID", false);
+    }
+
+    /**
+     * Returns a loaded account with properties equivalent to the given ones.
+     * A registered account from the pool is returned if there is one,
+     * otherwise a new account is created and loaded. In both cases the pool
+     * is refilled in the background.
+     *
+     * @param factory the factory used to create jabber accounts.
+     * @param accountProperties the properties of the account.
+     * @return the account to use, its provider is already registered if it
+     * came from the pool.
+     */
+    public static synchronized AccountID lease(
+        ProtocolProviderFactory factory, Map<String, String> accountProperties)
+    {
+        String key = getKey(accountProperties);
+        Pool pool = pools.computeIfAbsent(key, k -> new Pool(key, accountProperties));
+
+        AccountID account = null;
+        Iterator<AccountID> iter = pool.idle.iterator();
+        while (iter.hasNext())
+        {
+            AccountID candidate = iter.next();
+            ProtocolProviderService pps = getProvider(factory, candidate);
+
+            if (pps != null && pps.isRegistered())
+            {
+                iter.remove();
+                Statistics.addXmppPoolIdle(-1);
+                account = candidate;
+                break;
+            }
+            else if (pps == null || pps.getRegistrationState() != RegistrationState.REGISTERING)
+            {
+                // lost its connection while waiting, replace it with a new one
+                iter.remove();
+                Statistics.addXmppPoolIdle(-1);
+                refillExecutor.execute(() -> discard(factory, candidate));
+            }
+        }
+
+        if (account != null)
+        {
+            pool.hits++;
+            Statistics.incrementTotalXmppPoolHits();
+        }
+        else
+        {
+            pool.misses++;
+            Statistics.incrementTotalXmppPoolMisses();
+
+            account = factory.createAccount(accountProperties);
+            factory.loadAccount(account);
+        }
+
+        leased.put(account, key);
+
+        refillExecutor.execute(() -> refill(factory, pool));
+
+        return account;
+    }
+
+    /**
+     * Gives back an account when the conference using it stops. It is kept
+     * in the pool if it is still registered and the pool is not full,
+     * otherwise its connection is closed and the account unloaded.
+     *
+     * @param factory the factory used to create jabber accounts.
+     * @param account the account to give back.
+     */
+    public static void release(ProtocolProviderFactory factory, AccountID account)
+    {
+        synchronized (XmppProviderPool.class)
+        {
+            String key = leased.remove(account);
+            Pool pool = key == null ? null : pools.get(key);
+            ProtocolProviderService pps = getProvider(factory, account);
+
+            if (pool != null && pps != null && pps.isRegistered() && pool.idle.size() < getPoolSize())
+            {
+                pool.idle.add(account);
+                Statistics.addXmppPoolIdle(1);
+                return;
+            }
+        }
+
+        refillExecutor.execute(() -> discard(factory, account));
+    }
+
+    /**
+     * Forgets a leased account that the conference unloads itself, as it
+     * needs a connection that cannot be pooled.
+     * @param account the account.
+     */
+    public static synchronized void forget(AccountID account)
+    {
+        leased.remove(account);
+    }
+
+    /**
+     * Creates and registers accounts till the pool has the configured number of idle connections.
+     * @param factory the factory used to create jabber accounts.
+     * @param pool the pool to refill.
+     */
+    private static void refill(ProtocolProviderFactory factory, Pool pool)
+    {
+        while (true)
+        {
+            Map<String, String> properties;
+            synchronized (XmppProviderPool.class)
+            {
+                if (pool.idle.size() >= getPoolSize())
+                {
+                    return;
+                }
+
+                properties = pool.newAccountProperties();
+            }
+
+            AccountID account;
+            ProtocolProviderService pps;
+            try
+            {
+                account = factory.createAccount(properties);
+                factory.loadAccount(account);
+                pps = getProvider(factory, account);
+            }
+            catch (Exception e)
+            {
+                logger.error("Cannot create pooled xmpp account", e);
+                return;
+            }
+
+            if (pps == null)
+            {
+                logger.error("No provider for pooled xmpp account " + account);
+                factory.unloadAccount(account);
+                return;
+            }
+
+            synchronized (XmppProviderPool.class)
+            {
+                pool.idle.add(account);
+                Statistics.addXmppPoolIdle(1);
+            }
+
+            // it will be leased once registered
+            new RegisterThread(pps, properties.get(ProtocolProviderFactory.PASSWORD)).start();
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Added pooled xmpp account " + account);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection of an account and unloads it.
+     * @param factory the factory used to create jabber accounts.
+     * @param account the account to remove.
+     */
+    private static void discard(ProtocolProviderFactory factory, AccountID account)
+    {
+        logger.info("Removing account " + account);
+
+        ProtocolProviderService pps = getProvider(factory, account);
+        if (pps != null && pps.isRegistered())
+        {
+            try
+            {
+                // user request, so the reconnect plugin does not kick in
+                pps.unregister(true);
+            }
+            catch (OperationFailedException e)
+            {
+                logger.error("Cannot unregister", e);
+            }
+        }
+
+        factory.unloadAccount(account);
+    }
+
+    /**
+     * Returns the provider of a loaded account.
+     * @param factory the factory used to create jabber accounts.
+     * @param account the account.
+     * @return the provider or <tt>null</tt> if the account is not loaded.
+     */
+    private static ProtocolProviderService getProvider(ProtocolProviderFactory factory, AccountID account)
+    {
+        ServiceReference<ProtocolProviderService> ppsRef = factory.getProviderForAccount(account);
+
+        return ppsRef == null ? null : JigasiBundleActivator.osgiContext.getService(ppsRef);
+    }
+
+    /**
+     * Builds the key of the pool for the given account properties.
+     * @param accountProperties the account properties.
+     * @return the key of the pool.
+     */
+    private static String getKey(Map<String, String> accountProperties)
+    {
+        Map<String, String> keyProperties = new TreeMap<>(accountProperties);
+        keyProperties.keySet().removeAll(PER_CONNECTION_PROPERTIES);
+
+        return keyProperties.toString();
+    }
+
+    /**
+     * Returns the idle connections and the hits and misses of every pool.
+     * @return debug information for the pools.
+     */
+    public static synchronized OrderedJsonObject getDebugState()
+    {
+        OrderedJsonObject debugState = new OrderedJsonObject();
+
+        debugState.put("leased", leased.size());
+
+        pools.values().forEach(p ->
+        {
+            OrderedJsonObject poolState = new OrderedJsonObject();
+            long leases = p.hits + p.misses;
+
+            poolState.put("idle", p.idle.size());
+            poolState.put("hits", p.hits);
+            poolState.put("misses", p.misses);
+            poolState.put("hitRate", leases == 0 ? 0 : (double) p.hits / leases);
+
+            debugState.put(p.template.get(ProtocolProviderFactory.SERVER_ADDRESS) + "#" + p.key.hashCode(),
+                poolState);
+        });
+
+        return debugState;
+    }
+
+    /**
+     * The idle accounts sharing the same properties.
+     */
+    private static class Pool
+    {
+        /**
+         * The key identifying the pool.
+         */
+        private final String key;
+
+        /**
+         * The properties of the account that created the pool, used as a template for the pooled accounts.
+         */
+        private final Map<String, String> template;
+
+        /**
+         * The loaded accounts waiting to be leased, some of them may still be registering.
+         */
+        private final List<AccountID> idle = new LinkedList<>();
+
+        /**
+         * The number of leases served by an idle account.
+         */
+        private long hits = 0;
+
+        /**
+         * The number of leases that had to create a new account.
+         */
+        private long misses = 0;
+
+        private Pool(String key, Map<String, String> template)
+        {
+            this.key = key;
+            this.template = new HashMap<>(template);
+        }
+
+        /**
+         * Creates the properties for a new account of this pool, with its own node and resource.
+         * @return the account properties.
+         */
+        private Map<String, String> newAccountProperties()
+        {
+            Map<String, String> properties = new HashMap<>(template);
+            String node = "jigasi-" + Long.toHexString(RANDOM.nextLong() >>> 1);
+
+            String userId = template.get(ProtocolProviderFactory.USER_ID);
+            if (Boolean.parseBoolean(template.get(JabberAccountID.ANONYMOUS_AUTH))
+                && userId != null && userId.indexOf('@') != -1)
+            {
+                // the server assigns the jid of anonymous logins, keep the user id unique per connection though
+                userId = node + userId.substring(userId.indexOf('@'));
+                properties.put(ProtocolProviderFactory.USER_ID, userId);
+            }
+
+            properties.put(ProtocolProviderFactory.RESOURCE, node);
+            properties.put(ProtocolProviderFactory.ACCOUNT_UID, "Jabber:" + userId + "/" + node);
+
+            return properties;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.jitsi.jigasi;
 import static org.junit.jupiter.api.Assertions.*;
 
 import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.service.protocol.mock.*;
 import net.java.sip.communicator.util.osgi.ServiceUtils;
 import org.jitsi.jigasi.xmpp.*;
@@ -36,6 +37,7 @@ import org.osgi.framework.*;
 import java.lang.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.osgi.framework.launch.*;
 
 /**
@@ -590,4 +592,143 @@ public class CallsHandlingTest
 
         logger.info("Finished testNoFocusInTheRoom");
     }
+
+    /**
+     * A hangup requested while an operation of a call runs skips the accept
+     * queued behind it and leaves the call out of a merge.
+     */
+    @Test
+    public void testHangupSkipsQueuedOperations()
+        throws Exception
+    {
+        logger.info("Starting testHangupSkipsQueuedOperations");
+
+        MockBasicTeleOpSet telephony = sipProvider.getTelephony();
+        MockCall conferenceCall = (MockCall) telephony.createCall("conference", null);
+        MockCall call = (MockCall) telephony.createCall("calee", null);
+
+        // the first accept of the call blocks once its peer is connected
+        CountDownLatch answering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        call.getCallPeers().next().addCallPeerListener(new CallPeerAdapter()
+        {
+            @Override
+            public void peerStateChanged(CallPeerChangeEvent evt)
+            {
+                if (CallPeerState.CONNECTED.equals(evt.getNewValue()) && answering.getCount() > 0)
+                {
+                    answering.countDown();
+                    try
+                    {
+                        release.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        CallManager.acceptCall(call);
+        assertTrue(answering.await(1, TimeUnit.SECONDS));
+
+        // a peer only answered by the second accept
+        MockCallPeer latePeer = new MockCallPeer("late", call);
+        call.addCallPeer(latePeer);
+        AtomicBoolean lateAnswered = new AtomicBoolean();
+        latePeer.addCallPeerListener(new CallPeerAdapter()
+        {
+            @Override
+            public void peerStateChanged(CallPeerChangeEvent evt)
+            {
+                if (CallPeerState.CONNECTED.equals(evt.getNewValue()))
+                {
+                    lateAnswered.set(true);
+                }
+            }
+        });
+
+        CallManager.acceptCall(call);
+        CallManager.hangupCall(call);
+
+        // queued behind the conference call, which is free
+        CallManager.mergeExistingCalls(conferenceCall.getConference(), List.of(call));
+        CallManager.acceptCall(conferenceCall);
+
+        CallStateListener callStateWatch = new CallStateListener();
+        callStateWatch.waitForState(conferenceCall, CallState.CALL_IN_PROGRESS, 1000);
+
+        release.countDown();
+        callStateWatch.waitForState(call, CallState.CALL_ENDED, 1000);
+
+        assertFalse(lateAnswered.get());
+        assertFalse(conferenceCall.getConference().containsCall(call));
+
+        CallManager.hangupCall(conferenceCall);
+        callStateWatch.waitForState(conferenceCall, CallState.CALL_ENDED, 1000);
+
+        logger.info("Finished testHangupSkipsQueuedOperations");
+    }
+
+    /**
+     * A pool refusing the operations of a call, queued or not, marks the call
+     * manager unhealthy and the hangup still runs.
+     */
+    @Test
+    public void testSaturatedPool()
+        throws Exception
+    {
+        logger.info("Starting testSaturatedPool");
+
+        // a single thread, blocked by the first accept
+        CallManager.restartPool(new ThreadPoolExecutor(
+            1, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>()));
+
+        MockBasicTeleOpSet telephony = sipProvider.getTelephony();
+        MockCall call = (MockCall) telephony.createCall("calee", null);
+        MockCall otherCall = (MockCall) telephony.createCall("other", null);
+
+        CountDownLatch answering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        call.getCallPeers().next().addCallPeerListener(new CallPeerAdapter()
+        {
+            @Override
+            public void peerStateChanged(CallPeerChangeEvent evt)
+            {
+                if (CallPeerState.CONNECTED.equals(evt.getNewValue()) && answering.getCount() > 0)
+                {
+                    answering.countDown();
+                    try
+                    {
+                        release.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        CallManager.acceptCall(call);
+        assertTrue(answering.await(1, TimeUnit.SECONDS));
+
+        // queued behind the first accept, given to the pool once it ends
+        CallManager.acceptCall(call);
+        CallManager.hangupCall(call);
+        assertTrue(CallManager.isHealthy());
+
+        // refused right away
+        assertThrows(OperationFailedException.class, () -> CallManager.acceptCall(otherCall));
+        assertFalse(CallManager.isHealthy());
+
+        // the queued hangup is refused by the pool and runs in the hangup pool
+        release.countDown();
+        CallStateListener callStateWatch = new CallStateListener();
+        callStateWatch.waitForState(call, CallState.CALL_ENDED, 1000);
+
+        CallManager.hangupCall(otherCall);
+        callStateWatch.waitForState(otherCall, CallState.CALL_ENDED, 1000);
+
+        logger.info("Finished testSaturatedPool");
+    }
 }
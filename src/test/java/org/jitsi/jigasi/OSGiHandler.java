@@ -110,4 +110,9 @@ public class OSGiHandler
     {
         return ServiceUtils.getService(bc, SipGateway.class);
     }
+
+    public TranscriptionGateway getTranscriptionGateway()
+    {
+        return ServiceUtils.getService(bc, TranscriptionGateway.class);
+    }
 }
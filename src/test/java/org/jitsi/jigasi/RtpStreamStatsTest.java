@@ -0,0 +1,204 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the loss, jitter and MOS of the RTP stream stats over synthetic
+ * streams of 20ms packets at 8kHz.
+ */
+public class RtpStreamStatsTest
+{
+    private static final long SSRC = 0x12345678L;
+
+    private static final int PT = 0;
+
+    private static final long PACKET_NANOS = 20_000_000L;
+
+    private static final int PACKET_SAMPLES = 160;
+
+    private RtpStreamStats stats;
+
+    /**
+     * The arrival time of the next packet.
+     */
+    private long now;
+
+    @BeforeEach
+    public void setUp()
+    {
+        stats = new RtpStreamStats(() -> 8000);
+        now = 1_000_000_000L;
+    }
+
+    @Test
+    public void testNoLoss()
+    {
+        send(0, 100);
+
+        assertTrue(stats.report(1000));
+        assertEquals(0, stats.getLossRatio(), 0);
+        assertEquals(0, stats.getJitterMs(), 0.001);
+        assertEquals(RtpStreamStats.estimateMos(0, 0), stats.getMos(), 0);
+    }
+
+    @Test
+    public void testLoss()
+    {
+        // 10 of the 99 packets expected after the probation are lost
+        for (int seq = 0; seq < 100; seq++)
+        {
+            if (seq % 10 == 5)
+            {
+                now += PACKET_NANOS;
+                continue;
+            }
+            send(seq);
+        }
+
+        assertTrue(stats.report(1000));
+        assertEquals(10 / 99d, stats.getLossRatio(), 1e-9);
+        assertTrue(stats.getMos() < RtpStreamStats.estimateMos(0, 0));
+    }
+
+    @Test
+    public void testReordering()
+    {
+        send(0, 10);
+        send(11);
+        send(10);
+        send(12, 20);
+
+        assertTrue(stats.report(1000));
+        assertEquals(0, stats.getLossRatio(), 0);
+    }
+
+    @Test
+    public void testWrap()
+    {
+        send(65500, 65586);
+        assertTrue(stats.report(1000));
+        assertEquals(0, stats.getLossRatio(), 0);
+
+        // a loss after the wrap
+        send(65586, 65596);
+        send(65601, 65636);
+        assertTrue(stats.report(1000));
+        assertEquals(5 / 50d, stats.getLossRatio(), 1e-9);
+    }
+
+    @Test
+    public void testRestart()
+    {
+        send(1000, 1050);
+        stats.report(1000);
+
+        // the source restarts its sequence numbers, the first packet after
+        // the jump is only confirmed by the next one
+        send(30000, 30050);
+
+        assertTrue(stats.report(1000));
+        assertEquals(0, stats.getLossRatio(), 0);
+    }
+
+    @Test
+    public void testStrayPacketDoesNotRestart()
+    {
+        send(1000, 1050);
+        stats.report(1000);
+
+        // a single packet far ahead, then the sequence goes on
+        send(40000);
+        send(1050, 1060);
+        send(1070, 1100);
+
+        assertTrue(stats.report(1000));
+        assertEquals(10 / 50d, stats.getLossRatio(), 1e-9);
+    }
+
+    @Test
+    public void testProbation()
+    {
+        // out of sequence packets of a new source are not counted
+        send(100);
+        send(200);
+        send(300);
+        assertFalse(stats.report(1000));
+
+        send(301, 311);
+        assertTrue(stats.report(1000));
+        assertEquals(0, stats.getLossRatio(), 0);
+    }
+
+    @Test
+    public void testJitter()
+    {
+        // packets arrive alternately 5ms early and late
+        long start = now;
+        for (int seq = 0; seq < 500; seq++)
+        {
+            long offset = seq % 2 == 0 ? 0 : 5_000_000L;
+            stats.update(SSRC, seq, PT, (long) seq * PACKET_SAMPLES, start + seq * PACKET_NANOS + offset);
+        }
+
+        assertEquals(5, stats.getJitterMs(), 0.1);
+
+        assertTrue(stats.report(1000));
+        assertEquals(RtpStreamStats.estimateMos(stats.getJitterMs(), 0), stats.getMos(), 0);
+        assertTrue(stats.getMos() < RtpStreamStats.estimateMos(0, 0));
+    }
+
+    @Test
+    public void testMos()
+    {
+        double best = RtpStreamStats.estimateMos(0, 0);
+        assertTrue(best > 4.3 && best <= 4.5, "best MOS " + best);
+
+        assertTrue(RtpStreamStats.estimateMos(0, 0.05) < best);
+        assertTrue(RtpStreamStats.estimateMos(0, 0.2) < RtpStreamStats.estimateMos(0, 0.05));
+        assertTrue(RtpStreamStats.estimateMos(100, 0) < RtpStreamStats.estimateMos(20, 0));
+        assertEquals(1, RtpStreamStats.estimateMos(500, 1), 1e-9);
+    }
+
+    /**
+     * Sends the packets with the sequence numbers in a range, 20ms apart.
+     * @param from the first sequence number.
+     * @param to the sequence number after the last one.
+     */
+    private void send(int from, int to)
+    {
+        for (int seq = from; seq < to; seq++)
+        {
+            send(seq);
+        }
+    }
+
+    /**
+     * Sends a packet, 20ms after the previous one, with the timestamp of its
+     * sequence number.
+     * @param seq the sequence number, wrapped.
+     */
+    private void send(int seq)
+    {
+        stats.update(SSRC, seq & 0xFFFF, PT, (long) seq * PACKET_SAMPLES, now);
+        now += PACKET_NANOS;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.service.configuration.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Prepares what the benchmarks and the tests of single components need from
+ * a running jigasi without starting OSGi: a configuration service that
+ * returns the default value of every property, except the few overridden.
+ */
+public class TestEnvironment
+{
+    /**
+     * The properties that differ from the defaults.
+     */
+    private static final Map<String, Object> properties = new ConcurrentHashMap<>();
+
+    static
+    {
+        // the default translation service needs google cloud credentials when loaded
+        properties.put(
+            "org.jitsi.jigasi.transcription.translationService", LibreTranslateTranslationService.class.getName());
+    }
+
+    /**
+     * Installs the configuration service, if none is installed yet.
+     */
+    public static synchronized void init()
+    {
+        if (JigasiBundleActivator.getConfigurationService() != null)
+        {
+            return;
+        }
+
+        setConfigurationService((ConfigurationService) Proxy.newProxyInstance(
+            TestEnvironment.class.getClassLoader(),
+            new Class<?>[] { ConfigurationService.class },
+            TestEnvironment::getProperty));
+    }
+
+    /**
+     * Removes the installed configuration service, so that the next
+     * {@link #init()} installs this one even after a test started OSGi.
+     */
+    public static synchronized void reset()
+    {
+        setConfigurationService(null);
+    }
+
+    /**
+     * Overrides the default value of a string property.
+     * @param name the name of the property.
+     * @param value the value.
+     */
+    public static void setProperty(String name, Object value)
+    {
+        properties.put(name, value);
+    }
+
+    /**
+     * Sets the configuration service of jigasi.
+     */
+    private static void setConfigurationService(ConfigurationService cfg)
+    {
+        try
+        {
+            Field field = JigasiBundleActivator.class.getDeclaredField("configService");
+            field.setAccessible(true);
+            field.set(null, cfg);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Cannot install the configuration service", e);
+        }
+    }
+
+    /**
+     * Answers the property getters of the configuration service: the
+     * overridden value if any, otherwise the default passed by the caller.
+     */
+    private static Object getProperty(Object proxy, Method method, Object[] args)
+    {
+        Class<?> type = method.getReturnType();
+
+        if (args != null && args.length > 0 && args[0] instanceof String && method.getName().startsWith("get"))
+        {
+            Object value = properties.get(args[0]);
+            if (value != null && (type == Object.class || type == String.class))
+            {
+                return value;
+            }
+            if (args.length > 1)
+            {
+                return args[1];
+            }
+        }
+
+        if (type == boolean.class)
+        {
+            return false;
+        }
+        if (type == int.class)
+        {
+            return 0;
+        }
+        if (type == long.class)
+        {
+            return 0L;
+        }
+        if (type == double.class)
+        {
+            return 0d;
+        }
+        if (type == List.class)
+        {
+            return Collections.emptyList();
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates a proxy implementing the interface, answering the methods by
+     * name through the given function and the defaults of the return types
+     * otherwise, to stand in for the members, streams and rooms of a
+     * conference.
+     * @param iface the interface to implement.
+     * @param answers the value to return by method name, null for the default.
+     * @return the proxy.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T proxy(Class<T> iface, Function<String, Object> answers)
+    {
+        return (T) Proxy.newProxyInstance(
+            TestEnvironment.class.getClassLoader(),
+            new Class<?>[] { iface },
+            (proxy, method, args) ->
+            {
+                Object value = answers.apply(method.getName());
+                Class<?> type = method.getReturnType();
+                if (value instanceof Long && type == int.class)
+                {
+                    return ((Long) value).intValue();
+                }
+                if (value != null)
+                {
+                    return value;
+                }
+
+                if (type == boolean.class)
+                {
+                    return false;
+                }
+                if (type == int.class)
+                {
+                    return 0;
+                }
+                if (type == long.class)
+                {
+                    return 0L;
+                }
+
+                return null;
+            });
+    }
+}
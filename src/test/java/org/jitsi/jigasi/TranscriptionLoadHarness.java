@@ -0,0 +1,665 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.mock.muc.*;
+import org.jitsi.jigasi.transcription.*;
+import org.jitsi.utils.logging.*;
+import org.jxmpp.jid.impl.*;
+import org.osgi.framework.launch.*;
+
+import javax.media.Buffer;
+import javax.media.format.*;
+import javax.media.rtp.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Puts transcription load on a jigasi running on the mock protocol
+ * providers: starts a number of {@link TranscriptionGatewaySession}s, each
+ * in a room of a {@link MockJvbConferenceFocus} with a number of fake
+ * participants, which feed audio through
+ * {@link Transcriber#bufferReceived(ReceiveStream, Buffer)} at real-time
+ * pace. The transcriptions go to a {@link SttStubServer} through the Vosk
+ * service. Every interval it reports the cpu, heap, threads and garbage
+ * collections of the process and the percentiles of the time from giving
+ * the audio to getting its caption back.
+ *
+ * The arguments are <tt>key=value</tt> pairs: <tt>rooms</tt> (5),
+ * <tt>participants</tt> per room (4), <tt>duration</tt> in seconds (60),
+ * <tt>interval</tt> of the reports in seconds (10), <tt>utterance</tt> in
+ * milliseconds (3000) and <tt>pcm</tt>, a file of 16 bit mono audio at 48kHz
+ * to feed instead of generated noise. The audio is fed continuously, so
+ * with recordings containing long silences the silence filter makes the
+ * captions look late.
+ *
+ * Run it with <tt>mvn -Pload -DskipTests verify -Dload.args="rooms=20 participants=4"</tt>.
+ */
+public class TranscriptionLoadHarness
+{
+    /**
+     * The logger.
+     */
+    private final static Logger logger = Logger.getLogger(TranscriptionLoadHarness.class);
+
+    /**
+     * The milliseconds of audio in a frame.
+     */
+    private static final int FRAME_MS = 20;
+
+    /**
+     * The format of the fed audio.
+     */
+    private static final AudioFormat FORMAT = new AudioFormat(AudioFormat.LINEAR, 48000, 16, 1);
+
+    /**
+     * How long to wait for a session to start transcribing.
+     */
+    private static final long SESSION_START_TIMEOUT_MS = 10000;
+
+    /**
+     * The number of rooms.
+     */
+    private final int rooms;
+
+    /**
+     * The number of participants in every room.
+     */
+    private final int participantsPerRoom;
+
+    /**
+     * The duration of the load, in seconds.
+     */
+    private final int duration;
+
+    /**
+     * The interval of the reports, in seconds.
+     */
+    private final int interval;
+
+    /**
+     * The audio the participants feed, in whole frames.
+     */
+    private final byte[] pcm;
+
+    /**
+     * The stand-in speech-to-text server.
+     */
+    private final SttStubServer sttServer;
+
+    /**
+     * The participants feeding audio.
+     */
+    private final List<FakeParticipant> participants = new CopyOnWriteArrayList<>();
+
+    /**
+     * The participants by identifier, to match the captions.
+     */
+    private final Map<String, FakeParticipant> participantsById = new ConcurrentHashMap<>();
+
+    /**
+     * The mock focuses of the rooms.
+     */
+    private final List<MockJvbConferenceFocus> focuses = new ArrayList<>();
+
+    /**
+     * The caption latencies of the current interval.
+     */
+    private final LatencyRecorder intervalLatencies = new LatencyRecorder();
+
+    /**
+     * The caption latencies of the whole run.
+     */
+    private final LatencyRecorder totalLatencies = new LatencyRecorder();
+
+    /**
+     * The process resources at the previous report.
+     */
+    private ResourceSample lastSample;
+
+    /**
+     * Runs the harness.
+     * @param args the <tt>key=value</tt> arguments.
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (eq <= 0)
+            {
+                System.err.println("Ignoring argument " + arg + ", expected key=value");
+                continue;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        int exitCode = 0;
+        try
+        {
+            new TranscriptionLoadHarness(options).run();
+        }
+        catch (Exception e)
+        {
+            logger.error("Load run failed", e);
+            exitCode = 1;
+        }
+
+        // the osgi framework and the libraries leave non daemon threads behind
+        System.exit(exitCode);
+    }
+
+    /**
+     * Creates the harness.
+     * @param options the arguments of the run.
+     */
+    private TranscriptionLoadHarness(Map<String, String> options)
+        throws Exception
+    {
+        rooms = Integer.parseInt(options.getOrDefault("rooms", "5"));
+        participantsPerRoom = Integer.parseInt(options.getOrDefault("participants", "4"));
+        duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        interval = Integer.parseInt(options.getOrDefault("interval", "10"));
+        int utteranceMs = Integer.parseInt(options.getOrDefault("utterance", "3000"));
+        pcm = loadPcm(options.get("pcm"));
+
+        sttServer = new SttStubServer(Math.max(1, utteranceMs / FRAME_MS));
+    }
+
+    /**
+     * Starts everything, feeds audio for the duration and reports.
+     */
+    private void run()
+        throws Exception
+    {
+        sttServer.start();
+
+        System.setProperty(JigasiBundleActivator.P_NAME_ENABLE_TRANSCRIPTION, "true");
+        System.setProperty(
+            "org.jitsi.jigasi.transcription.customService", VoskTranscriptionService.class.getName());
+        System.setProperty(VoskTranscriptionService.WEBSOCKET_URL, sttServer.getUri().toString());
+
+        OSGiHandler osgi = new OSGiHandler();
+        Framework framework = osgi.init();
+
+        TranscriptionGateway gateway = osgi.getTranscriptionGateway();
+        if (gateway == null)
+        {
+            throw new IllegalStateException("The transcription gateway did not start");
+        }
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r ->
+        {
+            Thread t = new Thread(r, "load-harness");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try
+        {
+            for (int i = 0; i < rooms; i++)
+            {
+                startRoom(gateway, "load" + i + "@conference.net", i);
+            }
+
+            System.out.println(
+                "Feeding " + participants.size() + " participants in " + rooms + " rooms for " + duration + "s");
+
+            lastSample = ResourceSample.take();
+            long start = System.nanoTime();
+
+            scheduler.scheduleAtFixedRate(() ->
+            {
+                for (FakeParticipant p : participants)
+                {
+                    p.feed();
+                }
+            }, 0, FRAME_MS, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(
+                () -> report(start), interval, interval, TimeUnit.SECONDS);
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        }
+        finally
+        {
+            scheduler.shutdownNow();
+
+            for (MockJvbConferenceFocus focus : focuses)
+            {
+                focus.tearDown();
+            }
+
+            framework.stop();
+            sttServer.stop();
+        }
+
+        printSummary();
+    }
+
+    /**
+     * Starts a transcription session in a room and adds its participants.
+     * @param gateway the transcription gateway.
+     * @param roomName the name of the room.
+     * @param roomIndex the index of the room, making the identifiers unique.
+     */
+    private void startRoom(TranscriptionGateway gateway, String roomName, int roomIndex)
+        throws Exception
+    {
+        // the focus joins the room of the next xmpp provider, so the rooms are created one by one
+        MockJvbConferenceFocus focus = new MockJvbConferenceFocus(roomName);
+        focus.setup();
+        focuses.add(focus);
+
+        CallContext ctx = new CallContext(this);
+        ctx.setRoomName(roomName);
+        ctx.setCustomCallResource(JidCreate.from("transcriber" + roomIndex + "@conference.net"));
+
+        TranscriptionGatewaySession session = gateway.createOutgoingCall(ctx);
+        Transcriber transcriber = session.getTranscriber();
+
+        long deadline = System.currentTimeMillis() + SESSION_START_TIMEOUT_MS;
+        while (focus.getChatRoom() == null || !transcriber.isTranscribing())
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                throw new TimeoutException("Transcriber did not start in " + roomName);
+            }
+            Thread.sleep(50);
+        }
+
+        // keep the focus from inviting the fake participants to calls of their own
+        MockMultiUserChat chatRoom = focus.getChatRoom();
+        chatRoom.removeMemberPresenceListener(focus);
+        session.setBackendTranscribingEnabled(true);
+
+        transcriber.addTranscriptionListener(new TranscriptionListener()
+        {
+            @Override
+            public void notify(TranscriptionResult result)
+            {
+                onResult(result);
+            }
+
+            @Override
+            public void completed()
+            {
+            }
+
+            @Override
+            public void failed(FailureReason reason)
+            {
+                logger.error("Transcription failed in " + roomName + ": " + reason);
+            }
+        });
+
+        for (int i = 0; i < participantsPerRoom; i++)
+        {
+            String id = "participant" + roomIndex + "-" + i;
+            long ssrc = roomIndex * 1000L + i + 1;
+
+            chatRoom.mockJoin(new MockRoomMember(id, chatRoom));
+            transcriber.updateParticipant(id, TestEnvironment.proxy(ConferenceMember.class, method ->
+            {
+                switch (method)
+                {
+                case "getAudioSsrc":
+                    return ssrc;
+                case "getAddress":
+                    return roomName + "/" + id;
+                case "getDisplayName":
+                    return id;
+                default:
+                    return null;
+                }
+            }));
+            transcriber.updateParticipantSourceLanguage(id, "en");
+
+            FakeParticipant participant = new FakeParticipant(
+                transcriber, TestEnvironment.proxy(ReceiveStream.class, method -> "getSSRC".equals(method) ? ssrc : null),
+                // spread the participants over the recording
+                (int) ((long) participants.size() * 7919 * SttStubServer.FRAME_LENGTH % pcm.length));
+            participants.add(participant);
+            participantsById.put(id, participant);
+        }
+    }
+
+    /**
+     * Records the latency of a final caption.
+     * @param result the transcription result.
+     */
+    private void onResult(TranscriptionResult result)
+    {
+        if (result.isInterim() || result.getParticipant() == null || result.getAlternatives().isEmpty())
+        {
+            return;
+        }
+
+        FakeParticipant participant = participantsById.get(result.getParticipant().getId());
+        String text = result.getAlternatives().iterator().next().getTranscription();
+        if (participant == null || text == null || !text.startsWith(SttStubServer.CAPTION_PREFIX))
+        {
+            return;
+        }
+
+        int sequence = Integer.parseInt(text.substring(SttStubServer.CAPTION_PREFIX.length()).trim());
+        long latency = participant.latencyNanos(sequence);
+        if (latency >= 0)
+        {
+            intervalLatencies.add(latency);
+            totalLatencies.add(latency);
+        }
+    }
+
+    /**
+     * Prints the resources used and the latencies of the last interval.
+     * @param start when the feeding started.
+     */
+    private void report(long start)
+    {
+        ResourceSample sample = ResourceSample.take();
+        long[] latencies = intervalLatencies.drain();
+
+        System.out.println(String.format(
+            "t=%3ds cpu=%5.1f%% heap=%5dMB threads=%4d gc=%3d/%5dms stt=%d connections %dKB "
+                + "captions=%5d latency p50=%s p90=%s p99=%s max=%s",
+            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+            sample.cpuPercent(lastSample),
+            sample.heapUsed >> 20,
+            sample.threads,
+            sample.gcCount - lastSample.gcCount,
+            sample.gcMillis - lastSample.gcMillis,
+            sttServer.getConnections(),
+            sttServer.getReceivedBytes() >> 10,
+            latencies.length,
+            percentile(latencies, 50),
+            percentile(latencies, 90),
+            percentile(latencies, 99),
+            percentile(latencies, 100)));
+
+        lastSample = sample;
+    }
+
+    /**
+     * Prints the latencies of the whole run.
+     */
+    private void printSummary()
+    {
+        long[] latencies = totalLatencies.drain();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        System.out.println(String.format(
+            "rooms=%d participants=%d captions=%d peak threads=%d latency p50=%s p90=%s p99=%s p99.9=%s max=%s",
+            rooms, participants.size(), latencies.length, threads.getPeakThreadCount(),
+            percentile(latencies, 50),
+            percentile(latencies, 90),
+            percentile(latencies, 99),
+            percentile(latencies, 99.9),
+            percentile(latencies, 100)));
+    }
+
+    /**
+     * @param sorted the sorted latencies, in nanoseconds.
+     * @param percent the percentile.
+     * @return the percentile in milliseconds, or "-" without latencies.
+     */
+    private static String percentile(long[] sorted, double percent)
+    {
+        if (sorted.length == 0)
+        {
+            return "-";
+        }
+
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(index, sorted.length - 1))]) + "ms";
+    }
+
+    /**
+     * Loads the audio to feed, trimmed to whole frames, or generates noise
+     * loud enough to pass the silence filter.
+     * @param file the raw audio, or a wav file, null for noise.
+     * @return the audio.
+     */
+    private static byte[] loadPcm(String file)
+        throws Exception
+    {
+        byte[] audio;
+        if (file == null)
+        {
+            audio = new byte[10 * 1000 / FRAME_MS * SttStubServer.FRAME_LENGTH];
+            new Random(1).nextBytes(audio);
+        }
+        else
+        {
+            audio = Files.readAllBytes(Paths.get(file));
+            if (audio.length > 44 && audio[0] == 'R' && audio[1] == 'I' && audio[2] == 'F' && audio[3] == 'F')
+            {
+                audio = Arrays.copyOfRange(audio, 44, audio.length);
+            }
+        }
+
+        int length = audio.length - audio.length % SttStubServer.FRAME_LENGTH;
+        if (length == 0)
+        {
+            throw new IllegalArgumentException("Less than a frame of audio in " + file);
+        }
+
+        return Arrays.copyOf(audio, length);
+    }
+
+    /**
+     * A participant feeding stamped frames of the recording and remembering
+     * when each was given to the transcriber.
+     */
+    private class FakeParticipant
+    {
+        /**
+         * The number of frames whose feeding time is remembered, a power of two.
+         */
+        private static final int HISTORY = 1 << 13;
+
+        /**
+         * The transcriber of the room.
+         */
+        private final Transcriber transcriber;
+
+        /**
+         * The audio stream of the participant.
+         */
+        private final ReceiveStream stream;
+
+        /**
+         * When the recent frames were fed, by sequence.
+         */
+        private final AtomicLongArray fedAt = new AtomicLongArray(HISTORY);
+
+        /**
+         * The position in the recording.
+         */
+        private int offset;
+
+        /**
+         * The sequence of the next frame.
+         */
+        private volatile int sequence = 0;
+
+        FakeParticipant(Transcriber transcriber, ReceiveStream stream, int offset)
+        {
+            this.transcriber = transcriber;
+            this.stream = stream;
+            this.offset = offset;
+        }
+
+        /**
+         * Gives the next frame to the transcriber.
+         */
+        void feed()
+        {
+            // the transcriber keeps the array until it is sent, so every frame gets its own
+            byte[] frame = Arrays.copyOfRange(pcm, offset, offset + SttStubServer.FRAME_LENGTH);
+            offset = (offset + SttStubServer.FRAME_LENGTH) % pcm.length;
+
+            int seq = sequence;
+            SttStubServer.stamp(frame, seq);
+
+            Buffer buffer = new Buffer();
+            buffer.setData(frame);
+            buffer.setLength(frame.length);
+            buffer.setFormat(FORMAT);
+
+            fedAt.set(seq & (HISTORY - 1), System.nanoTime());
+            sequence = seq + 1;
+            transcriber.bufferReceived(stream, buffer);
+        }
+
+        /**
+         * @param seq the sequence of the last frame of a caption.
+         * @return the nanoseconds since the frame was fed, or -1 when forgotten.
+         */
+        long latencyNanos(int seq)
+        {
+            if (seq < 0 || seq >= sequence || sequence - seq > HISTORY)
+            {
+                return -1;
+            }
+
+            return System.nanoTime() - fedAt.get(seq & (HISTORY - 1));
+        }
+    }
+
+    /**
+     * Collects latencies from the threads delivering the captions.
+     */
+    private static class LatencyRecorder
+    {
+        /**
+         * The latencies since the last drain, in nanoseconds.
+         */
+        private long[] values = new long[1024];
+
+        /**
+         * The number of latencies since the last drain.
+         */
+        private int size = 0;
+
+        /**
+         * Records a latency.
+         * @param nanos the latency in nanoseconds.
+         */
+        synchronized void add(long nanos)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        /**
+         * @return the sorted latencies since the last drain, which are forgotten.
+         */
+        synchronized long[] drain()
+        {
+            long[] sorted = Arrays.copyOf(values, size);
+            size = 0;
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * The resources used by the process at some point.
+     */
+    private static class ResourceSample
+    {
+        /**
+         * When the sample was taken.
+         */
+        final long nanoTime = System.nanoTime();
+
+        /**
+         * The cpu time used by the process, -1 when not supported.
+         */
+        long cpuNanos = -1;
+
+        /**
+         * The used heap.
+         */
+        long heapUsed;
+
+        /**
+         * The live threads.
+         */
+        int threads;
+
+        /**
+         * The garbage collections so far.
+         */
+        long gcCount;
+
+        /**
+         * The time spent in garbage collections so far.
+         */
+        long gcMillis;
+
+        /**
+         * @return the resources used now.
+         */
+        static ResourceSample take()
+        {
+            ResourceSample sample = new ResourceSample();
+
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+            {
+                sample.cpuNanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            }
+
+            sample.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            sample.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                sample.gcCount += Math.max(0, gc.getCollectionCount());
+                sample.gcMillis += Math.max(0, gc.getCollectionTime());
+            }
+
+            return sample;
+        }
+
+        /**
+         * @param previous an earlier sample.
+         * @return the cpu used since the earlier sample, in percent of all processors.
+         */
+        double cpuPercent(ResourceSample previous)
+        {
+            long wall = nanoTime - previous.nanoTime;
+            if (cpuNanos < 0 || previous.cpuNanos < 0 || wall <= 0)
+            {
+                return -1;
+            }
+
+            return (cpuNanos - previous.cpuNanos) * 100.0 / wall / Runtime.getRuntime().availableProcessors();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import org.jitsi.utils.*;
+import org.json.simple.*;
+import org.json.simple.parser.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the filters and the paging of the debug state.
+ */
+public class DebugStateWriterTest
+{
+    private SortedMap<String, List<DebugStateWriter.Entry>> gateways;
+
+    @BeforeEach
+    public void setUp()
+    {
+        gateways = new TreeMap<>();
+
+        // the transcription sessions all have the same display name
+        gateways.put("1", List.of(
+            entry("1/a", "Transcriber", "transcription", "in-room", "RoomA@conference.example.com"),
+            entry("1/b", "Transcriber", "transcription", "joining", "roomb@conference.example.com"),
+            entry("1/c", "Transcriber", "transcription", "in-room", "roomc@conference.example.com")));
+        gateways.put("2", List.of(
+            entry("2/a", "+15551234", "sip", "in-room", "rooma@conference.example.com"),
+            entry("2/b", "+15555678", "sip", "pending", null)));
+    }
+
+    @Test
+    public void testSessionsKeyedById()
+        throws Exception
+    {
+        JSONObject debugState = write(new DebugStateWriter(null, null, null, null, DebugStateWriter.DEFAULT_LIMIT));
+
+        JSONObject sessions = getSessions(debugState, "1");
+        assertEquals(Set.of("1/a", "1/b", "1/c"), sessions.keySet());
+        assertEquals("Transcriber", ((JSONObject) sessions.get("1/b")).get("displayName"));
+        assertEquals("joining", ((JSONObject) sessions.get("1/b")).get("state"));
+        assertEquals(Set.of("2/a", "2/b"), getSessions(debugState, "2").keySet());
+        assertNull(debugState.get("next"));
+    }
+
+    @Test
+    public void testFilters()
+        throws Exception
+    {
+        assertEquals(List.of("2/a", "2/b"), getIds(write(new DebugStateWriter(null, "sip", null, null, 10))));
+        assertEquals(List.of("1/a", "1/c", "2/a"),
+            getIds(write(new DebugStateWriter(null, null, "in-room", null, 10))));
+        assertEquals(List.of("1/a", "2/a"), getIds(write(new DebugStateWriter("ROOMA", null, null, null, 10))));
+        assertEquals(List.of("1/a"),
+            getIds(write(new DebugStateWriter("rooma", "transcription", "in-room", null, 10))));
+        assertEquals(List.of(), getIds(write(new DebugStateWriter(null, "sip", "joining", null, 10))));
+    }
+
+    @Test
+    public void testPaging()
+        throws Exception
+    {
+        List<String> ids = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = null;
+        do
+        {
+            JSONObject page = write(new DebugStateWriter(null, null, null, cursor, 2));
+            List<String> pageIds = getIds(page);
+            ids.addAll(pageIds);
+            pageSizes.add(pageIds.size());
+
+            cursor = (String) page.get("next");
+            if (cursor != null)
+            {
+                assertEquals(pageIds.get(pageIds.size() - 1), cursor);
+            }
+        }
+        while (cursor != null);
+
+        assertEquals(List.of("1/a", "1/b", "1/c", "2/a", "2/b"), ids);
+        assertEquals(List.of(2, 2, 1), pageSizes);
+    }
+
+    @Test
+    public void testPagingWithFilter()
+        throws Exception
+    {
+        JSONObject first = write(new DebugStateWriter(null, null, "in-room", null, 2));
+        assertEquals(List.of("1/a", "1/c"), getIds(first));
+        assertEquals("1/c", first.get("next"));
+
+        JSONObject second = write(new DebugStateWriter(null, null, "in-room", "1/c", 2));
+        assertEquals(List.of("2/a"), getIds(second));
+        assertNull(second.get("next"));
+    }
+
+    @Test
+    public void testFailingSessionIsWritten()
+        throws Exception
+    {
+        gateways.put("3", List.of(new DebugStateWriter.Entry("3/a", "x", "sip", "stopped", null, () ->
+        {
+            throw new IllegalStateException("ended");
+        })));
+
+        JSONObject session = (JSONObject) getSessions(write(new DebugStateWriter(null, null, null, null, 10)), "3")
+            .get("3/a");
+        assertEquals("stopped", session.get("state"));
+        assertTrue(((String) session.get("error")).contains("ended"));
+    }
+
+    private static DebugStateWriter.Entry entry(String id, String displayName, String type, String state, String room)
+    {
+        return new DebugStateWriter.Entry(id, displayName, type, state, room, OrderedJsonObject::new);
+    }
+
+    private JSONObject write(DebugStateWriter writer)
+        throws IOException, ParseException
+    {
+        StringWriter out = new StringWriter();
+        writer.write(gateways, out);
+
+        return (JSONObject) new JSONParser().parse(out.toString());
+    }
+
+    private static JSONObject getSessions(JSONObject debugState, String gateway)
+    {
+        return (JSONObject) ((JSONObject) ((JSONObject) debugState.get("gateways")).get(gateway)).get("sessions");
+    }
+
+    /**
+     * @return the ids of the sessions of a page, in order.
+     */
+    private List<String> getIds(JSONObject debugState)
+    {
+        List<String> ids = new ArrayList<>();
+        for (String gateway : gateways.keySet())
+        {
+            for (Object id : getSessions(debugState, gateway).keySet())
+            {
+                ids.add((String) id);
+            }
+        }
+        Collections.sort(ids);
+
+        return ids;
+    }
+}
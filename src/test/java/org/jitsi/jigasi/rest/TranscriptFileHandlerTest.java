@@ -0,0 +1,54 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.rest;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the parsing of the byte ranges of the transcript files.
+ */
+public class TranscriptFileHandlerTest
+{
+    @Test
+    public void testRanges()
+    {
+        assertArrayEquals(new long[] { 0, 99 }, TranscriptFileHandler.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] { 500, 999 }, TranscriptFileHandler.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] { 900, 999 }, TranscriptFileHandler.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 0, 999 }, TranscriptFileHandler.parseRange("bytes=-5000", 1000));
+        assertArrayEquals(new long[] { 990, 999 }, TranscriptFileHandler.parseRange("bytes=990-5000", 1000));
+    }
+
+    @Test
+    public void testUnsatisfiableRanges()
+    {
+        assertEquals(0, TranscriptFileHandler.parseRange("bytes=1000-", 1000).length);
+        assertEquals(0, TranscriptFileHandler.parseRange("bytes=-0", 1000).length);
+    }
+
+    @Test
+    public void testIgnoredRanges()
+    {
+        assertNull(TranscriptFileHandler.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(TranscriptFileHandler.parseRange("bytes=9-1", 1000));
+        assertNull(TranscriptFileHandler.parseRange("bytes=a-b", 1000));
+        assertNull(TranscriptFileHandler.parseRange("items=0-1", 1000));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ring buffer of the live captions of a room.
+ */
+public class CaptionStreamTest
+{
+    @Test
+    public void testFramesAreEncodedOnce()
+    {
+        CaptionStream stream = new CaptionStream(4);
+        stream.append(CaptionStream.EVENT_TRANSCRIPTION, "{\"text\":\"hello\"}");
+
+        CaptionStream.Frame frame = stream.get(0);
+        assertNotNull(frame);
+        assertEquals("id: 0\nevent: transcription\ndata: {\"text\":\"hello\"}\n\n",
+            new String(frame.getBytes(), StandardCharsets.UTF_8));
+        assertSame(frame.getBytes(), stream.get(0).getBytes());
+        assertNull(stream.get(1));
+    }
+
+    @Test
+    public void testOldFramesAreOverwritten()
+    {
+        CaptionStream stream = new CaptionStream(4);
+        for (int i = 0; i < 10; i++)
+        {
+            stream.append(CaptionStream.EVENT_TRANSCRIPTION, "{}");
+        }
+
+        assertEquals(10, stream.getNextSequence());
+        assertEquals(6, stream.getOldestSequence());
+        assertNull(stream.get(5));
+        for (long sequence = 6; sequence < 10; sequence++)
+        {
+            assertEquals(sequence, stream.get(sequence).getSequence());
+        }
+    }
+
+    @Test
+    public void testEndWakesListenersOnce()
+    {
+        CaptionStream stream = new CaptionStream(4);
+        AtomicInteger wakes = new AtomicInteger();
+        stream.addListener(wakes::incrementAndGet);
+
+        stream.append(CaptionStream.EVENT_TRANSLATION, "{}");
+        stream.end();
+        stream.append(CaptionStream.EVENT_TRANSCRIPTION, "{}");
+        stream.end();
+
+        assertTrue(stream.isEnded());
+        assertEquals(2, stream.getNextSequence());
+        assertEquals(2, wakes.get());
+    }
+}
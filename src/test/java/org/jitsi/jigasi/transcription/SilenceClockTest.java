@@ -0,0 +1,123 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the shared clock of the silence streams.
+ */
+public class SilenceClockTest
+{
+    @Test
+    public void testSlowStreamDoesNotDelayTheOthers()
+        throws Exception
+    {
+        SilenceClock clock = new SilenceClock(TimeUnit.MILLISECONDS.toNanos(10), 2);
+        AtomicInteger fastTicks = new AtomicInteger();
+        AtomicInteger slowTicks = new AtomicInteger();
+
+        SilenceClock.Registration fast = clock.register(fastTicks::incrementAndGet);
+        SilenceClock.Registration slow = clock.register(() ->
+        {
+            slowTicks.incrementAndGet();
+            sleep(50);
+        });
+
+        Thread.sleep(500);
+        fast.cancel();
+        slow.cancel();
+
+        // about 50 ticks, whatever the slow stream does
+        assertTrue(fastTicks.get() >= 25, "fast stream ticked " + fastTicks.get() + " times");
+        assertTrue(slowTicks.get() > 0 && slowTicks.get() < fastTicks.get());
+    }
+
+    @Test
+    public void testBlockedStreamsDoNotStopTheOthers()
+        throws Exception
+    {
+        SilenceClock clock = new SilenceClock(TimeUnit.MILLISECONDS.toNanos(10), 2);
+        AtomicInteger fastTicks = new AtomicInteger();
+        CountDownLatch unblock = new CountDownLatch(1);
+
+        // more streams blocking than threads, as when connecting to a dead backend
+        List<SilenceClock.Registration> blocked = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            blocked.add(clock.register(() -> await(unblock)));
+        }
+        SilenceClock.Registration fast = clock.register(fastTicks::incrementAndGet);
+
+        Thread.sleep(500);
+        int ticked = fastTicks.get();
+        unblock.countDown();
+        fast.cancel();
+        blocked.forEach(SilenceClock.Registration::cancel);
+
+        assertTrue(ticked >= 25, "fast stream ticked " + ticked + " times");
+    }
+
+    @Test
+    public void testNoTickAfterCancel()
+        throws Exception
+    {
+        SilenceClock clock = new SilenceClock(TimeUnit.MILLISECONDS.toNanos(5), 1);
+        AtomicInteger ticks = new AtomicInteger();
+
+        SilenceClock.Registration registration = clock.register(ticks::incrementAndGet);
+        Thread.sleep(100);
+        registration.cancel();
+
+        int cancelledAt = ticks.get();
+        Thread.sleep(50);
+
+        assertTrue(cancelledAt > 0);
+        assertEquals(cancelledAt, ticks.get());
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the attribution of time ranges to the ssrcs speaking, over
+ * synthetic speech overlapping.
+ */
+public class SpeakerTimelineTest
+{
+    private static final long START = 1_700_000_000_000L;
+
+    private static final long A = 1111;
+
+    private static final long B = 2222;
+
+    private static final long C = 3333;
+
+    private SpeakerTimeline timeline;
+
+    @BeforeEach
+    public void setUp()
+    {
+        timeline = new SpeakerTimeline(SpeakerTimeline.DEFAULT_FRAMES);
+    }
+
+    @Test
+    public void testSingleSpeaker()
+    {
+        speak(A, 0, 2000, 3000);
+
+        assertEquals(A, timeline.getDominantSsrc(START, START + 2000));
+        assertEquals(-1, timeline.getDominantSsrc(START + 2000, START + 4000));
+    }
+
+    @Test
+    public void testOverlappingSpeakers()
+    {
+        // A speaks 0-3s, B interrupts at 2s and goes on till 6s
+        speak(A, 0, 3000, 3000);
+        speak(B, 2000, 6000, 3000);
+
+        assertEquals(A, timeline.getDominantSsrc(START, START + 3000));
+        assertEquals(B, timeline.getDominantSsrc(START + 2000, START + 6000));
+        assertEquals(B, timeline.getDominantSsrc(START, START + 6000));
+    }
+
+    @Test
+    public void testLouderSpeakerWinsTheOverlap()
+    {
+        speak(A, 0, 2000, 1000);
+        speak(B, 0, 2000, 4000);
+
+        assertEquals(B, timeline.getDominantSsrc(START, START + 2000));
+    }
+
+    @Test
+    public void testSilenceIsIgnored()
+    {
+        // C is background noise all along, A speaks for half a second
+        speak(C, 0, 4000, 50);
+        speak(A, 1000, 1500, 2000);
+
+        assertEquals(A, timeline.getDominantSsrc(START, START + 4000));
+    }
+
+    @Test
+    public void testCrowdKeepsTheLoudest()
+    {
+        // the frames are full when A speaks
+        for (long ssrc = 100; ssrc < 120; ssrc++)
+        {
+            speak(ssrc, 0, 1000, 500);
+        }
+        speak(A, 0, 1000, 8000);
+
+        assertEquals(A, timeline.getDominantSsrc(START, START + 1000));
+    }
+
+    @Test
+    public void testOldFramesAreForgotten()
+    {
+        long length = SpeakerTimeline.DEFAULT_FRAMES * SpeakerTimeline.FRAME_MS;
+        speak(A, 0, 1000, 3000);
+        speak(B, length, length + 1000, 1000);
+
+        assertEquals(B, timeline.getDominantSsrc(START, START + length + 1000));
+        assertEquals(-1, timeline.getDominantSsrc(START, START + 1000));
+    }
+
+    /**
+     * Records the speech of a ssrc, a packet of 20ms at a time.
+     * @param ssrc the ssrc speaking.
+     * @param fromMillis when it starts speaking, after {@link #START}.
+     * @param toMillis when it stops speaking, after {@link #START}.
+     * @param amplitude the amplitude of its samples.
+     */
+    private void speak(long ssrc, long fromMillis, long toMillis, int amplitude)
+    {
+        Random random = new Random(ssrc);
+        byte[] audio = new byte[1920];
+        for (long time = fromMillis; time < toMillis; time += SpeakerTimeline.FRAME_MS)
+        {
+            for (int i = 0; i < audio.length; i += 2)
+            {
+                int sample = random.nextBoolean() ? amplitude : -amplitude;
+                audio[i] = (byte) sample;
+                audio[i + 1] = (byte) (sample >> 8);
+            }
+            timeline.record(ssrc, audio, START + time);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import org.jitsi.jigasi.*;
+import org.jitsi.utils.logging2.*;
+import org.junit.jupiter.api.*;
+
+import javax.media.Buffer;
+import javax.media.format.*;
+import javax.media.rtp.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Streams audio through the Vosk and Whisper services to a
+ * {@link SttStubServer} and checks the captions come back, also when the
+ * server misbehaves. It uses real sockets and waits for the results, so it
+ * runs with the load harness (<tt>mvn -Pload verify</tt>) rather than with
+ * the unit tests.
+ */
+@Tag("load")
+public class StreamingTranscriptionTest
+{
+    /**
+     * The frames of an utterance, a final result every half a second of audio.
+     */
+    private static final int UTTERANCE_FRAMES = 25;
+
+    /**
+     * How long to wait for the expected results.
+     */
+    private static final long TIMEOUT_MS = 15000;
+
+    /**
+     * The format of the audio.
+     */
+    private static final AudioFormat FORMAT = new AudioFormat(AudioFormat.LINEAR, 48000, 16, 1);
+
+    /**
+     * The stand-in speech-to-text server.
+     */
+    private static SttStubServer server;
+
+    /**
+     * The transcriber of the current test.
+     */
+    private Transcriber transcriber;
+
+    /**
+     * The results received by the current test.
+     */
+    private final List<TranscriptionResult> results = new CopyOnWriteArrayList<>();
+
+    @BeforeAll
+    public static void startServer()
+        throws Exception
+    {
+        server = new SttStubServer(UTTERANCE_FRAMES);
+        server.start();
+
+        TestEnvironment.reset();
+        TestEnvironment.setProperty(VoskTranscriptionService.WEBSOCKET_URL, server.getUri().toString());
+        TestEnvironment.setProperty(WhisperWebsocket.WEBSOCKET_URL, server.getWhisperUri().toString());
+        TestEnvironment.init();
+    }
+
+    @AfterAll
+    public static void stopServer()
+        throws Exception
+    {
+        server.stop();
+        TestEnvironment.reset();
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        if (transcriber != null)
+        {
+            transcriber.stop(null);
+        }
+
+        server.setPartialFrames(0);
+        server.setResultLatencyMs(0);
+        server.setErrorRate(0);
+        server.setDisconnectAfterFrames(0);
+        server.setSlowConsumerMs(0);
+    }
+
+    @Test
+    public void testVoskResults()
+        throws Exception
+    {
+        server.setPartialFrames(5);
+        server.setResultLatencyMs(20);
+
+        startTranscriber(new VoskTranscriptionService());
+        feedUntil(() -> finals() >= 2);
+
+        assertTrue(results.stream().anyMatch(TranscriptionResult::isInterim), "no partial results");
+        assertCaptionsInOrder();
+    }
+
+    @Test
+    public void testWhisperResults()
+        throws Exception
+    {
+        server.setPartialFrames(5);
+
+        startTranscriber(new WhisperTranscriptionService());
+        feedUntil(() -> finals() >= 2);
+
+        assertTrue(results.stream().anyMatch(TranscriptionResult::isInterim), "no partial results");
+        assertCaptionsInOrder();
+    }
+
+    @Test
+    public void testVoskReconnectsAfterDisconnect()
+        throws Exception
+    {
+        startTranscriber(new VoskTranscriptionService());
+        feedUntil(() -> finals() >= 1);
+
+        int connections = server.getConnections();
+        int finalsBefore = finals();
+        server.setDisconnectAfterFrames(2 * UTTERANCE_FRAMES);
+
+        feedUntil(() -> server.getInjectedDisconnects() >= 1 && server.getConnections() > connections);
+        server.setDisconnectAfterFrames(0);
+        feedUntil(() -> finals() > finalsBefore + 2);
+    }
+
+    @Test
+    public void testMalformedResultsAreSkipped()
+        throws Exception
+    {
+        server.setErrorRate(0.5);
+
+        startTranscriber(new VoskTranscriptionService());
+        feedUntil(() -> server.getInjectedErrors() >= 1 && finals() >= 2);
+
+        assertCaptionsInOrder();
+    }
+
+    /**
+     * Starts a transcriber on the service, with one participant.
+     */
+    private void startTranscriber(AbstractTranscriptionService service)
+    {
+        transcriber = new Transcriber("stub", "https://localhost/stub", service, new CallContext(this),
+            new LoggerImpl(StreamingTranscriptionTest.class.getName()));
+        transcriber.addTranscriptionListener(new TranscriptionListener()
+        {
+            @Override
+            public void notify(TranscriptionResult result)
+            {
+                results.add(result);
+            }
+
+            @Override
+            public void completed()
+            {
+            }
+
+            @Override
+            public void failed(FailureReason reason)
+            {
+            }
+        });
+        transcriber.start();
+
+        ChatRoom room = TestEnvironment.proxy(ChatRoom.class,
+            method -> "getIdentifier".equals(method) ? "stub@conference.net" : null);
+        transcriber.updateParticipant("speaker", TestEnvironment.proxy(ChatRoomMember.class, method ->
+        {
+            switch (method)
+            {
+            case "getName":
+                return "speaker";
+            case "getChatRoom":
+                return room;
+            default:
+                return null;
+            }
+        }));
+        transcriber.updateParticipant("speaker", TestEnvironment.proxy(ConferenceMember.class,
+            method -> "getAudioSsrc".equals(method) ? 1L : null));
+        transcriber.updateParticipantSourceLanguage("speaker", "en");
+        transcriber.participantJoined("speaker");
+    }
+
+    /**
+     * Feeds stamped frames of noise, faster than real-time, until the
+     * condition holds.
+     */
+    private void feedUntil(BooleanSupplier condition)
+        throws InterruptedException
+    {
+        ReceiveStream stream = TestEnvironment.proxy(ReceiveStream.class,
+            method -> "getSSRC".equals(method) ? 1L : null);
+        Random random = new Random(1);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        int sequence = 0;
+        while (!condition.getAsBoolean())
+        {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for the results");
+
+            byte[] frame = new byte[SttStubServer.FRAME_LENGTH];
+            random.nextBytes(frame);
+            SttStubServer.stamp(frame, sequence++);
+
+            Buffer buffer = new Buffer();
+            buffer.setData(frame);
+            buffer.setLength(frame.length);
+            buffer.setFormat(FORMAT);
+            transcriber.bufferReceived(stream, buffer);
+
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * @return the number of final results received.
+     */
+    private int finals()
+    {
+        return (int) results.stream().filter(r -> !r.isInterim()).count();
+    }
+
+    /**
+     * Checks the final captions carry growing sequences.
+     */
+    private void assertCaptionsInOrder()
+    {
+        int last = -1;
+        for (TranscriptionResult result : results)
+        {
+            if (result.isInterim())
+            {
+                continue;
+            }
+
+            String text = result.getAlternatives().iterator().next().getTranscription();
+            assertTrue(text.startsWith(SttStubServer.CAPTION_PREFIX), "unexpected caption " + text);
+
+            int sequence = Integer.parseInt(text.substring(SttStubServer.CAPTION_PREFIX.length()));
+            assertTrue(sequence > last, "caption " + sequence + " after " + last);
+            last = sequence;
+        }
+    }
+}
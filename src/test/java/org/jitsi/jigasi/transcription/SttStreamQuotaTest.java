@@ -0,0 +1,138 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the limits of the streams to the transcription service per room and per node.
+ */
+public class SttStreamQuotaTest
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testSilentHolderGivesItsSlot()
+    {
+        SttStreamQuota quota = new SttStreamQuota(new SttStreamQuota.Node(0), 2, 3000);
+        TestHolder first = new TestHolder(false, 0);
+        TestHolder second = new TestHolder(false, 5 * SECOND);
+        TestHolder speaker = new TestHolder(false, 10 * SECOND);
+
+        assertTrue(quota.acquire(first, 0));
+        assertTrue(quota.acquire(second, 5 * SECOND));
+        assertTrue(quota.acquire(speaker, 10 * SECOND));
+
+        assertTrue(first.suspended);
+        assertFalse(second.suspended);
+        assertFalse(quota.allows(first));
+        assertTrue(quota.allows(speaker));
+        assertEquals(2, quota.getHeldCount());
+    }
+
+    @Test
+    public void testRecentSpeakersKeepTheirSlots()
+    {
+        SttStreamQuota quota = new SttStreamQuota(new SttStreamQuota.Node(0), 1, 3000);
+        TestHolder holder = new TestHolder(false, 0);
+        TestHolder speaker = new TestHolder(false, SECOND);
+
+        assertTrue(quota.acquire(holder, 0));
+        assertFalse(quota.acquire(speaker, SECOND));
+        assertFalse(holder.suspended);
+    }
+
+    @Test
+    public void testModeratorsKeepTheirSlots()
+    {
+        SttStreamQuota quota = new SttStreamQuota(new SttStreamQuota.Node(0), 1, 3000);
+        TestHolder moderator = new TestHolder(true, 0);
+
+        assertTrue(quota.acquire(moderator, 0));
+        assertFalse(quota.acquire(new TestHolder(false, 10 * SECOND), 10 * SECOND));
+        assertTrue(quota.acquire(new TestHolder(true, 10 * SECOND), 10 * SECOND));
+        assertTrue(moderator.suspended);
+    }
+
+    @Test
+    public void testNodeLimitSpansRooms()
+    {
+        SttStreamQuota.Node node = new SttStreamQuota.Node(1);
+        SttStreamQuota room1 = new SttStreamQuota(node, 0, 3000);
+        SttStreamQuota room2 = new SttStreamQuota(node, 0, 3000);
+        TestHolder holder = new TestHolder(false, 0);
+
+        assertTrue(room1.acquire(holder, 0));
+        assertTrue(room2.acquire(new TestHolder(false, 10 * SECOND), 10 * SECOND));
+        assertTrue(holder.suspended);
+        assertEquals(0, room1.getHeldCount());
+
+        room2.releaseAll();
+        assertTrue(room1.acquire(holder, 11 * SECOND));
+    }
+
+    @Test
+    public void testWithoutLimitsEveryoneHoldsASlot()
+    {
+        SttStreamQuota quota = new SttStreamQuota(new SttStreamQuota.Node(0), 0, 3000);
+
+        assertFalse(quota.isEnabled());
+        assertTrue(quota.allows(new TestHolder(false, 0)));
+    }
+
+    /**
+     * A participant speaking at a given time.
+     */
+    private static class TestHolder
+        implements SttStreamQuota.Holder
+    {
+        private final boolean moderator;
+
+        private final long lastSpeechNanos;
+
+        private boolean suspended;
+
+        TestHolder(boolean moderator, long lastSpeechNanos)
+        {
+            this.moderator = moderator;
+            this.lastSpeechNanos = lastSpeechNanos;
+        }
+
+        @Override
+        public boolean isModerator()
+        {
+            return moderator;
+        }
+
+        @Override
+        public long getLastSpeechNanos()
+        {
+            return lastSpeechNanos;
+        }
+
+        @Override
+        public void suspendStream()
+        {
+            suspended = true;
+        }
+    }
+}
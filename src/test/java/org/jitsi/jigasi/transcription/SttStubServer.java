@@ -0,0 +1,613 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription;
+
+import org.eclipse.jetty.server.*;
+import org.eclipse.jetty.servlet.*;
+import org.eclipse.jetty.websocket.api.*;
+import org.eclipse.jetty.websocket.api.annotations.*;
+import org.eclipse.jetty.websocket.server.config.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A local stand-in for a speech-to-text server, speaking the Vosk websocket
+ * protocol on <tt>/</tt> and the Whisper one on <tt>/ws/&lt;connection&gt;</tt>.
+ * It answers with a final result every time it received a given amount of
+ * audio of a stream, and optionally with partial ones in between.
+ *
+ * The audio frames given to jigasi can be stamped with a sequence number
+ * through {@link #stamp(byte[], int)}, the results then carry the sequence
+ * of the last frame they cover as <tt>caption #&lt;sequence&gt;</tt>, which
+ * lets the sender measure the time from giving the audio to getting its
+ * caption back.
+ *
+ * The misbehaviours are configured through the setters and apply to the
+ * audio and results that come after: the latency of the results, malformed
+ * results, connections dropped after some audio and a slow reader of the
+ * audio. The malformed results are picked from a seeded random, so a run
+ * with the same audio injects the same errors.
+ */
+public class SttStubServer
+{
+    /**
+     * The length of the audio frames the stamps are looked for in, 20ms of
+     * 16 bit mono audio at 48kHz.
+     */
+    public static final int FRAME_LENGTH = 1920;
+
+    /**
+     * The prefix of the captions, followed by the sequence of the frame.
+     */
+    public static final String CAPTION_PREFIX = "caption #";
+
+    /**
+     * The path of the Whisper protocol, followed by the connection id.
+     */
+    public static final String WHISPER_PATH = "/ws";
+
+    /**
+     * The length of the header of the Whisper audio messages.
+     */
+    private static final int WHISPER_HEADER_LENGTH = 60;
+
+    /**
+     * The bytes starting a stamped frame, followed by the sequence.
+     */
+    private static final byte[] STAMP = { 'J', 'G', 'S', 'T' };
+
+    /**
+     * The number of frames after which a final result is sent.
+     */
+    private final int utteranceFrames;
+
+    /**
+     * The number of frames after which a partial result is sent, 0 for none.
+     */
+    private volatile int partialFrames = 0;
+
+    /**
+     * The delay of the results, in milliseconds.
+     */
+    private volatile long resultLatencyMs = 0;
+
+    /**
+     * The probability of a result being replaced by a malformed one.
+     */
+    private volatile double errorRate = 0;
+
+    /**
+     * The number of frames after which a connection is dropped, 0 for never.
+     */
+    private volatile int disconnectAfterFrames = 0;
+
+    /**
+     * How long the reading of every audio message is held, in milliseconds.
+     */
+    private volatile long slowConsumerMs = 0;
+
+    /**
+     * Picks the results to break.
+     */
+    private final Random random = new Random(1);
+
+    /**
+     * Sends the delayed results, in order.
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread t = new Thread(r, "stt-stub-results");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The number of websocket sessions opened so far.
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * The number of connections dropped on purpose so far.
+     */
+    private final AtomicInteger injectedDisconnects = new AtomicInteger();
+
+    /**
+     * The number of malformed results sent so far.
+     */
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    /**
+     * The number of audio bytes received so far.
+     */
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    /**
+     * The number of final results sent so far.
+     */
+    private final AtomicLong sentResults = new AtomicLong();
+
+    /**
+     * The number of partial results sent so far.
+     */
+    private final AtomicLong sentPartials = new AtomicLong();
+
+    /**
+     * The jetty server.
+     */
+    private Server server;
+
+    /**
+     * The connector of the server, listening on a random port.
+     */
+    private ServerConnector connector;
+
+    /**
+     * Creates a server sending a final result every given number of frames.
+     * @param utteranceFrames the number of frames of an utterance.
+     */
+    public SttStubServer(int utteranceFrames)
+    {
+        this.utteranceFrames = utteranceFrames;
+    }
+
+    /**
+     * Starts the server on a random local port.
+     */
+    public void start()
+        throws Exception
+    {
+        server = new Server();
+        connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        connector.setPort(0);
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        JettyWebSocketServletContainerInitializer.configure(context, (servletContext, container) ->
+        {
+            container.setMaxBinaryMessageSize(1024 * 1024);
+            container.addMapping(WHISPER_PATH + "/*", (request, response) -> new WhisperSession());
+            container.addMapping("/*", (request, response) -> new VoskSession());
+        });
+        server.setHandler(context);
+
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop()
+        throws Exception
+    {
+        scheduler.shutdownNow();
+        if (server != null)
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return the url of the Vosk protocol.
+     */
+    public URI getUri()
+    {
+        return URI.create("ws://localhost:" + connector.getLocalPort());
+    }
+
+    /**
+     * @return the url of the Whisper protocol, without the connection id.
+     */
+    public URI getWhisperUri()
+    {
+        return URI.create("ws://localhost:" + connector.getLocalPort() + WHISPER_PATH);
+    }
+
+    /**
+     * @param partialFrames the number of frames after which a partial result is sent, 0 for none.
+     */
+    public void setPartialFrames(int partialFrames)
+    {
+        this.partialFrames = partialFrames;
+    }
+
+    /**
+     * @param resultLatencyMs the delay of the results, in milliseconds.
+     */
+    public void setResultLatencyMs(long resultLatencyMs)
+    {
+        this.resultLatencyMs = resultLatencyMs;
+    }
+
+    /**
+     * @param errorRate the probability, from 0 to 1, of a result being replaced by a malformed one.
+     */
+    public void setErrorRate(double errorRate)
+    {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param disconnectAfterFrames the number of frames after which a connection is dropped, 0 for never.
+     */
+    public void setDisconnectAfterFrames(int disconnectAfterFrames)
+    {
+        this.disconnectAfterFrames = disconnectAfterFrames;
+    }
+
+    /**
+     * @param slowConsumerMs how long the reading of every audio message is held, in milliseconds.
+     */
+    public void setSlowConsumerMs(long slowConsumerMs)
+    {
+        this.slowConsumerMs = slowConsumerMs;
+    }
+
+    /**
+     * @return the number of websocket sessions opened so far.
+     */
+    public int getConnections()
+    {
+        return connections.get();
+    }
+
+    /**
+     * @return the number of connections dropped on purpose so far.
+     */
+    public int getInjectedDisconnects()
+    {
+        return injectedDisconnects.get();
+    }
+
+    /**
+     * @return the number of malformed results sent so far.
+     */
+    public long getInjectedErrors()
+    {
+        return injectedErrors.get();
+    }
+
+    /**
+     * @return the number of audio bytes received so far.
+     */
+    public long getReceivedBytes()
+    {
+        return receivedBytes.get();
+    }
+
+    /**
+     * @return the number of final results sent so far.
+     */
+    public long getSentResults()
+    {
+        return sentResults.get();
+    }
+
+    /**
+     * @return the number of partial results sent so far.
+     */
+    public long getSentPartials()
+    {
+        return sentPartials.get();
+    }
+
+    /**
+     * Writes the stamp with the given sequence at the start of a frame.
+     * @param frame the frame of audio.
+     * @param sequence the sequence of the frame.
+     */
+    public static void stamp(byte[] frame, int sequence)
+    {
+        System.arraycopy(STAMP, 0, frame, 0, STAMP.length);
+        frame[4] = (byte) (sequence >>> 24);
+        frame[5] = (byte) (sequence >>> 16);
+        frame[6] = (byte) (sequence >>> 8);
+        frame[7] = (byte) sequence;
+    }
+
+    /**
+     * Reads the stamp of a frame.
+     * @param data the received audio.
+     * @param offset the start of the frame.
+     * @return the sequence of the frame, or -1 when it is not stamped.
+     */
+    static int readStamp(byte[] data, int offset)
+    {
+        for (int i = 0; i < STAMP.length; i++)
+        {
+            if (data[offset + i] != STAMP[i])
+            {
+                return -1;
+            }
+        }
+
+        return (data[offset + 4] & 0xff) << 24
+            | (data[offset + 5] & 0xff) << 16
+            | (data[offset + 6] & 0xff) << 8
+            | (data[offset + 7] & 0xff);
+    }
+
+    /**
+     * Holds the reading of an audio message when configured to be slow.
+     */
+    private void maybeConsumeSlowly()
+    {
+        long delay = slowConsumerMs;
+        if (delay > 0)
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends a result after the configured latency, or a malformed one instead.
+     * @param session the session to send to.
+     * @param message the result.
+     * @param partial whether the result is partial.
+     */
+    private void send(Session session, String message, boolean partial)
+    {
+        String toSend = message;
+        if (errorRate > 0 && random.nextDouble() < errorRate)
+        {
+            toSend = message.substring(0, message.length() / 2);
+            injectedErrors.incrementAndGet();
+        }
+        else if (partial)
+        {
+            sentPartials.incrementAndGet();
+        }
+        else
+        {
+            sentResults.incrementAndGet();
+        }
+
+        String result = toSend;
+        Runnable sending = () ->
+        {
+            try
+            {
+                if (session.isOpen())
+                {
+                    session.getRemote().sendString(result);
+                }
+            }
+            catch (IOException e)
+            {
+                // the client went away, as clients do
+            }
+        };
+
+        long latency = resultLatencyMs;
+        if (latency > 0)
+        {
+            scheduler.schedule(sending, latency, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            sending.run();
+        }
+    }
+
+    /**
+     * The state of the audio of one stream: a Vosk connection, or a
+     * participant of a Whisper connection.
+     */
+    private class Stream
+    {
+        /**
+         * The number of frames received since the last final result.
+         */
+        private int frames = 0;
+
+        /**
+         * The sequence of the last stamped frame received.
+         */
+        private int lastSequence = -1;
+
+        /**
+         * Counts the frames of received audio and tells which results are due.
+         * @param data the audio.
+         * @param offset the start of the audio.
+         * @param length the length of the audio.
+         * @param results receives true for a final result, false for a partial one.
+         */
+        void receive(byte[] data, int offset, int length, List<Boolean> results)
+        {
+            for (int i = offset; i + FRAME_LENGTH <= offset + length; i += FRAME_LENGTH)
+            {
+                int sequence = readStamp(data, i);
+                if (sequence >= 0)
+                {
+                    lastSequence = sequence;
+                }
+
+                frames++;
+                if (frames >= utteranceFrames)
+                {
+                    frames = 0;
+                    results.add(true);
+                }
+                else if (partialFrames > 0 && frames % partialFrames == 0)
+                {
+                    results.add(false);
+                }
+            }
+        }
+
+        /**
+         * @return the text of the results covering the audio received so far.
+         */
+        String caption()
+        {
+            return CAPTION_PREFIX + lastSequence;
+        }
+    }
+
+    /**
+     * The base of the connections: counts the received audio and drops them
+     * when configured to. The annotated methods are in the subclasses, as
+     * jetty looks for them on the endpoint class.
+     */
+    private abstract class StubSession
+    {
+        /**
+         * The number of frames received on this connection.
+         */
+        private int frames = 0;
+
+        /**
+         * Accounts received audio.
+         * @param session the session.
+         * @param length the bytes of audio.
+         * @return false when the connection was dropped.
+         */
+        boolean audioReceived(Session session, int length)
+        {
+            receivedBytes.addAndGet(length);
+            maybeConsumeSlowly();
+
+            frames += length / FRAME_LENGTH;
+            int disconnectAfter = disconnectAfterFrames;
+            if (disconnectAfter > 0 && frames >= disconnectAfter)
+            {
+                injectedDisconnects.incrementAndGet();
+                session.close(StatusCode.SERVER_ERROR, "injected disconnect");
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * A connection speaking the Vosk protocol: a json configuration, then
+     * binary audio until <tt>{"eof" : 1}</tt>. The results are
+     * <tt>{"partial" : ...}</tt> and <tt>{"text" : ...}</tt>.
+     */
+    @WebSocket
+    public class VoskSession
+        extends StubSession
+    {
+        /**
+         * The audio of the connection.
+         */
+        private final Stream stream = new Stream();
+
+        @OnWebSocketConnect
+        public void onConnect(Session session)
+        {
+            connections.incrementAndGet();
+        }
+
+        @OnWebSocketMessage
+        public void onText(Session session, String message)
+        {
+            if (message.contains("\"eof\""))
+            {
+                send(session, "{\"text\" : \"" + stream.caption() + "\"}", false);
+                session.close();
+            }
+        }
+
+        @OnWebSocketMessage
+        public void onBinary(Session session, byte[] payload, int offset, int length)
+        {
+            if (!audioReceived(session, length))
+            {
+                return;
+            }
+
+            List<Boolean> results = new ArrayList<>(1);
+            stream.receive(payload, offset, length, results);
+            for (boolean isFinal : results)
+            {
+                String key = isFinal ? "text" : "partial";
+                send(session, "{\"" + key + "\" : \"" + stream.caption() + "\"}", !isFinal);
+            }
+        }
+    }
+
+    /**
+     * A connection speaking the Whisper protocol: binary messages of a 60
+     * bytes header <tt>participant|language</tt> followed by the audio, a
+     * single byte to end. The results are
+     * <tt>{"type" : "partial"|"final", "participant_id" : ..., "text" : ..., "variance" : ...}</tt>.
+     */
+    @WebSocket
+    public class WhisperSession
+        extends StubSession
+    {
+        /**
+         * The audio of the participants of the connection.
+         */
+        private final Map<String, Stream> streams = new HashMap<>();
+
+        @OnWebSocketConnect
+        public void onConnect(Session session)
+        {
+            connections.incrementAndGet();
+        }
+
+        @OnWebSocketMessage
+        public void onBinary(Session session, byte[] payload, int offset, int length)
+        {
+            if (length <= 1)
+            {
+                session.close();
+                return;
+            }
+            if (length < WHISPER_HEADER_LENGTH || !audioReceived(session, length - WHISPER_HEADER_LENGTH))
+            {
+                return;
+            }
+
+            int headerEnd = offset;
+            while (headerEnd < offset + WHISPER_HEADER_LENGTH && payload[headerEnd] != 0)
+            {
+                headerEnd++;
+            }
+            String header = new String(payload, offset, headerEnd - offset, StandardCharsets.UTF_8);
+            int separator = header.indexOf('|');
+            String participantId = separator < 0 ? header : header.substring(0, separator);
+
+            Stream stream = streams.computeIfAbsent(participantId, id -> new Stream());
+            List<Boolean> results = new ArrayList<>(1);
+            stream.receive(payload, offset + WHISPER_HEADER_LENGTH, length - WHISPER_HEADER_LENGTH, results);
+            for (boolean isFinal : results)
+            {
+                send(session, "{\"type\" : \"" + (isFinal ? "final" : "partial") + "\", "
+                    + "\"participant_id\" : \"" + participantId + "\", "
+                    + "\"text\" : \"" + stream.caption() + "\", "
+                    + "\"variance\" : 1.0}", !isFinal);
+            }
+        }
+    }
+}
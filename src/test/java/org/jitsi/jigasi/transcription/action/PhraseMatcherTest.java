@@ -0,0 +1,87 @@
+/*
+ * Jigasi, the JItsi GAteway to SIP.
+ *
+ * Copyright @ 2024 - present 8x8, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.jigasi.transcription.action;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests finding the phrases of the actions in a transcript.
+ */
+public class PhraseMatcherTest
+{
+    private static final ActionHandler STOP_RECORDING = new ActionHandler("stop", "stop recording", "http://stop");
+
+    private static final ActionHandler RECORDING = new ActionHandler("recording", "recording", "http://recording");
+
+    private static final ActionHandler KICK = new ActionHandler("kick", "Jitsi kick", "http://kick");
+
+    private static final ActionHandler KICK_AUDIT = new ActionHandler("audit", "jitsi KICK", "http://audit");
+
+    private final PhraseMatcher<ActionHandler> matcher = new PhraseMatcher<>(
+        List.of(STOP_RECORDING, RECORDING, KICK, KICK_AUDIT), ActionHandler::getPhrase);
+
+    @Test
+    public void testNestedPhrases()
+    {
+        String text = "please Stop Recording now";
+        Map<ActionHandler, Integer> found = matcher.match(text);
+
+        assertEquals(Set.of(STOP_RECORDING, RECORDING), found.keySet());
+        assertEquals("now", text.substring(found.get(STOP_RECORDING)).trim());
+        assertEquals("now", text.substring(found.get(RECORDING)).trim());
+    }
+
+    @Test
+    public void testDuplicatePhrases()
+    {
+        String text = "jitsi kick bob";
+        Map<ActionHandler, Integer> found = matcher.match(text);
+
+        assertEquals(Set.of(KICK, KICK_AUDIT), found.keySet());
+        assertEquals(text.length() - 4, found.get(KICK));
+        assertEquals(text.length() - 4, found.get(KICK_AUDIT));
+    }
+
+    @Test
+    public void testOverlappingPhrases()
+    {
+        PhraseMatcher<String> overlapping = new PhraseMatcher<>(List.of("abcd", "cdef", "bc"), p -> p);
+
+        assertEquals(Map.of("bc", 4, "abcd", 5, "cdef", 7), overlapping.match("xabcdefx"));
+        assertEquals(List.of("bc", "abcd", "cdef"), new ArrayList<>(overlapping.match("xabcdefx").keySet()));
+    }
+
+    @Test
+    public void testFirstOccurrence()
+    {
+        String text = "recording one, then recording two";
+
+        assertEquals("one, then recording two", text.substring(matcher.match(text).get(RECORDING)).trim());
+    }
+
+    @Test
+    public void testNoMatch()
+    {
+        assertTrue(matcher.match("stop recordin").isEmpty());
+        assertTrue(matcher.match("").isEmpty());
+    }
+}